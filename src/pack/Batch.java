@@ -0,0 +1,194 @@
+package pack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch - runs many guest programs, or one program on many inputs, in one JVM:
+ *
+ *     java -cp bin pack.Batch manifest.txt outputDirectory [threads]
+ *
+ * Every line of the manifest is a Job: a program file, relative to the manifest, followed by
+ * the values of its inputs, i.e. "fib.txt 32" or "area.txt 3 2.5". Blank lines and lines that
+ * start with # are skipped. A program is loaded once for every list of input types it is run
+ * with, its parsed output written to the output directory, and its jobs execute the shared
+ * Program. The jobs run on the given number of threads, the number of processors by default,
+ * every thread taking the next job when it is done with one, so long and short jobs keep all
+ * the threads busy. Every thread has vm.stackSize of thread stack, as a program run by VM.
+ *
+ * What every job prints goes to a file of its own in the output directory, job1.txt for the
+ * first job of the manifest, and its status and time to results.txt and the console. Batch
+ * exits with status 1 if a job did not run to its end.
+ */
+public class Batch
+{
+	public static void main(String [] args) throws IOException, InterruptedException
+	{
+		if(args.length < 2)
+		{
+			System.out.println("usage: java pack.Batch manifest.txt outputDirectory [threads]");
+			return;
+		}
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		File directory = new File(args[1]);
+		directory.mkdirs();
+		List<Job> jobs = readManifest(new File(args[0]));
+		long start = System.nanoTime();
+		run(jobs, directory, threads);
+		long time = System.nanoTime() - start;
+
+		int failed = 0;
+		System.out.println("************ BATCH ************\n");
+		try(PrintWriter results = new PrintWriter(new File(directory, "results.txt")))
+		{
+			System.out.printf("%-6s %-14s %12s  %s%n", "job", "status", "ms", "program");
+			for(int k = 0; k < jobs.size(); k++)
+			{
+				Job job = jobs.get(k);
+				Files.writeString(new File(directory, "job" + (k + 1) + ".txt").toPath(), job.getOutput());
+				String line = String.format("%-6d %-14s %12.2f  %s", k + 1, job.getStatusName(), job.getNanos() / 1e6, job.print());
+				System.out.println(line);
+				results.println(line);
+				failed += job.getStatus() == Job.OK ? 0 : 1;
+			}
+		}
+		System.out.printf("%n%d job(s), %d failed, on %d thread(s) in %.2f ms, %.2f jobs/s%n%n", jobs.size(), failed,
+				threads, time / 1e6, jobs.size() / (time / 1e9));
+		if(failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * readManifest - the jobs of a manifest, as described above
+	 * @param manifest - the manifest file
+	 * @return - the jobs in the order of the manifest, with their files relative to it resolved
+	 * @throws IOException - if the manifest cannot be read or a value is not a number
+	 */
+	public static List<Job> readManifest(File manifest) throws IOException
+	{
+		List<Job> jobs = new ArrayList<Job>();
+		File base = manifest.getAbsoluteFile().getParentFile();
+		int number = 0;
+		for(String line : Files.readAllLines(manifest.toPath()))
+		{
+			number++;
+			if(line.isBlank() || line.trim().startsWith("#"))
+				continue;
+			try
+			{
+				Job job = Job.parse(line);
+				File file = new File(job.file);
+				jobs.add(file.isAbsolute() ? job : new Job(new File(base, job.file).getPath(), job.inputs));
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IOException("line " + number + " of " + manifest + ": " + e.getMessage());
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * run - loads the programs of a list of jobs and executes the jobs on a number of threads.
+	 * System.out is a ThreadOutput until all are done, so that every job gets what it prints.
+	 * @param jobs - the jobs, their output, status and time are set
+	 * @param directory - where the parsed output of every program is written
+	 * @param threads - the most jobs executing at once
+	 * @throws InterruptedException - if the thread is interrupted while it waits for the jobs
+	 */
+	public static void run(List<Job> jobs, File directory, int threads) throws InterruptedException
+	{
+		PrintStream console = System.out;
+		ThreadOutput out = new ThreadOutput(console);
+		System.setOut(out);
+		try
+		{
+			Program [] programs = load(jobs, directory, out);
+			AtomicInteger next = new AtomicInteger();
+			Thread [] workers = new Thread[Math.max(1, Math.min(threads, jobs.size()))];
+			for(int t = 0; t < workers.length; t++)
+			{
+				workers[t] = new Thread(null, () -> {
+					for(int k = next.getAndIncrement(); k < jobs.size(); k = next.getAndIncrement())
+						if(programs[k] != null)
+							execute(jobs.get(k), programs[k], out);
+				}, "batch-" + t, VM.stackSize * 1024L * 1024L);
+				workers[t].start();
+			}
+			for(Thread worker : workers)
+				worker.join();
+		}
+		finally
+		{
+			System.setOut(console);
+		}
+	}
+
+	/**
+	 * load - loads the program of every job, once for every file and list of input types.
+	 * The jobs whose program has errors get LOAD_ERROR and what the loader printed.
+	 * @return - the program of every job, null for the jobs whose program has errors
+	 */
+	private static Program [] load(List<Job> jobs, File directory, ThreadOutput out)
+	{
+		Program [] programs = new Program[jobs.size()];
+		HashMap<String, Program> loaded = new HashMap<String, Program>();
+		HashMap<String, String> errors = new HashMap<String, String>();
+		for(int k = 0; k < jobs.size(); k++)
+		{
+			Job job = jobs.get(k);
+			String key = job.getInputTypes() + " " + job.file;
+			if(!loaded.containsKey(key))
+			{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				out.capture(new PrintStream(buffer));
+				String parsed = new File(directory, "program" + (loaded.size() + 1) + ".parsed.txt").getPath();
+				loaded.put(key, Program.load(new String [] {job.file, parsed}, job.getInputTypes()));
+				out.release();
+				errors.put(key, buffer.toString());
+			}
+			programs[k] = loaded.get(key);
+			if(programs[k] == null)
+			{
+				job.status = Job.LOAD_ERROR;
+				job.output = errors.get(key);
+			}
+		}
+		return programs;
+	}
+
+	/**
+	 * execute - runs one job in a VM of its own, capturing what it prints
+	 */
+	private static void execute(Job job, Program program, ThreadOutput out)
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream print = new PrintStream(buffer);
+		out.capture(print);
+		long start = System.nanoTime();
+		try
+		{
+			new VM(program).execute(job.inputs);
+			job.status = Job.OK;
+		}
+		catch(RuntimeException | StackOverflowError e) //the job fails, the batch goes on
+		{
+			print.println("Exception: " + e);
+			job.status = Job.CRASH;
+		}
+		job.nanos = System.nanoTime() - start;
+		out.release();
+		print.flush();
+		job.output = buffer.toString();
+		if(job.status == Job.OK && (job.output.startsWith("Runtime Error") || job.output.contains("\nRuntime Error")))
+			job.status = Job.RUNTIME_ERROR;
+	}
+}
@@ -0,0 +1,104 @@
+package pack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Benchmark - times the execution modes of the virtual machine on one program:
+ *
+ *     java -cp bin pack.Benchmark inputFile.txt [repetitions]
+ *
+ * The program is loaded once, then the interpreter, the register machine, the closure compiler
+ * and the interpreter with the bytecode compiler each run it the given number of times, 5 by default, with the
+ * output of print discarded. Each run is a VM of its own executing the loaded Program, from the
+ * instructions as the loader left them, but compiled code is kept between runs, so the first run
+ * of a mode shows its warm up and the best run its steady state. The runtime options apply,
+ * i.e. -Dvm.jitThreshold, except the ones that select a mode.
+ */
+public class Benchmark
+{
+	private static final String [] MODES = {"interpreter", "registers", "closures", "jit"};
+
+	public static void main(String [] args) throws IOException, InterruptedException
+	{
+		if(args.length < 1)
+		{
+			System.out.println("usage: java pack.Benchmark inputFile.txt [repetitions]");
+			return;
+		}
+		int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		File parsed = File.createTempFile("benchmark", ".txt");
+		parsed.deleteOnExit();
+		Program program = Program.load(new String [] {args[0], parsed.getPath()});
+		if(program == null)
+			return;
+		CompactCode loaded = program.code(); //before any invoke is compiled
+		RegisterProgram registers = program.registers();
+		ClosureFunction closures = program.closures();
+
+		Thread runner = new Thread(null, () -> run(program, loaded, registers, closures, repetitions), "vm", VM.stackSize * 1024L * 1024L);
+		runner.start();
+		runner.join();
+	}
+
+	/**
+	 * run - times every mode and prints a table of the results
+	 * @param program - the loaded program
+	 * @param loaded - the instructions as the loader left them
+	 * @param registers - the program in register form, null if it cannot be translated
+	 * @param closures - the program compiled to closures, null if it cannot be
+	 * @param repetitions - the number of runs of every mode
+	 */
+	private static void run(Program program, CompactCode loaded, RegisterProgram registers, ClosureFunction closures, int repetitions)
+	{
+		PrintStream console = System.out;
+		PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+		console.println("************ BENCHMARK ************\n");
+		console.printf("%-12s %12s %12s %12s%n", "mode", "first ms", "best ms", "average ms");
+		for(String mode : MODES)
+		{
+			if(mode.equals("closures") && closures == null || mode.equals("registers") && registers == null)
+			{
+				console.printf("%-12s %12s%n", mode, "n/a");
+				continue;
+			}
+			long first = 0, best = Long.MAX_VALUE, total = 0;
+			for(int r = 0; r < repetitions; r++)
+			{
+				System.setOut(discard);
+				long time = time(program, mode, loaded, registers, closures);
+				System.setOut(console);
+				first = r == 0 ? time : first;
+				best = Math.min(best, time);
+				total += time;
+			}
+			console.printf("%-12s %12.2f %12.2f %12.2f%n", mode, first / 1e6, best / 1e6, total / 1e6 / repetitions);
+		}
+		console.println();
+	}
+
+	/**
+	 * time - runs the program once in a mode
+	 * @return - the wall time in nanoseconds
+	 */
+	private static long time(Program program, String mode, CompactCode loaded, RegisterProgram registers, ClosureFunction closures)
+	{
+		VM vm = new VM(program);
+		vm.compactCode = loaded; //undo compiled invokes, the program keeps the compiled functions
+		if(mode.equals("jit"))
+		{
+			vm.compiler = new Jit(vm);
+			vm.compiler.enable(program.length);
+		}
+		long start = System.nanoTime();
+		if(mode.equals("closures"))
+			ClosureCompiler.execute(closures, new long[0]);
+		else if(mode.equals("registers"))
+			RegisterMachine.run(registers, new long[0]);
+		else
+			vm.interpret(vm.runtimeStack.push(0, program.mainCells, 0, null));
+		return System.nanoTime() - start;
+	}
+}
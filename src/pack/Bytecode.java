@@ -0,0 +1,327 @@
+package pack;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Bytecode - a compact binary form of a parsed program, so a program whose source has not
+ * changed is loaded without lexing and parsing it again. The instruction array is written as
+ * parseInput() leaves it after refractJumpTargets(), every jump and invoke already holding an
+ * address, followed by the labels of VM.jumpMap, which the Inliner and the Optimizer remap:
+ *
+ *		"VMBC" VERSION key[32] count { opcode [operands] }* labels { label address }* crc
+ *
+ * where key is the SHA-256 of the source file, count and labels are ints, crc is the CRC-32
+ * of every byte before it, so a damaged file is not mistaken for a program, and an instruction
+ * is its opcode in one byte followed by only the operands it has: an int for iconst, the
+ * loads, the stores, print and the jump target of goto and the comparisons, a double for
+ * fconst, three ints for invoke and spawn. Only the opcodes of the source language, ICONST ...
+ * PRINT, SPAWN and JOIN, are written, the loader rewrites the program for the interpreter on
+ * every run.
+ *
+ * The cache directory, vm.cache, keeps one file per source, named after its key. A file is
+ * mapped into memory and checked as it is read, any file that is not exactly a well formed
+ * program for the key asked for is ignored and the source is parsed as usual, then written
+ * over it.
+ */
+public final class Bytecode
+{
+	private static final int MAGIC = 0x564D4243; //"VMBC"
+	private static final int VERSION = 1;
+	private static final int KEY = 32; //bytes of a SHA-256
+
+	/**
+	 * key - the key of a source file in the cache
+	 * @param source - the contents of the file, its position is left as it is
+	 * @return - the SHA-256 of the contents
+	 */
+	public static byte [] key(ByteBuffer source)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(source.duplicate());
+			return digest.digest();
+		}
+		catch(NoSuchAlgorithmException e) //every Java platform has SHA-256
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * file - the cache file of a source
+	 * @param directory - the cache directory
+	 * @param key - the key of the source
+	 * @return - the path of the file, the key in hexadecimal with ".vmbc" appended
+	 */
+	public static Path file(String directory, byte [] key)
+	{
+		StringBuilder name = new StringBuilder();
+		for(byte b : key)
+			name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return Paths.get(directory, name.append(".vmbc").toString());
+	}
+
+	/**
+	 * load - reads the program of a source from the cache
+	 * @param directory - the cache directory
+	 * @param key - the key of the source
+	 * @param labels - filled with the labels of the program
+	 * @return - the instructions, null if the cache has no valid file for the key
+	 */
+	public static Instruction [] load(String directory, byte [] key, Map<Integer, Integer> labels)
+	{
+		ByteBuffer in;
+		try(FileChannel channel = FileChannel.open(file(directory, key), StandardOpenOption.READ))
+		{
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		catch(NoSuchFileException e)
+		{
+			return null;
+		}
+		catch(IOException e)
+		{
+			System.out.println("** Cannot read the bytecode cache: " + e.getMessage() + " **\n");
+			return null;
+		}
+		return read(in, key, labels);
+	}
+
+	/**
+	 * read - reads and checks a program in binary form
+	 * @param in - the binary form
+	 * @param key - the key it must have been written for
+	 * @param labels - filled with the labels of the program, left empty if it is not valid
+	 * @return - the instructions, null if the binary form is not valid
+	 */
+	public static Instruction [] read(ByteBuffer in, byte [] key, Map<Integer, Integer> labels)
+	{
+		try
+		{
+			if(in.remaining() < 4 || checksum(in, in.limit() - 4) != in.getInt(in.limit() - 4))
+				return null;
+			in.limit(in.limit() - 4);
+			if(in.getInt() != MAGIC || in.getInt() != VERSION)
+				return null;
+			for(int k = 0; k < KEY; k++)
+				if(in.get() != key[k])
+					return null;
+			int n = in.getInt();
+			if(n < 0 || n > in.remaining()) //every instruction has an opcode byte
+				return null;
+			Instruction [] code = new Instruction[n];
+			for(int pc = 0; pc < n; pc++)
+				if((code[pc] = instruction(in, n)) == null)
+					return null;
+			int count = in.getInt();
+			if(count < 0 || count > in.remaining() / 8)
+				return null;
+			for(int k = 0; k < count; k++)
+			{
+				int label = in.getInt(), address = in.getInt();
+				if(label < 0 || address < 0 || address > n) //a label may follow the last instruction
+				{
+					labels.clear();
+					return null;
+				}
+				labels.put(label, address);
+			}
+			if(in.hasRemaining())
+			{
+				labels.clear();
+				return null;
+			}
+			return code;
+		}
+		catch(BufferUnderflowException e) //a truncated file
+		{
+			labels.clear();
+			return null;
+		}
+	}
+
+	/**
+	 * instruction - reads one instruction
+	 * @param in - the binary form, at the opcode
+	 * @param n - the number of instructions of the program, the bound of its addresses
+	 * @return - the instruction, null if it is not valid
+	 */
+	private static Instruction instruction(ByteBuffer in, int n)
+	{
+		int op = in.get();
+		switch(op)
+		{
+		case Instruction.ICONST: return new Iconst(in.getInt());
+		case Instruction.FCONST: return new Fconst(in.getDouble());
+		case Instruction.IADD: return new Iadd();
+		case Instruction.ISUB: return new Isub();
+		case Instruction.IMUL: return new Imul();
+		case Instruction.IDIV: return new Idiv();
+		case Instruction.FADD: return new Fadd();
+		case Instruction.FSUB: return new Fsub();
+		case Instruction.FMUL: return new Fmul();
+		case Instruction.FDIV: return new Fdiv();
+		case Instruction.INT_TO_FLOAT: return new IntToFloat();
+		case Instruction.RETURN: return new Return();
+		case Instruction.IRETURN: return new Ireturn();
+		case Instruction.FRETURN: return new Freturn();
+		case Instruction.INVOKE:
+		case Instruction.SPAWN:
+		{
+			int a = in.getInt(), b = in.getInt(), c = in.getInt();
+			if(a < 0 || a > n || b < 0 || c < 0)
+				return null;
+			return op == Instruction.SPAWN ? new Spawn(a, b, c) : new Invoke(a, b, c);
+		}
+		case Instruction.JOIN: return new Join();
+		default:
+			break;
+		}
+		if(op < 0 || op > Instruction.PRINT)
+			return null;
+		int value = in.getInt();
+		if(value < 0)
+			return null;
+		switch(op)
+		{
+		case Instruction.ILOAD: return new Iload(value);
+		case Instruction.ISTORE: return new Istore(value);
+		case Instruction.FLOAD: return new Fload(value);
+		case Instruction.FSTORE: return new Fstore(value);
+		case Instruction.PRINT: return new Print(value);
+		default: //goto and the comparisons
+			if(value > n) //a label may follow the last instruction
+				return null;
+			switch(op)
+			{
+			case Instruction.ICMPEQ: return new Icmpeq(value);
+			case Instruction.ICMPNE: return new Icmpne(value);
+			case Instruction.ICMPLT: return new Icmplt(value);
+			case Instruction.ICMPLE: return new Icmple(value);
+			case Instruction.ICMPGT: return new Icmpgt(value);
+			case Instruction.ICMPGE: return new Icmpge(value);
+			case Instruction.FCMPEQ: return new Fcmpeq(value);
+			case Instruction.FCMPNE: return new Fcmpne(value);
+			case Instruction.FCMPLT: return new Fcmplt(value);
+			case Instruction.FCMPLE: return new Fcmple(value);
+			case Instruction.FCMPGT: return new Fcmpgt(value);
+			case Instruction.FCMPGE: return new Fcmpge(value);
+			default: return new Goto(value);
+			}
+		}
+	}
+
+	/**
+	 * store - writes the program of a source to the cache. The file is written under another
+	 * name and then renamed, so a run reading the cache at the same time sees the whole file
+	 * or none of it.
+	 * @param directory - the cache directory, created if it does not exist
+	 * @param key - the key of the source
+	 * @param code - the instruction array, after refractJumpTargets()
+	 * @param n - the number of instructions
+	 * @param labels - the map from labels to addresses
+	 * @return - true if the file was written
+	 */
+	public static boolean store(String directory, byte [] key, Instruction [] code, int n, Map<Integer, Integer> labels)
+	{
+		Path file = file(directory, key);
+		try
+		{
+			Files.createDirectories(file.getParent());
+			Path part = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".part");
+			try
+			{
+				ByteBuffer out = write(code, n, key, labels);
+				try(FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE))
+				{
+					while(out.hasRemaining())
+						channel.write(out);
+				}
+				Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally
+			{
+				Files.deleteIfExists(part);
+			}
+			return true;
+		}
+		catch(IOException e)
+		{
+			System.out.println("** Cannot write the bytecode cache: " + e.getMessage() + " **\n");
+			return false;
+		}
+	}
+
+	/**
+	 * write - the binary form of a program
+	 * @param code - the instruction array, after refractJumpTargets()
+	 * @param n - the number of instructions
+	 * @param key - the key of its source
+	 * @param labels - the map from labels to addresses
+	 * @return - the binary form, from 0 to its limit
+	 */
+	public static ByteBuffer write(Instruction [] code, int n, byte [] key, Map<Integer, Integer> labels)
+	{
+		ByteBuffer out = ByteBuffer.allocate(4 + 4 + KEY + 4 + n * 13 + 4 + labels.size() * 8 + 4);
+		out.putInt(MAGIC).putInt(VERSION).put(key).putInt(n);
+		for(int pc = 0; pc < n; pc++)
+		{
+			Instruction i = code[pc];
+			int op = i.getOpcode();
+			if((op < 0 || op > Instruction.PRINT) && op != Instruction.SPAWN && op != Instruction.JOIN)
+				throw new IllegalArgumentException("Only the instructions of the source can be written, not " + i.print());
+			out.put((byte) op);
+			switch(op)
+			{
+			case Instruction.FCONST:
+				out.putDouble((double) i.getValue());
+				break;
+			case Instruction.INVOKE:
+			case Instruction.SPAWN:
+				for(int v : TypeFlow.invokeOperands(i))
+					out.putInt(v);
+				break;
+			case Instruction.IADD: case Instruction.ISUB: case Instruction.IMUL: case Instruction.IDIV:
+			case Instruction.FADD: case Instruction.FSUB: case Instruction.FMUL: case Instruction.FDIV:
+			case Instruction.INT_TO_FLOAT: case Instruction.RETURN: case Instruction.IRETURN: case Instruction.FRETURN:
+			case Instruction.JOIN:
+				break;
+			default: //iconst, the loads, the stores, print and the jumps have one int
+				out.putInt((int) i.getValue());
+			}
+		}
+		out.putInt(labels.size());
+		for(Map.Entry<Integer, Integer> label : labels.entrySet())
+			out.putInt(label.getKey()).putInt(label.getValue());
+		out.putInt(checksum(out, out.position()));
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * checksum - the CRC-32 of the first bytes of a buffer
+	 * @param b - the buffer, its position is left as it is
+	 * @param length - the number of bytes
+	 * @return - the CRC-32, as an int
+	 */
+	private static int checksum(ByteBuffer b, int length)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(b.duplicate().position(0).limit(length));
+		return (int) crc.getValue();
+	}
+}
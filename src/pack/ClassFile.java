@@ -0,0 +1,370 @@
+package pack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * ClassFile - a minimal writer of JVM class files, just enough for the code generated by Jit.
+ * It keeps a constant pool without duplicates, assembles the methods one at a time with labels
+ * for forward branches, and writes version 49.0 class files, which the JVM verifies by type
+ * inference, so no StackMapTable has to be computed.
+ */
+public final class ClassFile
+{
+	//the opcodes used by Jit
+	static final int ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f, BIPUSH = 0x10, SIPUSH = 0x11;
+	static final int LDC_W = 0x13, LDC2_W = 0x14, ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19;
+	static final int ISTORE = 0x36, DSTORE = 0x39;
+	static final int IADD = 0x60, DADD = 0x63, ISUB = 0x64, DSUB = 0x67, IMUL = 0x68, DMUL = 0x6b;
+	static final int IDIV = 0x6c, DDIV = 0x6f, I2D = 0x87, DCMPL = 0x97, DCMPG = 0x98;
+	static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+	static final int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2;
+	static final int IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7;
+	static final int IRETURN = 0xac, DRETURN = 0xaf, RETURN = 0xb1;
+	static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+	static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final HashMap<String, Integer> constants = new HashMap<String, Integer>();
+	private int poolSize = 1; //entry 0 is never used
+
+	private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	private int methodCount;
+
+	private final int thisClass, superClass;
+	private final int [] interfaces;
+
+	//the method being assembled
+	private byte [] code = new byte[256];
+	private int position;
+	private int [] labels = new int[16];	//offset of every label, -1 while unbound
+	private int labelCount;
+	private int [] fixups = new int[16];	//pairs of (offset of a branch, its label)
+	private int fixupCount;
+	private int method;					//offset of the header of the method in methods
+
+	/**
+	 * ClassFile constructor
+	 * @param name - the internal name of the class, i.e. pack/JitCode
+	 * @param superName - the internal name of the super class
+	 * @param interfaceNames - the internal names of the interfaces the class implements
+	 */
+	public ClassFile(String name, String superName, String ... interfaceNames)
+	{
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+		interfaces = new int[interfaceNames.length];
+		for(int k = 0; k < interfaces.length; k++)
+			interfaces[k] = classRef(interfaceNames[k]);
+	}
+
+	/**
+	 * classRef - the constant pool index of a CONSTANT_Class
+	 * @param name - the internal name of the class
+	 * @return - the index
+	 */
+	public int classRef(String name)
+	{
+		Integer index = constants.get("C" + name);
+		if(index == null)
+		{
+			int utf = utf8(name);
+			index = add("C" + name, 7);
+			write2(pool, utf);
+		}
+		return index;
+	}
+
+	/**
+	 * methodRef - the constant pool index of a CONSTANT_Methodref
+	 * @param owner - the internal name of the class declaring the method
+	 * @param name - the name of the method
+	 * @param descriptor - the descriptor of the method, i.e. (ID)V
+	 * @return - the index
+	 */
+	public int methodRef(String owner, String name, String descriptor)
+	{
+		String key = "M" + owner + '.' + name + descriptor;
+		Integer index = constants.get(key);
+		if(index == null)
+		{
+			int c = classRef(owner);
+			int n = utf8(name);
+			int d = utf8(descriptor);
+			int nameAndType = add("N" + name + descriptor, 12);
+			write2(pool, n);
+			write2(pool, d);
+			index = add(key, 10);
+			write2(pool, c);
+			write2(pool, nameAndType);
+		}
+		return index;
+	}
+
+	/**
+	 * beginMethod - starts assembling a method, the code follows with the emit methods
+	 * @param access - the access flags
+	 * @param name - the name of the method
+	 * @param descriptor - the descriptor of the method
+	 */
+	public void beginMethod(int access, String name, String descriptor)
+	{
+		method = methods.size();
+		write2(methods, access);
+		write2(methods, utf8(name));
+		write2(methods, utf8(descriptor));
+		position = 0;
+		labelCount = 0;
+		fixupCount = 0;
+	}
+
+	/**
+	 * endMethod - resolves the branches of the method being assembled and adds it to the class
+	 * @param maxStack - the maximum depth of the stack of operands, in words
+	 * @param maxLocals - the number of local variable words, including the parameters
+	 * @return - false if the method is too large for 16 bit branch offsets, the method is dropped
+	 */
+	public boolean endMethod(int maxStack, int maxLocals)
+	{
+		if(position > Short.MAX_VALUE)
+		{
+			byte [] kept = methods.toByteArray();
+			methods.reset();
+			methods.write(kept, 0, method);
+			return false;
+		}
+		for(int k = 0; k < fixupCount; k += 2)
+		{
+			int at = fixups[k];
+			int offset = labels[fixups[k + 1]] - at;
+			code[at + 1] = (byte) (offset >> 8);
+			code[at + 2] = (byte) offset;
+		}
+		write2(methods, 1); //one attribute, Code
+		write2(methods, utf8("Code"));
+		write4(methods, 12 + position);
+		write2(methods, maxStack);
+		write2(methods, maxLocals);
+		write4(methods, position);
+		methods.write(code, 0, position);
+		write2(methods, 0); //no exception table
+		write2(methods, 0); //no attributes
+		methodCount++;
+		return true;
+	}
+
+	/**
+	 * emit - appends an instruction without operands
+	 * @param opcode - the opcode
+	 */
+	public void emit(int opcode)
+	{
+		ensure(1);
+		code[position++] = (byte) opcode;
+	}
+
+	/**
+	 * emit1 - appends an instruction with a one byte operand, i.e. bipush
+	 * @param opcode - the opcode
+	 * @param operand - the operand
+	 */
+	public void emit1(int opcode, int operand)
+	{
+		ensure(2);
+		code[position++] = (byte) opcode;
+		code[position++] = (byte) operand;
+	}
+
+	/**
+	 * emit2 - appends an instruction with a two byte operand, i.e. sipush or invokestatic
+	 * @param opcode - the opcode
+	 * @param operand - the operand
+	 */
+	public void emit2(int opcode, int operand)
+	{
+		ensure(3);
+		code[position++] = (byte) opcode;
+		code[position++] = (byte) (operand >> 8);
+		code[position++] = (byte) operand;
+	}
+
+	/**
+	 * emitLocal - appends a load or store of a local variable, wide if the index needs it
+	 * @param opcode - ILOAD, DLOAD, ALOAD, ISTORE or DSTORE
+	 * @param index - the local variable index
+	 */
+	public void emitLocal(int opcode, int index)
+	{
+		if(index > 255)
+		{
+			emit(WIDE);
+			emit2(opcode, index);
+		}
+		else
+			emit1(opcode, index);
+	}
+
+	/**
+	 * emitInt - appends the shortest instruction that pushes an integer constant
+	 * @param value - the constant
+	 */
+	public void emitInt(int value)
+	{
+		if(value >= -1 && value <= 5)
+			emit(ICONST_0 + value);
+		else if(value == (byte) value)
+			emit1(BIPUSH, value);
+		else if(value == (short) value)
+			emit2(SIPUSH, value);
+		else
+			emit2(LDC_W, integer(value));
+	}
+
+	/**
+	 * emitDouble - appends the shortest instruction that pushes a floating-point constant
+	 * @param value - the constant
+	 */
+	public void emitDouble(double value)
+	{
+		if(Double.doubleToRawLongBits(value) == 0L) //not -0.0
+			emit(DCONST_0);
+		else if(value == 1.0)
+			emit(DCONST_1);
+		else
+			emit2(LDC2_W, doubleConstant(value));
+	}
+
+	/**
+	 * newLabel - creates a label to branch to, bound later with bind()
+	 * @return - the label
+	 */
+	public int newLabel()
+	{
+		if(labelCount == labels.length)
+			labels = Arrays.copyOf(labels, labelCount * 2);
+		labels[labelCount] = -1;
+		return labelCount++;
+	}
+
+	/**
+	 * bind - makes a label refer to the next instruction appended
+	 * @param label - the label
+	 */
+	public void bind(int label)
+	{
+		labels[label] = position;
+	}
+
+	/**
+	 * emitJump - appends a branch to a label
+	 * @param opcode - GOTO or a conditional branch
+	 * @param label - the label
+	 */
+	public void emitJump(int opcode, int label)
+	{
+		if(fixupCount + 2 > fixups.length)
+			fixups = Arrays.copyOf(fixups, fixups.length * 2);
+		fixups[fixupCount++] = position;
+		fixups[fixupCount++] = label;
+		emit2(opcode, 0);
+	}
+
+	/**
+	 * toByteArray - writes the class file
+	 * @return - the bytes of the class file
+	 */
+	public byte [] toByteArray()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write4(out, 0xCAFEBABE);
+		write2(out, 0);  //minor version
+		write2(out, 49); //major version, verified without stack map frames
+		write2(out, poolSize);
+		out.write(pool.toByteArray(), 0, pool.size());
+		write2(out, ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		write2(out, thisClass);
+		write2(out, superClass);
+		write2(out, interfaces.length);
+		for(int i : interfaces)
+			write2(out, i);
+		write2(out, 0); //no fields
+		write2(out, methodCount);
+		out.write(methods.toByteArray(), 0, methods.size());
+		write2(out, 0); //no attributes
+		return out.toByteArray();
+	}
+
+	private int utf8(String s)
+	{
+		Integer index = constants.get("U" + s);
+		if(index == null)
+		{
+			byte [] bytes = s.getBytes(StandardCharsets.UTF_8); //the names used are ASCII, the same in modified UTF-8
+			index = add("U" + s, 1);
+			write2(pool, bytes.length);
+			pool.write(bytes, 0, bytes.length);
+		}
+		return index;
+	}
+
+	private int integer(int value)
+	{
+		Integer index = constants.get("I" + value);
+		if(index == null)
+		{
+			index = add("I" + value, 3);
+			write4(pool, value);
+		}
+		return index;
+	}
+
+	private int doubleConstant(double value)
+	{
+		long bits = Double.doubleToRawLongBits(value);
+		Integer index = constants.get("D" + bits);
+		if(index == null)
+		{
+			index = add("D" + bits, 6);
+			write4(pool, (int) (bits >>> 32));
+			write4(pool, (int) bits);
+			poolSize++; //doubles take two entries
+		}
+		return index;
+	}
+
+	/**
+	 * add - starts a new constant pool entry
+	 * @param key - the key used to find the entry again
+	 * @param tag - the constant pool tag
+	 * @return - the index of the entry
+	 */
+	private int add(String key, int tag)
+	{
+		int index = poolSize++;
+		constants.put(key, index);
+		pool.write(tag);
+		return index;
+	}
+
+	private void ensure(int n)
+	{
+		if(position + n > code.length)
+			code = Arrays.copyOf(code, Math.max(code.length * 2, position + n));
+	}
+
+	private static void write2(ByteArrayOutputStream out, int value)
+	{
+		out.write(value >> 8);
+		out.write(value);
+	}
+
+	private static void write4(ByteArrayOutputStream out, int value)
+	{
+		write2(out, value >>> 16);
+		write2(out, value & 0xffff);
+	}
+}
@@ -0,0 +1,570 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * ClosureCompiler - compiles a whole program into trees of pre-bound lambdas, an execution
+ * mode between the interpreter and Jit selected with vm.closures. No class file is generated:
+ * every basic block of every GuestFunction found by TypeFlow becomes one closure, built from
+ * the closures of its instructions, which capture their memory cells, constants and jump
+ * targets as final fields, so HotSpot can inline a block into a single compiled method.
+ *
+ * The stack of operands disappears at compile time: instructions that push values build
+ * expression nodes, see ClosureNode, and the instructions that consume them nest those
+ * nodes. Values still on the stack at the end of a block are stored in one memory cell per
+ * stack depth, where the next block loads them. Calls and integer divisions are evaluated
+ * where they appear, into temporary cells, to keep the order of output and exceptions, and
+ * a value that reads a memory cell is saved the same way before the cell is overwritten.
+ *
+ * The program is compiled only if every function passes TypeFlow.unsupported() and only
+ * the code at address 0 ends the program, otherwise the interpreter runs it.
+ */
+public final class ClosureCompiler
+{
+	private final TypeFlow flow;
+	private final Instruction [] code;
+	private final HashMap<GuestFunction, ClosureFunction> functions = new HashMap<GuestFunction, ClosureFunction>();
+
+	//the function being compiled
+	private GuestFunction g;
+	private ClosureFunction target;
+	private int stackBase; //the cell of stack depth 0
+	private int cells;	   //cells allocated so far
+	private int [] blockOf;
+	private final ArrayList<ClosureNode> stack = new ArrayList<ClosureNode>();
+	private final ArrayList<Consumer<long []>> steps = new ArrayList<Consumer<long []>>();
+
+	private ClosureCompiler(TypeFlow f)
+	{
+		flow = f;
+		code = f.getCode();
+	}
+
+	/**
+	 * compile - compiles a program
+	 * @param flow - the analysis of the program
+	 * @return - the code at address 0, null if the program cannot be compiled
+	 */
+	public static ClosureFunction compile(TypeFlow flow)
+	{
+		for(GuestFunction g : flow.getFunctions())
+		{
+			String reason = g.endsProgram && g != flow.getMain() ? "ends the program" : flow.unsupported(g);
+			if(reason != null)
+			{
+				System.out.println("** Closure compilation is not possible, function " + g + " " + reason + " **\n");
+				return null;
+			}
+		}
+		ClosureCompiler compiler = new ClosureCompiler(flow);
+		for(GuestFunction g : flow.getFunctions())
+			compiler.functions.put(g, new ClosureFunction(g));
+		for(GuestFunction g : flow.getFunctions())
+			compiler.function(g);
+		return compiler.functions.get(flow.getMain());
+	}
+
+	/**
+	 * execute - runs a compiled program on the current thread
+	 * @param main - the code at address 0, as returned by compile()
+	 * @param inputs - the values of the first memory cells, ints as they are and doubles as their raw bits
+	 */
+	public static void execute(ClosureFunction main, long [] inputs)
+	{
+		long [] m = new long[main.cells];
+		System.arraycopy(inputs, 0, m, 0, inputs.length);
+		try
+		{
+			main.run(m);
+		}
+		catch(StackOverflowError e) //guest calls are Java calls in this mode
+		{
+			System.out.println("Runtime Error: the program ran out of thread stack, see vm.stackSize");
+		}
+	}
+
+	/**
+	 * function - builds the blocks of a function
+	 * @param f - the function
+	 */
+	private void function(GuestFunction f)
+	{
+		g = f;
+		target = functions.get(f);
+		int depth = 0;
+		for(byte [] s : f.stacks)
+			if(s != null)
+				depth = Math.max(depth, s.length);
+		stackBase = f.params + f.locals;
+		cells = stackBase + depth + 1;
+		target.result = stackBase; //the value returned is the only one on the stack
+
+		int n = code.length;
+		boolean [] jumpedTo = new boolean[n + 1]; //a jump to n, or an entry at n, ends the program
+		jumpedTo[f.entry] = true;
+		for(int pc = f.low; pc < f.high; pc++)
+			if(f.isReachable(pc))
+			{
+				int op = code[pc].getOpcode();
+				if(isCompare(op) || op == Instruction.GOTO)
+					jumpedTo[(int) code[pc].getValue()] = true;
+			}
+		blockOf = new int[n + 1]; //n has no block, so it exits the function
+		Arrays.fill(blockOf, -1);
+		int blocks = 0;
+		for(int pc = f.low; pc < f.high; pc++)
+			if(f.isReachable(pc) && (jumpedTo[pc] || pc == 0 || !f.isReachable(pc - 1) || endsBlock(pc - 1)))
+				blockOf[pc] = blocks++;
+		target.blocks = new ClosureFunction.Block[blocks];
+		target.entry = blockOf[f.entry];
+		for(int pc = f.low; pc < f.high; pc++)
+			if(f.isReachable(pc) && blockOf[pc] >= 0)
+				target.blocks[blockOf[pc]] = block(pc);
+		target.cells = cells;
+	}
+
+	/**
+	 * block - builds the closure of the basic block that starts at an instruction
+	 * @param start - the address of the first instruction
+	 * @return - the closure, which returns the index of the next block
+	 */
+	private ClosureFunction.Block block(int start)
+	{
+		stack.clear();
+		steps.clear();
+		byte [] entryStack = g.stack(start);
+		for(int d = 0; d < entryStack.length; d++)
+			stack.add(ClosureNode.load(stackBase + d, entryStack[d]));
+		ClosureFunction.Block exit = null;
+		for(int pc = start; exit == null; pc++)
+		{
+			Instruction i = code[pc];
+			int op = i.getOpcode();
+			switch(op)
+			{
+			case Instruction.ICONST:
+				stack.add(ClosureNode.constant((int) i.getValue()));
+				break;
+			case Instruction.FCONST:
+				stack.add(ClosureNode.constant((double) i.getValue()));
+				break;
+			case Instruction.ILOAD:
+				stack.add(ClosureNode.load((int) i.getValue(), TypeFlow.INT));
+				break;
+			case Instruction.FLOAD:
+				stack.add(ClosureNode.load((int) i.getValue(), TypeFlow.DOUBLE));
+				break;
+			case Instruction.ISTORE:
+			case Instruction.FSTORE:
+			{
+				int cell = (int) i.getValue();
+				ToLongFunction<long []> value = pop().raw();
+				save(cell);
+				steps.add(m -> m[cell] = value.applyAsLong(m));
+				break;
+			}
+			case Instruction.IADD:
+			case Instruction.ISUB:
+			case Instruction.IMUL:
+			case Instruction.IDIV:
+			{
+				ClosureNode b = pop();
+				ClosureNode a = pop();
+				ClosureNode r = intOperation(op, a, b);
+				stack.add(op == Instruction.IDIV ? evaluate(r) : r); //may throw, so it happens in order
+				break;
+			}
+			case Instruction.FADD:
+			case Instruction.FSUB:
+			case Instruction.FMUL:
+			case Instruction.FDIV:
+			{
+				ClosureNode b = pop();
+				ClosureNode a = pop();
+				stack.add(doubleOperation(op, a, b));
+				break;
+			}
+			case Instruction.INT_TO_FLOAT:
+			{
+				ClosureNode a = pop();
+				ToIntFunction<long []> x = a.ints;
+				stack.add(ClosureNode.ofDouble(m -> (double) x.applyAsInt(m), a));
+				break;
+			}
+			case Instruction.ICMPEQ:
+			case Instruction.ICMPNE:
+			case Instruction.ICMPLT:
+			case Instruction.ICMPLE:
+			case Instruction.ICMPGT:
+			case Instruction.ICMPGE:
+			case Instruction.FCMPEQ:
+			case Instruction.FCMPNE:
+			case Instruction.FCMPLT:
+			case Instruction.FCMPLE:
+			case Instruction.FCMPGT:
+			case Instruction.FCMPGE:
+			{
+				ClosureNode b = pop();
+				ClosureNode a = pop();
+				Predicate<long []> condition = op <= Instruction.ICMPGE ? intCompare(op, a, b) : doubleCompare(op, a, b);
+				int taken = blockOf[(int) i.getValue()];
+				int next = pc + 1 < code.length ? blockOf[pc + 1] : -1; //falling past the end ends the program
+				Consumer<long []> spill = spill();
+				if(spill == null)
+					exit = m -> condition.test(m) ? taken : next;
+				else
+					exit = m ->
+					{
+						boolean jump = condition.test(m);
+						spill.accept(m);
+						return jump ? taken : next;
+					};
+				break;
+			}
+			case Instruction.GOTO:
+				exit = jump(blockOf[(int) i.getValue()]);
+				break;
+			case Instruction.INVOKE:
+				exit = invoke(pc);
+				break;
+			case Instruction.RETURN:
+			case Instruction.IRETURN:
+			case Instruction.FRETURN:
+				if(g == flow.getMain() || stack.isEmpty())
+					exit = m -> -1;
+				else
+				{
+					ToLongFunction<long []> value = pop().raw();
+					int cell = stackBase;
+					exit = m ->
+					{
+						m[cell] = value.applyAsLong(m);
+						return -1;
+					};
+				}
+				break;
+			case Instruction.PRINT:
+				steps.add(print(pc, (int) i.getValue()));
+				break;
+			default:
+				throw new IllegalStateException("TypeFlow accepted opcode " + op);
+			}
+			if(exit == null && (pc + 1 >= code.length || blockOf[pc + 1] >= 0)) //falls into the next block
+				exit = pc + 1 >= code.length ? m -> -1 : jump(blockOf[pc + 1]);
+		}
+
+		ClosureFunction.Block block = exit;
+		for(int k = steps.size() - 1; k >= 0; k--) //nest the steps around the exit
+		{
+			Consumer<long []> step = steps.get(k);
+			ClosureFunction.Block rest = block;
+			block = m ->
+			{
+				step.accept(m);
+				return rest.run(m);
+			};
+		}
+		return block;
+	}
+
+	/**
+	 * invoke - compiles an invoke, a call of the closures of the callee or a jump to the
+	 * entry for a self tail call
+	 * @param pc - the address of the invoke
+	 * @return - the exit of the block if the invoke ends it, null otherwise
+	 */
+	private ClosureFunction.Block invoke(int pc)
+	{
+		GuestFunction callee = g.call(pc);
+		int params = callee.params;
+		ClosureNode [] args = arguments(params);
+		if(flow.isTailJump(g, pc))
+		{
+			int [] temp = new int[params];
+			for(int k = 0; k < params; k++) //all arguments are computed before the parameters change
+			{
+				temp[k] = cells++;
+				ToLongFunction<long []> arg = args[k].raw();
+				int cell = temp[k];
+				steps.add(m -> m[cell] = arg.applyAsLong(m));
+			}
+			steps.add(m ->
+			{
+				for(int k = 0; k < temp.length; k++)
+					m[k] = m[temp[k]];
+			});
+			return jump(target.entry);
+		}
+
+		ClosureFunction f = functions.get(callee);
+		boolean value = callee.result != null && callee.result.length == 1;
+		int cell = value ? cells++ : -1;
+		if(params == 1)
+		{
+			ToLongFunction<long []> a = args[0].raw();
+			steps.add(m ->
+			{
+				long [] c = new long[f.cells];
+				c[0] = a.applyAsLong(m);
+				f.run(c);
+				if(cell >= 0)
+					m[cell] = c[f.result];
+			});
+		}
+		else if(params == 2)
+		{
+			ToLongFunction<long []> a = args[0].raw();
+			ToLongFunction<long []> b = args[1].raw();
+			steps.add(m ->
+			{
+				long [] c = new long[f.cells];
+				c[0] = a.applyAsLong(m);
+				c[1] = b.applyAsLong(m);
+				f.run(c);
+				if(cell >= 0)
+					m[cell] = c[f.result];
+			});
+		}
+		else
+		{
+			BiConsumer<long [], long []> copy = null; //the arguments into the cells of the callee
+			for(int k = 0; k < params; k++)
+			{
+				ToLongFunction<long []> arg = args[k].raw();
+				int to = k;
+				BiConsumer<long [], long []> one = (m, c) -> c[to] = arg.applyAsLong(m);
+				copy = copy == null ? one : copy.andThen(one);
+			}
+			BiConsumer<long [], long []> all = copy != null ? copy : (m, c) -> {};
+			steps.add(m ->
+			{
+				long [] c = new long[f.cells];
+				all.accept(m, c);
+				f.run(c);
+				if(cell >= 0)
+					m[cell] = c[f.result];
+			});
+		}
+		if(value)
+			stack.add(ClosureNode.load(cell, callee.result[0]));
+		if(callee.result == null) //never returns
+			return m -> -1;
+		return null;
+	}
+
+	/**
+	 * arguments - pops the arguments of an invoke
+	 * @param n - the number of arguments
+	 * @return - the values of the arguments, the first argument first
+	 */
+	private ClosureNode [] arguments(int n)
+	{
+		ClosureNode [] args = new ClosureNode[n];
+		for(int k = n - 1; k >= 0; k--)
+			args[k] = pop();
+		return args;
+	}
+
+	/**
+	 * print - the closure of print, the type of the cell is known at compile time
+	 * @return - the closure, its output matches Frame.memoryToString()
+	 */
+	private Consumer<long []> print(int pc, int cell)
+	{
+		byte mask = g.memory(pc)[cell];
+		if(mask == TypeFlow.INT)
+			return m -> System.out.println("Print: " + (int) m[cell]);
+		if(mask == TypeFlow.DOUBLE)
+			return m -> System.out.println("Print: " + Double.longBitsToDouble(m[cell]));
+		return m -> System.out.println("Print: null");
+	}
+
+	/**
+	 * jump - ends a block by going to another, after storing the stack in its cells
+	 * @param next - the index of the next block
+	 * @return - the exit of the block
+	 */
+	private ClosureFunction.Block jump(int next)
+	{
+		Consumer<long []> spill = spill();
+		if(spill != null)
+			steps.add(spill);
+		return m -> next;
+	}
+
+	/**
+	 * spill - stores the values left on the stack in the cell of their depth. A value at
+	 * depth d only reads the cells of depths d and above, so they are stored from the bottom.
+	 * @return - the closure, null if every value is already in its cell
+	 */
+	private Consumer<long []> spill()
+	{
+		Consumer<long []> spill = null;
+		for(int d = 0; d < stack.size(); d++)
+		{
+			ClosureNode n = stack.get(d);
+			int cell = stackBase + d;
+			if(n.cell == cell)
+				continue;
+			ToLongFunction<long []> value = n.raw();
+			Consumer<long []> store = m -> m[cell] = value.applyAsLong(m);
+			spill = spill == null ? store : spill.andThen(store);
+		}
+		return spill;
+	}
+
+	/**
+	 * save - evaluates the values on the stack that read a memory cell before it is written
+	 * @param cell - the cell about to be written
+	 */
+	private void save(int cell)
+	{
+		for(int d = 0; d < stack.size(); d++)
+			if(stack.get(d).reads.get(cell))
+				stack.set(d, evaluate(stack.get(d)));
+	}
+
+	/**
+	 * evaluate - computes a value at this point of the block into a temporary cell
+	 * @param n - the value
+	 * @return - a load of the temporary cell
+	 */
+	private ClosureNode evaluate(ClosureNode n)
+	{
+		int cell = cells++;
+		ToLongFunction<long []> value = n.raw();
+		steps.add(m -> m[cell] = value.applyAsLong(m));
+		return ClosureNode.load(cell, n.type);
+	}
+
+	private ClosureNode pop()
+	{
+		return stack.remove(stack.size() - 1);
+	}
+
+	/**
+	 * intOperation - the closure of iadd, isub, imul or idiv. Loads and constants are captured
+	 * directly for iadd, isub and imul, the most frequent shapes.
+	 */
+	private static ClosureNode intOperation(int op, ClosureNode a, ClosureNode b)
+	{
+		int i = a.cell, j = b.cell, k = b.intValue;
+		if(i >= 0 && b.constant)
+			switch(op)
+			{
+			case Instruction.IADD: return ClosureNode.ofInt(m -> (int) m[i] + k, a, b);
+			case Instruction.ISUB: return ClosureNode.ofInt(m -> (int) m[i] - k, a, b);
+			case Instruction.IMUL: return ClosureNode.ofInt(m -> (int) m[i] * k, a, b);
+			}
+		if(i >= 0 && j >= 0)
+			switch(op)
+			{
+			case Instruction.IADD: return ClosureNode.ofInt(m -> (int) m[i] + (int) m[j], a, b);
+			case Instruction.ISUB: return ClosureNode.ofInt(m -> (int) m[i] - (int) m[j], a, b);
+			case Instruction.IMUL: return ClosureNode.ofInt(m -> (int) m[i] * (int) m[j], a, b);
+			}
+		ToIntFunction<long []> x = a.ints, y = b.ints;
+		switch(op)
+		{
+		case Instruction.IADD: return ClosureNode.ofInt(m -> x.applyAsInt(m) + y.applyAsInt(m), a, b);
+		case Instruction.ISUB: return ClosureNode.ofInt(m -> x.applyAsInt(m) - y.applyAsInt(m), a, b);
+		case Instruction.IMUL: return ClosureNode.ofInt(m -> x.applyAsInt(m) * y.applyAsInt(m), a, b);
+		default: return ClosureNode.ofInt(m -> x.applyAsInt(m) / y.applyAsInt(m), a, b);
+		}
+	}
+
+	/**
+	 * doubleOperation - the closure of fadd, fsub, fmul or fdiv
+	 */
+	private static ClosureNode doubleOperation(int op, ClosureNode a, ClosureNode b)
+	{
+		ToDoubleFunction<long []> x = a.doubles, y = b.doubles;
+		switch(op)
+		{
+		case Instruction.FADD: return ClosureNode.ofDouble(m -> x.applyAsDouble(m) + y.applyAsDouble(m), a, b);
+		case Instruction.FSUB: return ClosureNode.ofDouble(m -> x.applyAsDouble(m) - y.applyAsDouble(m), a, b);
+		case Instruction.FMUL: return ClosureNode.ofDouble(m -> x.applyAsDouble(m) * y.applyAsDouble(m), a, b);
+		default: return ClosureNode.ofDouble(m -> x.applyAsDouble(m) / y.applyAsDouble(m), a, b);
+		}
+	}
+
+	/**
+	 * intCompare - the condition of an integer compare-jump, with the load and constant
+	 * operands captured directly
+	 */
+	private static Predicate<long []> intCompare(int op, ClosureNode a, ClosureNode b)
+	{
+		int i = a.cell, j = b.cell, k = b.intValue;
+		if(i >= 0 && b.constant)
+			switch(op)
+			{
+			case Instruction.ICMPEQ: return m -> (int) m[i] == k;
+			case Instruction.ICMPNE: return m -> (int) m[i] != k;
+			case Instruction.ICMPLT: return m -> (int) m[i] < k;
+			case Instruction.ICMPLE: return m -> (int) m[i] <= k;
+			case Instruction.ICMPGT: return m -> (int) m[i] > k;
+			default: return m -> (int) m[i] >= k;
+			}
+		if(i >= 0 && j >= 0)
+			switch(op)
+			{
+			case Instruction.ICMPEQ: return m -> (int) m[i] == (int) m[j];
+			case Instruction.ICMPNE: return m -> (int) m[i] != (int) m[j];
+			case Instruction.ICMPLT: return m -> (int) m[i] < (int) m[j];
+			case Instruction.ICMPLE: return m -> (int) m[i] <= (int) m[j];
+			case Instruction.ICMPGT: return m -> (int) m[i] > (int) m[j];
+			default: return m -> (int) m[i] >= (int) m[j];
+			}
+		ToIntFunction<long []> x = a.ints, y = b.ints;
+		switch(op)
+		{
+		case Instruction.ICMPEQ: return m -> x.applyAsInt(m) == y.applyAsInt(m);
+		case Instruction.ICMPNE: return m -> x.applyAsInt(m) != y.applyAsInt(m);
+		case Instruction.ICMPLT: return m -> x.applyAsInt(m) < y.applyAsInt(m);
+		case Instruction.ICMPLE: return m -> x.applyAsInt(m) <= y.applyAsInt(m);
+		case Instruction.ICMPGT: return m -> x.applyAsInt(m) > y.applyAsInt(m);
+		default: return m -> x.applyAsInt(m) >= y.applyAsInt(m);
+		}
+	}
+
+	/**
+	 * doubleCompare - the condition of a floating-point compare-jump
+	 */
+	private static Predicate<long []> doubleCompare(int op, ClosureNode a, ClosureNode b)
+	{
+		ToDoubleFunction<long []> x = a.doubles, y = b.doubles;
+		switch(op)
+		{
+		case Instruction.FCMPEQ: return m -> x.applyAsDouble(m) == y.applyAsDouble(m);
+		case Instruction.FCMPNE: return m -> x.applyAsDouble(m) != y.applyAsDouble(m);
+		case Instruction.FCMPLT: return m -> x.applyAsDouble(m) < y.applyAsDouble(m);
+		case Instruction.FCMPLE: return m -> x.applyAsDouble(m) <= y.applyAsDouble(m);
+		case Instruction.FCMPGT: return m -> x.applyAsDouble(m) > y.applyAsDouble(m);
+		default: return m -> x.applyAsDouble(m) >= y.applyAsDouble(m);
+		}
+	}
+
+	/**
+	 * endsBlock - checks if the instruction at an address is the last of its basic block
+	 */
+	private boolean endsBlock(int pc)
+	{
+		int op = code[pc].getOpcode();
+		if(op == Instruction.INVOKE)
+			return flow.isTailJump(g, pc) || g.call(pc).result == null;
+		return isCompare(op) || op == Instruction.GOTO || TypeFlow.isReturn(op);
+	}
+
+	private static boolean isCompare(int op)
+	{
+		return op >= Instruction.ICMPEQ && op <= Instruction.FCMPGE;
+	}
+}
@@ -0,0 +1,51 @@
+package pack;
+
+/**
+ * ClosureFunction - a guest function compiled by ClosureCompiler. Every basic block is one
+ * tree of closures that executes the block on the memory cells of a call and returns the
+ * index of the next block, or -1 when the function returns. A call allocates the cells,
+ * the parameters first, and the block loop below is the only dispatch left.
+ */
+public final class ClosureFunction
+{
+	final GuestFunction function;
+	int cells;		//memory cells of a call: parameters, local variables, stack slots and temporaries
+	int result;		//the cell that holds the returned value after run()
+	int entry;		//the block of the first instruction
+	Block [] blocks;
+
+	/**
+	 * ClosureFunction constructor - the blocks are set by ClosureCompiler once all functions
+	 * exist, since they call each other
+	 * @param g - the analyzed function
+	 */
+	ClosureFunction(GuestFunction g)
+	{
+		function = g;
+	}
+
+	/**
+	 * run - executes the function
+	 * @param m - the memory cells of the call, with the arguments in the first cells
+	 */
+	void run(long [] m)
+	{
+		Block [] b = blocks;
+		int next = entry;
+		while(next >= 0)
+			next = b[next].run(m);
+	}
+
+	/**
+	 * Block - the closure of a basic block
+	 */
+	interface Block
+	{
+		/**
+		 * run - executes the block
+		 * @param m - the memory cells of the call
+		 * @return - the index of the next block, -1 when the function returns
+		 */
+		int run(long [] m);
+	}
+}
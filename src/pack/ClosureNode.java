@@ -0,0 +1,108 @@
+package pack;
+
+import java.util.BitSet;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * ClosureNode - a value on the stack of operands while ClosureCompiler builds a basic block:
+ * the closure that computes it from the memory cells of the frame, and what the compiler
+ * needs to know to combine it with other values. Loads and constants remember their cell or
+ * value, so that the closures of the instructions that use them capture those directly.
+ */
+final class ClosureNode
+{
+	final byte type;						//TypeFlow.INT or TypeFlow.DOUBLE
+	final ToIntFunction<long []> ints;		//computes an int, null for a double
+	final ToDoubleFunction<long []> doubles;	//computes a double, null for an int
+	final BitSet reads;						//the memory cells the closure reads
+	final int cell;							//the cell a load reads, -1 for other values
+	final boolean constant;
+	final int intValue;
+	final double doubleValue;
+
+	private ClosureNode(byte t, ToIntFunction<long []> i, ToDoubleFunction<long []> d, BitSet r, int c,
+			boolean k, int iv, double dv)
+	{
+		type = t;
+		ints = i;
+		doubles = d;
+		reads = r;
+		cell = c;
+		constant = k;
+		intValue = iv;
+		doubleValue = dv;
+	}
+
+	/**
+	 * load - the value of a memory cell
+	 * @param cell - the index of the cell
+	 * @param type - the type the cell holds
+	 * @return - the node
+	 */
+	static ClosureNode load(int cell, byte type)
+	{
+		BitSet reads = new BitSet();
+		reads.set(cell);
+		if(type == TypeFlow.INT)
+			return new ClosureNode(type, m -> (int) m[cell], null, reads, cell, false, 0, 0.0);
+		return new ClosureNode(type, null, m -> Double.longBitsToDouble(m[cell]), reads, cell, false, 0, 0.0);
+	}
+
+	static ClosureNode constant(int value)
+	{
+		return new ClosureNode(TypeFlow.INT, m -> value, null, new BitSet(), -1, true, value, 0.0);
+	}
+
+	static ClosureNode constant(double value)
+	{
+		return new ClosureNode(TypeFlow.DOUBLE, null, m -> value, new BitSet(), -1, true, 0, value);
+	}
+
+	/**
+	 * ofInt - an int computed from other values
+	 * @param f - the closure
+	 * @param from - the values it uses
+	 * @return - the node
+	 */
+	static ClosureNode ofInt(ToIntFunction<long []> f, ClosureNode ... from)
+	{
+		return new ClosureNode(TypeFlow.INT, f, null, union(from), -1, false, 0, 0.0);
+	}
+
+	/**
+	 * ofDouble - a double computed from other values
+	 * @param f - the closure
+	 * @param from - the values it uses
+	 * @return - the node
+	 */
+	static ClosureNode ofDouble(ToDoubleFunction<long []> f, ClosureNode ... from)
+	{
+		return new ClosureNode(TypeFlow.DOUBLE, null, f, union(from), -1, false, 0, 0.0);
+	}
+
+	/**
+	 * raw - a closure that computes the value in the representation of a memory cell:
+	 * ints as they are, doubles as their raw bits
+	 * @return - the closure
+	 */
+	ToLongFunction<long []> raw()
+	{
+		if(type == TypeFlow.INT)
+		{
+			ToIntFunction<long []> f = ints;
+			return m -> f.applyAsInt(m);
+		}
+		ToDoubleFunction<long []> f = doubles;
+		return m -> Double.doubleToRawLongBits(f.applyAsDouble(m));
+	}
+
+	private static BitSet union(ClosureNode [] from)
+	{
+		BitSet reads = new BitSet();
+		for(ClosureNode n : from)
+			reads.or(n.reads);
+		return reads;
+	}
+}
@@ -0,0 +1,117 @@
+package pack;
+
+import java.util.Arrays;
+
+/**
+ * CompactCode - the loaded program in structure-of-arrays form, the one Frame.run() executes.
+ * Every instruction is an opcode in one int array, its integer operands in another, three
+ * consecutive ints per instruction so they share a cache line, and its floating-point
+ * constant in a double array, so the dispatch loop reads primitives at the program counter
+ * instead of following a pointer to an Instruction object per instruction.
+ *
+ * The program is packed once the loader is done rewriting VM.instructionArray. Instructions
+ * with an operand are packed in their Quick form, so the interpreter never meets an opcode
+ * it has to decode first. A copy of the Instruction objects is kept as well, for the few
+ * opcodes whose operands are not primitives: MemoInvoke, CompiledInvoke and the ForkInvoke
+ * and JoinInvoke of a parallel pair.
+ *
+ * A CompactCode never changes once it is packed, so the executions of a Program share it.
+ * Replacing an instruction makes a new one, see Program.link().
+ */
+public final class CompactCode
+{
+	final int [] opcodes;
+	final int [] operands;		//operand, operand2 and operand3 of Instruction, at 3 * pc
+	final double [] constants;
+	final Instruction [] instructions;
+	final int length;
+	private int quickened; //instructions packed in their Quick form
+
+	private CompactCode(Instruction [] code, int n)
+	{
+		opcodes = new int[n];
+		operands = new int[3 * n];
+		constants = new double[n];
+		instructions = Arrays.copyOf(code, n);
+		length = n;
+	}
+
+	private CompactCode(CompactCode c)
+	{
+		opcodes = c.opcodes.clone();
+		operands = c.operands.clone();
+		constants = c.constants.clone();
+		instructions = c.instructions.clone();
+		length = c.length;
+		quickened = c.quickened;
+	}
+
+	/**
+	 * pack - the structure-of-arrays form of a program
+	 * @param code - the instruction array, as the loader left it
+	 * @param n - the number of instructions
+	 * @return - the packed program
+	 */
+	public static CompactCode pack(Instruction [] code, int n)
+	{
+		CompactCode c = new CompactCode(code, n);
+		for(int pc = 0; pc < n; pc++)
+			c.put(pc, code[pc]);
+		return c;
+	}
+
+	/**
+	 * replace - a copy of the program with one instruction replaced while the program runs,
+	 * i.e. an invoke with a CompiledInvoke, in both forms
+	 * @param pc - the address of the instruction
+	 * @param i - the new instruction
+	 * @return - the new packed program, this one is not changed
+	 */
+	public CompactCode replace(int pc, Instruction i)
+	{
+		CompactCode c = new CompactCode(this);
+		c.instructions[pc] = i;
+		c.put(pc, i);
+		return c;
+	}
+
+	/**
+	 * getQuickened - the number of instructions packed in their Quick form
+	 * @return - the number of quickened instructions
+	 */
+	public int getQuickened()
+	{
+		return quickened;
+	}
+
+	private void put(int pc, Instruction i)
+	{
+		Instruction q = i;
+		if(hasOperand(i.opcode))
+		{
+			q = Quick.quicken(i);
+			quickened++;
+		}
+		opcodes[pc] = q.opcode;
+		operands[3 * pc] = q.operand;
+		operands[3 * pc + 1] = q.operand2;
+		operands[3 * pc + 2] = q.operand3;
+		constants[pc] = q.constant;
+	}
+
+	/**
+	 * hasOperand - checks if an opcode has a Quick form
+	 */
+	private static boolean hasOperand(int op)
+	{
+		switch(op)
+		{
+		case Instruction.IADD: case Instruction.ISUB: case Instruction.IMUL: case Instruction.IDIV:
+		case Instruction.FADD: case Instruction.FSUB: case Instruction.FMUL: case Instruction.FDIV:
+		case Instruction.INT_TO_FLOAT: case Instruction.RETURN: case Instruction.IRETURN: case Instruction.FRETURN:
+			return false;
+		default:
+			return op <= Instruction.TAIL_INVOKE;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package pack;
 
+import java.util.Map;
+
 /**
  * Compare - Abstract class used to derive compare instructions
  *
@@ -10,6 +12,11 @@ package pack;
  */
 public abstract class Compare extends Instruction 
 {
-	public abstract void refract();
+	protected Compare(int op)
+	{
+		super(op);
+	}
+
+	public abstract Compare refract(Map<Integer, Integer> labels);
 	
 }
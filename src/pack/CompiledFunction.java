@@ -0,0 +1,15 @@
+package pack;
+
+/**
+ * CompiledFunction - the entry point of a guest function compiled by Jit. The generated
+ * class implements it, so the interpreter calls compiled code without reflection.
+ */
+public interface CompiledFunction
+{
+	/**
+	 * invoke - pops the arguments from the stack of operands, runs the compiled function
+	 * and pushes the value it returns, the same effect an interpreted invoke has
+	 * @param stack - the stack of operands of the virtual machine
+	 */
+	void invoke(OperandStack stack);
+}
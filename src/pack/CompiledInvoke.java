@@ -0,0 +1,22 @@
+package pack;
+
+/**
+ * CompiledInvoke - an invoke whose function was compiled to JVM bytecode by Jit. The
+ * interpreter replaces a hot invoke with it, after which Frame.run() calls the compiled
+ * code instead of pushing a frame.
+ */
+public final class CompiledInvoke extends Rewritten
+{
+	final CompiledFunction function; //read directly by the dispatch loop
+
+	/**
+	 * CompiledInvoke constructor
+	 * @param i - the invoke being replaced, possibly quickened
+	 * @param f - the compiled function it calls
+	 */
+	public CompiledInvoke(Instruction i, CompiledFunction f)
+	{
+		super(COMPILED_INVOKE, i, 0, 0, 0, 0.0);
+		function = f;
+	}
+}
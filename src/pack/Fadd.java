@@ -4,6 +4,7 @@ public class Fadd extends Instruction
 {
 	public Fadd()
 	{
+		super(FADD);
 	}
 	
 	public String print()
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Fcmpeq extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Fcmpeq(int j)
 	{
+		super(FCMPEQ);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Fcmpeq extends Compare
 		return "fcmpeq " + jump;
 	}
 	
-	public void refract()
+	public Fcmpeq refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Fcmpeq(labels.get(jump));
 	}
 
 	@Override
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Fcmpge extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Fcmpge(int j)
 	{
+		super(FCMPGE);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Fcmpge extends Compare
 		return "fcmpge " + jump;
 	}
 	
-	public void refract()
+	public Fcmpge refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Fcmpge(labels.get(jump));
 	}
 	
 	@Override
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Fcmpgt extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Fcmpgt(int j)
 	{
+		super(FCMPGT);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Fcmpgt extends Compare
 		return "fcmpgt " + jump;
 	}
 	
-	public void refract()
+	public Fcmpgt refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Fcmpgt(labels.get(jump));
 	}
 
 	@Override
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Fcmple extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Fcmple(int j)
 	{
+		super(FCMPLE);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Fcmple extends Compare
 		return "fcmple "+ jump;
 	}
 	
-	public void refract()
+	public Fcmple refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Fcmple(labels.get(jump));
 	}
 	
 	@Override
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Fcmplt extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Fcmplt(int j)
 	{
+		super(FCMPLT);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Fcmplt extends Compare
 		return "fcmplt "+ jump;
 	}
 	
-	public void refract()
+	public Fcmplt refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Fcmplt(labels.get(jump));
 	}
 	
 	@Override
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Fcmpne extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Fcmpne(int j)
 	{
+		super(FCMPNE);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Fcmpne extends Compare
 		return "fcmpne " + jump;
 	}
 	
-	public void refract()
+	public Fcmpne refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Fcmpne(labels.get(jump));
 	}
 	
 	@Override
@@ -2,10 +2,11 @@ package pack;
 
 public class Fconst extends Instruction
 {
-	double constant; //must work for float and float E
+	final double constant; //must work for float and float E
 
 	public Fconst(double d)
 	{
+		super(FCONST);
 		constant = d;
 	}
 	
@@ -4,7 +4,7 @@ public class Fdiv extends Instruction
 {
 	public Fdiv()
 	{
-		
+		super(FDIV);
 	}
 	
 	public String print()
@@ -2,10 +2,11 @@ package pack;
 
 public class Fload extends Instruction 
 {
-	int address; //must be between 0 and 999
+	final int address; //must be between 0 and 999
 
 	public Fload(int a)
 	{
+		super(FLOAD);
 		address = a;
 	}
 	
@@ -4,7 +4,7 @@ public class Fmul extends Instruction
 {
 	public Fmul()
 	{
-		
+		super(FMUL);
 	}
 	
 	public String print()
@@ -0,0 +1,43 @@
+package pack;
+
+/**
+ * ForkInvoke - the first invoke of a pair of independent calls of pure functions, see
+ * Parallelizer.java. When the pool of subtasks has room, Frame.run() pops the arguments into
+ * a Subtask that calls the function in a VM of its own, pushes a place for the result and
+ * goes on with the arguments of the second call, the JoinInvoke, which fills the place in
+ * once it has returned. Otherwise it calls the function as invoke does, or as a CompiledInvoke
+ * does once Jit has compiled it, see Program.link().
+ */
+public final class ForkInvoke extends Rewritten
+{
+	final int join;	//the address of the JoinInvoke of the pair
+	final byte type;	//OperandStack.INT or OperandStack.DOUBLE, the type of the result
+	final CompiledFunction function; //the function compiled by Jit, null while it is interpreted
+
+	/**
+	 * ForkInvoke constructor
+	 * @param i - the invoke being replaced
+	 * @param j - the address of the second invoke of the pair
+	 * @param t - the type of the result
+	 */
+	public ForkInvoke(Instruction i, int j, byte t)
+	{
+		super(FORK_INVOKE, i, TypeFlow.invokeOperands(i)[0], TypeFlow.invokeOperands(i)[1], TypeFlow.invokeOperands(i)[2], 0.0);
+		join = j;
+		type = t;
+		function = null;
+	}
+
+	/**
+	 * ForkInvoke constructor - a copy that calls compiled code when it does not fork
+	 * @param i - the fork being copied
+	 * @param f - the compiled function it calls
+	 */
+	public ForkInvoke(ForkInvoke i, CompiledFunction f)
+	{
+		super(FORK_INVOKE, i.getOriginal(), i.operand, i.operand2, i.operand3, 0.0);
+		join = i.join;
+		type = i.type;
+		function = f;
+	}
+}
@@ -4,6 +4,12 @@ package pack;
 /**
  * Frame Class - allows the program to instantiate runtime frames for the function calls. 
  * All the Frames contain a stack of operands, a memory array, a caller frame and the program counter.
+ * The memory array (variable area) keeps every parameter and local variable unboxed in a long slot,
+ * integers directly and floating-point numbers as raw bits, the same representation used by the
+ * OperandStack. A parallel array of tags records the type of each slot so print can render it.
+ * The variable areas of all frames live in the FrameArena of VM.runtimeStack, each frame addresses
+ * its own cells from a base pointer, and Frame objects are recycled by the arena. A Frame belongs
+ * to the VM whose arena made it and executes the program loaded in that VM.
  * Each frame is instantiated and placed onto the runTime stack in VM.java and executed through the 
  * method run. This method iterates through the program instruction array and performs actions according
  * to the semantics below:
@@ -55,6 +61,11 @@ package pack;
 	# 	print
 		->	print k : print value at address k in variable area on the screen
 
+	# 	green threads, see Scheduler.java
+		->	spawn k1, k2, k3 : start a thread that runs the function at label k1 with the k2 parameters
+			popped from the stack and k3 local variables, push the int id of the thread
+		->	join : wait until the thread whose id is on top of the stack has ended, then pop the id
+
  *************************************************************************************************************
 		For more information about the methods, please check their javadocs
  *************************************************************************************************************
@@ -63,144 +74,789 @@ package pack;
  *                      @author Vagner Machado - QC ID 23651127 - Fall 2019
  *************************************************************************************************************
  */
-public class Frame extends VM
+public class Frame
 {
 	
-	private  Object [] memory;
+	int base;	//index of memory cell 0 of this frame in the arena slots of VM.runtimeStack
+
+	private final VM vm; //the virtual machine the frame belongs to
 	private int returnAddress;
 	private int programCounter;
 	private Frame callerFrame;
+	private boolean memoized; //called by a MemoInvoke that missed, its return stores the result
+	private Subtask joined; //called by a JoinInvoke whose pair forked, its return joins the fork
 
 	/**
-	 * Frame constructor - instantiates a Frame to be placed on the runtime Stack
-	 * @param pc - the program counter
-	 * @param os - the operand stack
-	 * @param mem - the memory needed for the frame local vars and param
-	 * @param c - the caller frame
+	 * Frame constructor, frames are created and recycled by the FrameArena
+	 * @param v - the virtual machine of the arena
 	 */
-	public Frame(int pc, Object []  mem , int add, Frame f)
+	Frame(VM v)
 	{
-		callerFrame = f;
-		returnAddress = add;
-		memory = mem;
-		programCounter = pc;
+		vm = v;
 	}
-	
+
 	/**
-	 * default constructor
+	 * init - (re)initializes a Frame to be placed on the runtime Stack
+	 * @param pc - the program counter
+	 * @param b - the base of the memory cells of the frame in the arena
+	 * @param add - the return address in the caller frame
+	 * @param f - the caller frame
 	 */
-	public Frame()
+	void init(int pc, int b, int add, Frame f)
 	{
-		
+		callerFrame = f;
+		memoized = false;
+		joined = null;
+		returnAddress = add;
+		base = b;
+		programCounter = pc;
 	}
 
 	/**
 	 * run - performs all actions required to execute the instructions 
 	 * according to the semantics using the instance variables: stack
 	 * of operands, memory cells, callee frame and program counter.
-	 * The method iterates through the instruction array
-	 * and emit valid, push, pop, compare, invoke and other instructions based on 
-	 * contents of array of instructions and given semantics.
+	 * The method iterates through the instruction array and dispatches every
+	 * instruction through a switch on its opcode, which compiles to a single
+	 * tableswitch. When VM.legacyDispatch is set the original instanceof
+	 * chain in runLegacy() is used instead, so both can be compared.
+	 *
+	 * The loop is flat: invoke pushes the callee Frame onto the runtime stack and
+	 * continues with it, the return instructions pop it and continue with the caller.
+	 * No Java stack frame is used per guest call, so the guest recursion depth is
+	 * bounded by VM.maxCallDepth instead of by the size of the thread stack.
+	 * run returns when this frame returns or when the end of the program is reached.
+	 *
+	 * The loop walks VM.compactCode, the program packed into arrays of opcodes, operands and
+	 * constants, in which every instruction with an operand is already in its Quick form, so
+	 * the operands are read as primitives without a call to getValue() or a cast and without
+	 * following a pointer per instruction. Superinstructions created by the loader execute a
+	 * whole sequence of instructions in one dispatch.
+	 *
+	 * When VM.jitThreshold is set every invoke is counted, and the one that reaches it
+	 * asks Jit to compile the function it calls. The invoke is then replaced with a
+	 * CompiledInvoke, which runs the function as JVM bytecode without pushing frames, in a new
+	 * CompactCode the loop continues with, since the packed program is shared with other executions.
+	 *
+	 * A MemoInvoke calls a pure function only when VM.memoCache does not have the result for its
+	 * arguments yet, the Frame it pushes is marked so that its return stores the result.
+	 *
+	 * A ForkInvoke runs the first call of a pair in a Subtask when the pool needs work and pushes a
+	 * place for its result, the Frame the JoinInvoke of the pair pushes is then marked so that its
+	 * return waits for the subtask and fills the place in, see Parallelizer.java. Jit compiles the
+	 * functions of a pair like those of any hot invoke, a pair that does not fork calls them as a
+	 * CompiledInvoke does.
+	 *
+	 * A program that spawns green threads runs every one of them in a VM of its own, a time
+	 * slice at a time, with run(slice) below, see Scheduler.java.
 	 */
 	protected void run()
+	{
+		if(VM.legacyDispatch)
+		{
+			runLegacy();
+			return;
+		}
+		run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * run - executes from this frame, the one on top of the runtime stack, as run() does, for at
+	 * most a number of dispatches. The loop also stops at a join of a thread that has not ended.
+	 * @param slice - the most instructions dispatched, a time slice of the green thread
+	 * @return - the frame on top of the runtime stack, whose program counter is where the thread
+	 * goes on, null once the bottom frame has returned, the end of the program is reached or a
+	 * Runtime Error stopped the thread
+	 */
+	Frame run(long slice)
+	{
+		CompactCode program = vm.compactCode;
+		int [] opcodes = program.opcodes;
+		int [] operands = program.operands;
+		double [] constants = program.constants;
+		int end = program.length;
+		OperandStack stack = vm.operandStack;
+		FrameArena arena = vm.runtimeStack;
+		Frame frame = this;			//the frame being executed
+		long [] mem = arena.slots;	//the variable areas of all frames
+		byte [] memTags = arena.tags;
+		int base = this.base;		//and where the one of the current frame starts
+		int depth = arena.size() + vm.callerDepth; //the frames of the calls that forked this one count as well
+		int pc = programCounter;
+		//while there are instructions
+		long [] pairs = vm.profile; //opcode pairs, counted only when recording a profile
+		Jit compiler = vm.compiler; //null when the compiler is off
+		int [] invocations = compiler == null ? null : compiler.invocations; //executions of every invoke
+		int jitThreshold = VM.jitThreshold, maxCallDepth = VM.maxCallDepth;
+		MemoCache memo = vm.memoCache;
+		int previous = 0;
+		while(pc < end)
+		{
+			if(slice-- == 0) //the time slice is over
+			{
+				frame.programCounter = pc;
+				return frame;
+			}
+			int op = opcodes[pc], at = 3 * pc; //the operands of the instruction start at operands[at]
+			if(pairs != null)
+			{
+				int profiled = Superinstructions.profiled(op);
+				pairs[previous * Instruction.MNEMONICS.length + profiled]++;
+				previous = profiled;
+			}
+			switch(op)
+			{
+			case Instruction.QICONST:
+				stack.pushInt(operands[at]);
+				pc++;
+				break;
+
+			case Instruction.QFCONST:
+				stack.pushDouble(constants[pc]);
+				pc++;
+				break;
+
+			case Instruction.QILOAD:
+				stack.pushInt((int) mem[base + operands[at]]);
+				pc++;
+				break;
+
+			case Instruction.QFLOAD:
+				stack.pushDouble(Double.longBitsToDouble(mem[base + operands[at]]));
+				pc++;
+				break;
+
+			case Instruction.QISTORE:
+			{
+				int address = base + operands[at];
+				mem[address] = stack.popInt();
+				memTags[address] = OperandStack.INT;
+				pc++;
+				break;
+			}
+
+			case Instruction.QFSTORE:
+			{
+				int address = base + operands[at];
+				mem[address] = Double.doubleToRawLongBits(stack.popDouble());
+				memTags[address] = OperandStack.DOUBLE;
+				pc++;
+				break;
+			}
+
+			case Instruction.IADD:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				stack.pushInt(bottom + top);
+				pc++;
+				break;
+			}
+
+			case Instruction.ISUB:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				stack.pushInt(bottom - top);
+				pc++;
+				break;
+			}
+
+			case Instruction.IMUL:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				stack.pushInt(bottom * top);
+				pc++;
+				break;
+			}
+
+			case Instruction.IDIV:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				stack.pushInt(bottom / top);
+				pc++;
+				break;
+			}
+
+			case Instruction.FADD:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				stack.pushDouble(bottom + top);
+				pc++;
+				break;
+			}
+
+			case Instruction.FSUB:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				stack.pushDouble(bottom - top);
+				pc++;
+				break;
+			}
+
+			case Instruction.FMUL:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				stack.pushDouble(bottom * top);
+				pc++;
+				break;
+			}
+
+			case Instruction.FDIV:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				stack.pushDouble(bottom / top);
+				pc++;
+				break;
+			}
+
+			case Instruction.INT_TO_FLOAT:
+				stack.pushDouble(stack.popInt());
+				pc++;
+				break;
+
+			case Instruction.QICMPEQ:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				pc = bottom == top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QICMPNE:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				pc = bottom != top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QICMPLT:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				pc = bottom < top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QICMPLE:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				pc = bottom <= top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QICMPGT:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				pc = bottom > top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QICMPGE:
+			{
+				int top = stack.popInt();
+				int bottom = stack.popInt();
+				pc = bottom >= top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QFCMPEQ:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				pc = bottom == top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QFCMPNE:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				pc = bottom != top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QFCMPLT:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				pc = bottom < top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QFCMPLE:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				pc = bottom <= top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QFCMPGT:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				pc = bottom > top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QFCMPGE:
+			{
+				double top = stack.popDouble();
+				double bottom = stack.popDouble();
+				pc = bottom >= top ? operands[at] : pc + 1;
+				break;
+			}
+
+			case Instruction.QGOTO:
+				pc = operands[at];
+				break;
+
+			case Instruction.QPRINT:
+				System.out.println("Print: " + frame.memoryToString(operands[at]));
+				pc++;
+				break;
+
+			case Instruction.PRINT_INT: //the Verifier proved the type of the cell
+				System.out.println("Print: " + (int) mem[base + operands[at]]);
+				pc++;
+				break;
+
+			case Instruction.PRINT_DOUBLE:
+				System.out.println("Print: " + Double.longBitsToDouble(mem[base + operands[at]]));
+				pc++;
+				break;
+
+			case Instruction.PRINT_NULL:
+				System.out.println("Print: null");
+				pc++;
+				break;
+
+			case Instruction.IRETURN: //the return value is already on top of the shared stack of operands
+			case Instruction.FRETURN:
+			case Instruction.RETURN:
+			{
+				if(frame.memoized)
+					memo.store(stack);
+				if(frame.joined != null && !vm.join(frame.joined))
+					return null;
+				arena.pop();
+				Frame caller = frame.callerFrame;
+				if(caller == null) //the bottom frame has returned
+					return null;
+				pc = frame.returnAddress;
+				frame = caller;
+				base = frame.base;
+				depth--;
+				break;
+			}
+
+			case Instruction.QTAIL_INVOKE:
+			case Instruction.QINVOKE:
+			{
+				if(invocations != null && ++invocations[pc] == jitThreshold && compiler.compile(pc))
+				{
+					program = vm.compactCode; //the invoke was replaced with a call to compiled code in a new copy
+					opcodes = program.opcodes;
+					operands = program.operands;
+					constants = program.constants;
+					continue;
+				}
+				if(op == Instruction.QTAIL_INVOKE && frame.callerFrame != null) //the main frame has nothing to return to
+				{
+					arena.reuse(frame, operands[at + 1] + operands[at + 2]);
+					mem = arena.slots; //the arena may have grown
+					memTags = arena.tags;
+					stack.transferTo(mem, memTags, base, operands[at + 1]);
+					pc = operands[at];
+					vm.tailCalls++;
+					break;
+				}
+				if(++depth > maxCallDepth)
+				{
+					vm.runtimeError("Runtime Error: invoke at " + pc + " exceeds the maximum call depth of " + 
+							maxCallDepth + ", see vm.maxCallDepth");
+					return null;
+				}
+				frame = arena.push(operands[at], operands[at + 1] + operands[at + 2], pc + 1, frame);
+				mem = arena.slots; //the arena may have grown
+				memTags = arena.tags;
+				base = frame.base;
+				stack.transferTo(mem, memTags, base, operands[at + 1]);
+				pc = operands[at];
+				break;
+			}
+
+			case Instruction.MEMO_INVOKE:
+			{
+				int hit = memo.find(((MemoInvoke) program.instructions[pc]).function, stack, operands[at + 1]);
+				if(hit >= 0)
+				{
+					stack.replaceTop(operands[at + 1], memo.value(hit), ((MemoInvoke) program.instructions[pc]).type);
+					pc++;
+					break;
+				}
+				if(++depth > maxCallDepth)
+				{
+					vm.runtimeError("Runtime Error: invoke at " + pc + " exceeds the maximum call depth of " + 
+							maxCallDepth + ", see vm.maxCallDepth");
+					return null;
+				}
+				frame = arena.push(operands[at], operands[at + 1] + operands[at + 2], pc + 1, frame);
+				frame.memoized = true;
+				mem = arena.slots; //the arena may have grown
+				memTags = arena.tags;
+				base = frame.base;
+				stack.transferTo(mem, memTags, base, operands[at + 1]);
+				pc = operands[at];
+				break;
+			}
+
+			case Instruction.FORK_INVOKE:
+			case Instruction.JOIN_INVOKE:
+			{
+				if(invocations != null && ++invocations[pc] == jitThreshold && compiler.compile(pc))
+				{
+					program = vm.compactCode; //the pair calls the compiled function from now on, in a new copy
+					opcodes = program.opcodes;
+					operands = program.operands;
+					constants = program.constants;
+					continue;
+				}
+				Subtask forked = vm.forked;
+				vm.forked = null;
+				if(op == Instruction.FORK_INVOKE)
+				{
+					vm.forked = Subtask.fork(vm, operands[at], operands[at + 1], operands[at + 2]);
+					if(vm.forked != null)
+					{
+						stack.replaceTop(0, 0, ((ForkInvoke) program.instructions[pc]).type); //the place of the result
+						pc++;
+						break;
+					}
+				}
+				CompiledFunction function = op == Instruction.FORK_INVOKE ? ((ForkInvoke) program.instructions[pc]).function : 
+						((JoinInvoke) program.instructions[pc]).function;
+				if(function != null)
+				{
+					try
+					{
+						function.invoke(stack);
+					}
+					catch(StackOverflowError e) //compiled functions call each other on the thread stack
+					{
+						vm.runtimeError("Runtime Error: compiled code called at " + pc + " ran out of thread stack, see vm.stackSize");
+						return null;
+					}
+					if(forked != null && !vm.join(forked))
+						return null;
+					pc++;
+					break;
+				}
+				if(++depth > maxCallDepth)
+				{
+					vm.runtimeError("Runtime Error: invoke at " + pc + " exceeds the maximum call depth of " + 
+							maxCallDepth + ", see vm.maxCallDepth");
+					return null;
+				}
+				frame = arena.push(operands[at], operands[at + 1] + operands[at + 2], pc + 1, frame);
+				frame.joined = forked; //null unless the first call of the pair was forked
+				mem = arena.slots; //the arena may have grown
+				memTags = arena.tags;
+				base = frame.base;
+				stack.transferTo(mem, memTags, base, operands[at + 1]);
+				pc = operands[at];
+				break;
+			}
+
+			case Instruction.SPAWN:
+				stack.pushInt(vm.scheduler.spawn(vm, operands[at], operands[at + 1], operands[at + 2]));
+				pc++;
+				break;
+
+			case Instruction.JOIN:
+			{
+				GreenThread thread = vm.scheduler.thread(stack.peekInt());
+				if(thread == null)
+				{
+					vm.runtimeError("Runtime Error: join at " + pc + " waits for thread " + stack.peekInt() + ", which was never spawned");
+					return null;
+				}
+				if(!thread.done) //the scheduler resumes the frame here once the thread has ended
+				{
+					frame.programCounter = pc;
+					return frame;
+				}
+				stack.popInt();
+				pc++;
+				break;
+			}
+
+			case Instruction.COMPILED_INVOKE:
+				try
+				{
+					((CompiledInvoke) program.instructions[pc]).function.invoke(stack);
+				}
+				catch(StackOverflowError e) //compiled functions call each other on the thread stack
+				{
+					vm.runtimeError("Runtime Error: compiled code called at " + pc + " ran out of thread stack, see vm.stackSize");
+					return null;
+				}
+				pc++;
+				break;
+
+			//superinstructions, the instructions they replace follow them in the array and are skipped
+			case Instruction.ILOAD_ILOAD_IADD:
+				stack.pushInt((int) mem[base + operands[at]] + (int) mem[base + operands[at + 1]]);
+				pc += 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_ISUB:
+				stack.pushInt((int) mem[base + operands[at]] - (int) mem[base + operands[at + 1]]);
+				pc += 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_IMUL:
+				stack.pushInt((int) mem[base + operands[at]] * (int) mem[base + operands[at + 1]]);
+				pc += 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_IADD:
+				stack.pushInt((int) mem[base + operands[at]] + operands[at + 1]);
+				pc += 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_ISUB:
+				stack.pushInt((int) mem[base + operands[at]] - operands[at + 1]);
+				pc += 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_IADD_ISTORE:
+				mem[base + operands[at + 2]] = (int) mem[base + operands[at]] + operands[at + 1];
+				memTags[base + operands[at + 2]] = OperandStack.INT;
+				pc += 4;
+				break;
+
+			case Instruction.FLOAD_FLOAD_FADD:
+				stack.pushDouble(Double.longBitsToDouble(mem[base + operands[at]]) + Double.longBitsToDouble(mem[base + operands[at + 1]]));
+				pc += 3;
+				break;
+
+			case Instruction.FLOAD_FLOAD_FSUB:
+				stack.pushDouble(Double.longBitsToDouble(mem[base + operands[at]]) - Double.longBitsToDouble(mem[base + operands[at + 1]]));
+				pc += 3;
+				break;
+
+			case Instruction.FLOAD_FLOAD_FMUL:
+				stack.pushDouble(Double.longBitsToDouble(mem[base + operands[at]]) * Double.longBitsToDouble(mem[base + operands[at + 1]]));
+				pc += 3;
+				break;
+
+			case Instruction.FLOAD_FLOAD_FDIV:
+				stack.pushDouble(Double.longBitsToDouble(mem[base + operands[at]]) / Double.longBitsToDouble(mem[base + operands[at + 1]]));
+				pc += 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_ICMPEQ:
+				pc = (int) mem[base + operands[at]] == operands[at + 1] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_ICMPNE:
+				pc = (int) mem[base + operands[at]] != operands[at + 1] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_ICMPLT:
+				pc = (int) mem[base + operands[at]] < operands[at + 1] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_ICMPLE:
+				pc = (int) mem[base + operands[at]] <= operands[at + 1] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_ICMPGT:
+				pc = (int) mem[base + operands[at]] > operands[at + 1] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ICONST_ICMPGE:
+				pc = (int) mem[base + operands[at]] >= operands[at + 1] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_ICMPEQ:
+				pc = (int) mem[base + operands[at]] == (int) mem[base + operands[at + 1]] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_ICMPNE:
+				pc = (int) mem[base + operands[at]] != (int) mem[base + operands[at + 1]] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_ICMPLT:
+				pc = (int) mem[base + operands[at]] < (int) mem[base + operands[at + 1]] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_ICMPLE:
+				pc = (int) mem[base + operands[at]] <= (int) mem[base + operands[at + 1]] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_ICMPGT:
+				pc = (int) mem[base + operands[at]] > (int) mem[base + operands[at + 1]] ? operands[at + 2] : pc + 3;
+				break;
+
+			case Instruction.ILOAD_ILOAD_ICMPGE:
+				pc = (int) mem[base + operands[at]] >= (int) mem[base + operands[at + 1]] ? operands[at + 2] : pc + 3;
+				break;
+
+			default:
+				throw new IllegalStateException("Unknown opcode " + op + " at " + pc);
+			}
+		}
+		frame.programCounter = pc;
+		return null;
+	}
+
+	/**
+	 * getProgramCounter - accessor for where the frame goes on
+	 * @return - the address of the next instruction of the frame
+	 */
+	int getProgramCounter()
+	{
+		return programCounter;
+	}
+
+	/**
+	 * runLegacy - the original interpreter loop that finds the action of every instruction
+	 * by walking a chain of instanceof checks. Kept behind VM.legacyDispatch for comparison
+	 * with the opcode dispatch in run().
+	 */
+	protected void runLegacy()
 	{
 		//while there are instructions
-		while(programCounter < arrayLocation)
+		while(programCounter < vm.compactCode.length)
 		{
 			//get the instructions and process it as dictated by semantics
-			Instruction i = instructionArray[programCounter];
+			Instruction i = vm.compactCode.instructions[programCounter];
 			//System.out.println(i.print() + "\t - pc " + programCounter + " stack " + operandStack.size());
-			if(i instanceof Iconst || i instanceof Fconst)
+			if(i instanceof Iconst)
 			{
-				VM.operandStack.push(i.getValue());
+				vm.operandStack.pushInt((int) i.getValue());
 				programCounter++;
 			}
 
-			else if(i instanceof Iload || i instanceof Fload)
+			else if(i instanceof Fconst)
 			{
-				VM.operandStack.push(memory[(int) i.getValue()]);
+				vm.operandStack.pushDouble((double) i.getValue());
 				programCounter++;
 			}
 
-			else if(i instanceof Istore || i instanceof Fstore)
+			else if(i instanceof Iload)
 			{
-				memory[(int) i.getValue()] = VM.operandStack.pop();
+				vm.operandStack.pushInt((int) vm.runtimeStack.slots[base + (int) i.getValue()]);
+				programCounter++;
+			}
+
+			else if(i instanceof Fload)
+			{
+				vm.operandStack.pushDouble(Double.longBitsToDouble(vm.runtimeStack.slots[base + (int) i.getValue()]));
+				programCounter++;
+			}
+
+			else if(i instanceof Istore)
+			{
+				int address = base + (int) i.getValue();
+				vm.runtimeStack.slots[address] = vm.operandStack.popInt();
+				vm.runtimeStack.tags[address] = OperandStack.INT;
+				programCounter++;
+			}
+
+			else if(i instanceof Fstore)
+			{
+				int address = base + (int) i.getValue();
+				vm.runtimeStack.slots[address] = Double.doubleToRawLongBits(vm.operandStack.popDouble());
+				vm.runtimeStack.tags[address] = OperandStack.DOUBLE;
 				programCounter++;
 			}
 
 			else if(i instanceof Iadd)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
-				VM.operandStack.push(bottom + top);
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
+				vm.operandStack.pushInt(bottom + top);
 				programCounter++;
 			}
 
 			else if(i instanceof Fadd)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
-				VM.operandStack.push(bottom + top);
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
+				vm.operandStack.pushDouble(bottom + top);
 				programCounter++;
 			}
 
 			else if(i instanceof Isub)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
-				VM.operandStack.push(bottom - top);
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
+				vm.operandStack.pushInt(bottom - top);
 				programCounter++;
 			}
 
 			else if(i instanceof Fsub)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
-				VM.operandStack.push(bottom - top);
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
+				vm.operandStack.pushDouble(bottom - top);
 				programCounter++;
 			}
 
 			else if(i instanceof Imul)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
-				VM.operandStack.push(bottom * top);
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
+				vm.operandStack.pushInt(bottom * top);
 				programCounter++;
 			}
 
 			else if(i instanceof Fmul)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
-				VM.operandStack.push(bottom * top);
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
+				vm.operandStack.pushDouble(bottom * top);
 				programCounter++;
 			}
 
 			else if(i instanceof Idiv)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
-				VM.operandStack.push(bottom / top);
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
+				vm.operandStack.pushInt(bottom / top);
 				programCounter++;
 			}
 
 			else if(i instanceof Fdiv)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
-				VM.operandStack.push(bottom / top);
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
+				vm.operandStack.pushDouble(bottom / top);
 				programCounter++;
 			}
 
 			else if (i instanceof Print)
 			{
-				System.out.println("Print: " + memory[(int) i.getValue()]);
+				System.out.println("Print: " + memoryToString((int) i.getValue()));
 				programCounter++;
 			}	
 
 			else if (i instanceof IntToFloat)
 			{
-				VM.operandStack.push((double)((int)VM.operandStack.pop()) + 0.0);
+				vm.operandStack.pushDouble(vm.operandStack.popInt());
 				programCounter++;
 			}
 
@@ -211,8 +867,8 @@ public class Frame extends VM
 
 			else if (i instanceof Icmpeq)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
 				if(bottom == top)
 					programCounter = (int) i.getValue();
 				else
@@ -221,8 +877,8 @@ public class Frame extends VM
 
 			else if (i instanceof Fcmpeq)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
 				if(bottom == top)
 					programCounter = (int) i.getValue();
 				else
@@ -231,8 +887,8 @@ public class Frame extends VM
 
 			else if (i instanceof Icmpne)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
 				if(bottom != top)
 					programCounter = (int) i.getValue();
 				else
@@ -241,8 +897,8 @@ public class Frame extends VM
 
 			else if (i instanceof Fcmpne)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
 				if(bottom != top)
 					programCounter = (int) i.getValue();
 				else
@@ -251,8 +907,8 @@ public class Frame extends VM
 
 			else if (i instanceof Icmplt)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
 				if(bottom < top)
 					programCounter = (int) i.getValue();
 				else
@@ -261,8 +917,8 @@ public class Frame extends VM
 
 			else if (i instanceof Fcmplt)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
 				if(bottom < top)
 					programCounter = (int) i.getValue();
 				else
@@ -271,8 +927,8 @@ public class Frame extends VM
 
 			else if (i instanceof Icmple)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
 				if(bottom <= top)
 					programCounter = (int) i.getValue();
 				else
@@ -281,8 +937,8 @@ public class Frame extends VM
 
 			else if (i instanceof Fcmple)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
 				if(bottom <= top)
 					programCounter = (int) i.getValue();
 				else
@@ -291,8 +947,8 @@ public class Frame extends VM
 
 			else if (i instanceof Icmpgt)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
 				if(bottom > top)
 					programCounter = (int) i.getValue();
 				else
@@ -301,8 +957,8 @@ public class Frame extends VM
 
 			else if (i instanceof Fcmpgt)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
 				if(bottom > top)
 					programCounter = (int) i.getValue();
 				else
@@ -311,8 +967,8 @@ public class Frame extends VM
 
 			else if (i instanceof Icmpge)
 			{
-				int top = (int) VM.operandStack.pop();
-				int bottom = (int) VM.operandStack.pop();
+				int top = vm.operandStack.popInt();
+				int bottom = vm.operandStack.popInt();
 				if(bottom >= top)
 					programCounter = (int) i.getValue();
 				else
@@ -321,8 +977,8 @@ public class Frame extends VM
 
 			else if (i instanceof Fcmpge)
 			{
-				double top = (double) VM.operandStack.pop();
-				double bottom = (double) VM.operandStack.pop();
+				double top = vm.operandStack.popDouble();
+				double bottom = vm.operandStack.popDouble();
 				if(bottom >= top)
 					programCounter = (int) i.getValue();
 				else
@@ -332,54 +988,75 @@ public class Frame extends VM
 			else if (i instanceof Return)
 			{
 				callerFrame.programCounter = returnAddress;
-				runtimeStack.pop();
+				vm.runtimeStack.pop();
 				return;
 			}
 
 			else if (i instanceof Ireturn)
 			{
-				int value = (int) VM.operandStack.pop();
+				int value = vm.operandStack.popInt();
 				returnValueToCaller(value);
 				callerFrame.programCounter = returnAddress;
-				runtimeStack.pop();
+				vm.runtimeStack.pop();
 				return;
 			}
 
 			else if (i instanceof Freturn)
 			{
-				double value = (double)VM.operandStack.pop();
+				double value = vm.operandStack.popDouble();
 				returnValueToCaller(value);
 				callerFrame.programCounter = returnAddress;
-				runtimeStack.pop();
+				vm.runtimeStack.pop();
 				return;
 			}
 
 			else if (i instanceof Invoke)
 			{
 				Integer [] val = (Integer[]) i.getValue();
-				Object [] paramAndMemory = new Object[val[1] + val[2]]; 
-				int param = val[1];	
-				//int oldCounter = programCounter;
-				//programCounter = val[0];
-				//System.out.println("params " + param + " - stack size: " + operandStack.size());
-				while(param > 0)
-				{
-					paramAndMemory[--param] = VM.operandStack.pop();
-				}
-				runtimeStack.push(new Frame(val[0], paramAndMemory, programCounter + 1, this));
-				runtimeStack.peek().run(); //processes the stack Frame
+				Frame callee = vm.runtimeStack.push(val[0], val[1] + val[2], programCounter + 1, this);
+				vm.operandStack.transferTo(vm.runtimeStack.slots, vm.runtimeStack.tags, callee.base, val[1]);
+				callee.run(); //processes the stack Frame
 				
 
 			}
 		}
 	}
 
+	/**
+	 * memoryToString - renders a memory cell the way a boxed value would print:
+	 * integers as ints, floating-point numbers as doubles and "null" if never written
+	 * @param address - the address in the variable area
+	 * @return - the printable value of the cell
+	 */
+	private String memoryToString(int address)
+	{
+		address += base;
+		switch(vm.runtimeStack.tags[address])
+		{
+		case OperandStack.INT:
+			return Integer.toString((int) vm.runtimeStack.slots[address]);
+		case OperandStack.DOUBLE:
+			return Double.toString(Double.longBitsToDouble(vm.runtimeStack.slots[address]));
+		default:
+			return "null";
+		}
+	}
+
+	/**
+	 * returnedValueToCaller - allows a callee frame to push return value onto caller stack of operands
+	 * @param valueFromCalee - callee integer return value to be pushed to this stack of operands
+	 */
+	private void returnValueToCaller(int valueFromCalee)
+	{
+		vm.operandStack.pushInt(valueFromCalee);
+	}
+
 	/**
 	 * returnedValueToCaller - allows a callee frame to push return value onto caller stack of operands
-	 * @param valueFromCalee - callee return value to be pushed to this stack of operands
+	 * @param valueFromCalee - callee floating-point return value to be pushed to this stack of operands
 	 */
-	private void returnValueToCaller(Object valueFromCalee)
+	private void returnValueToCaller(double valueFromCalee)
 	{
-		VM.operandStack.push(valueFromCalee);
+		vm.operandStack.pushDouble(valueFromCalee);
 	}
 }
\ No newline at end of file
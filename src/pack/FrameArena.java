@@ -0,0 +1,158 @@
+package pack;
+
+import java.util.Arrays;
+
+/**
+ * FrameArena - the runtime stack of the virtual machine. The variable areas of all the
+ * active frames are carved out of one contiguous, growable array of slots: a frame owns
+ * the slots from its base pointer to base + k2 + k3, and invoke allocates the next slots
+ * on top of the caller's. Returning releases them by moving the top back to the base of
+ * the returning frame. The Frame objects are recycled as well, the frame at each depth of
+ * the stack is kept and reinitialized by the next invoke at that depth, so a call does not
+ * allocate once the arena has grown to the depth of the program.
+ *
+ * Slots use the same representation as the OperandStack, raw int or double bits with a
+ * parallel array of OperandStack.INT / OperandStack.DOUBLE tags.
+ */
+public final class FrameArena
+{
+	long [] slots; //variable areas of all the active frames, read directly by Frame.run()
+	byte [] tags;  //type of each slot, 0 if never written since allocated
+	private final VM vm; //the virtual machine the frames belong to
+	private boolean tagged = true; //false when no instruction reads the tags, see Verifier.typePrints()
+	private int top; //first free slot
+
+	private Frame [] frames; //frames[d] is the frame at depth d, recycled
+	private int depth;		 //number of active frames
+
+	private int highWater;	 //most slots ever in use
+	private int deepest;	 //most frames ever active
+
+	/**
+	 * FrameArena constructor - creates an empty arena, it grows on demand
+	 * @param v - the virtual machine whose runtime stack it is
+	 */
+	public FrameArena(VM v)
+	{
+		vm = v;
+		slots = new long[1024];
+		tags = new byte[1024];
+		frames = new Frame[64];
+	}
+
+	/**
+	 * push - allocates the variable area for a new frame on top of the arena and
+	 * initializes a recycled Frame for it. The memory cells are marked as never written.
+	 * @param pc - the program counter of the new frame
+	 * @param size - the number of memory cells, k2 + k3 of invoke
+	 * @param returnAddress - the return address in the caller frame
+	 * @param caller - the caller frame, null for the main frame
+	 * @return - the frame now on top of the runtime stack
+	 */
+	public Frame push(int pc, int size, int returnAddress, Frame caller)
+	{
+		if(depth == frames.length)
+			frames = Arrays.copyOf(frames, depth * 2);
+		Frame frame = frames[depth];
+		if(frame == null)
+			frame = frames[depth] = new Frame(vm);
+		if(++depth > deepest)
+			deepest = depth;
+
+		int base = top;
+		top += size;
+		if(top > slots.length)
+			grow();
+		if(top > highWater)
+			highWater = top;
+		if(tagged)
+			for(int k = base; k < top; k++)
+				tags[k] = 0;
+		frame.init(pc, base, returnAddress, caller);
+		return frame;
+	}
+
+	/**
+	 * reuse - resizes the variable area of the frame on top of the runtime stack for a tail
+	 * call. The frame keeps its caller and return address, its memory cells are marked as
+	 * never written. Since the frame is on top of the arena its cells can always be resized.
+	 * @param frame - the frame on top of the runtime stack
+	 * @param size - the number of memory cells of the tail callee, k2 + k3 of invoke
+	 */
+	public void reuse(Frame frame, int size)
+	{
+		top = frame.base + size;
+		if(top > slots.length)
+			grow();
+		if(top > highWater)
+			highWater = top;
+		if(tagged)
+			for(int k = frame.base; k < top; k++)
+				tags[k] = 0;
+	}
+
+	/**
+	 * setTagged - decides if new frames mark their memory cells as never written. A verified
+	 * program whose prints are all TypedPrints never reads the tags, so clearing them on
+	 * every invoke can be skipped.
+	 * @param t - false to skip clearing the tags
+	 */
+	public void setTagged(boolean t)
+	{
+		tagged = t;
+	}
+
+	/**
+	 * pop - removes the frame on top of the runtime stack and releases its memory cells
+	 */
+	public void pop()
+	{
+		top = frames[--depth].base;
+	}
+
+	/**
+	 * peek - accessor for the frame on top of the runtime stack
+	 * @return - the frame on top of the runtime stack
+	 */
+	public Frame peek()
+	{
+		return frames[depth - 1];
+	}
+
+	/**
+	 * size - the number of frames on the runtime stack
+	 * @return - the number of active frames
+	 */
+	public int size()
+	{
+		return depth;
+	}
+
+	/**
+	 * getHighWaterMark - the largest number of memory cells the arena had in use at once
+	 * @return - the high-water mark of the arena in slots
+	 */
+	public int getHighWaterMark()
+	{
+		return highWater;
+	}
+
+	/**
+	 * getDeepestStack - the largest number of frames that were active at once
+	 * @return - the deepest runtime stack seen
+	 */
+	public int getDeepestStack()
+	{
+		return deepest;
+	}
+
+	/**
+	 * grow - at least doubles the capacity of the slot arrays
+	 */
+	private void grow()
+	{
+		int capacity = Math.max(slots.length * 2, top);
+		slots = Arrays.copyOf(slots, capacity);
+		tags = Arrays.copyOf(tags, capacity);
+	}
+}
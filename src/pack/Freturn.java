@@ -4,7 +4,7 @@ public class Freturn extends Instruction
 {
 	public Freturn()
 	{
-		
+		super(FRETURN);
 	}
 	
 	public String print()
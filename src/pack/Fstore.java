@@ -2,10 +2,11 @@ package pack;
 
 public class Fstore extends Instruction 
 {
-	int address; //must be between 0 and 999
+	final int address; //must be between 0 and 999
 
 	public Fstore(int a)
 	{
+		super(FSTORE);
 		address = a;
 	}
 	
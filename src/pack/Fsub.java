@@ -4,7 +4,7 @@ public class Fsub extends Instruction
 {
 	public Fsub()
 	{
-		
+		super(FSUB);
 	}
 	
 	public String print()
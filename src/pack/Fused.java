@@ -0,0 +1,43 @@
+package pack;
+
+/**
+ * Fused - a superinstruction that does the work of a short sequence of instructions in one
+ * dispatch, i.e. iload a; iload b; iadd. Superinstructions.fuse() puts it in the slot of the
+ * first instruction of the sequence and leaves the rest of the sequence in place, Frame.run()
+ * skips over them after executing the Fused, so no jump target has to move.
+ * The operands are kept in the primitive fields of Instruction, see Superinstructions.java
+ * for their meaning in each opcode.
+ */
+public final class Fused extends Instruction
+{
+	private final Instruction [] sequence; //the instructions this one replaces
+
+	public Fused(int op, Instruction [] seq, int a, int b, int c)
+	{
+		super(op, a, b, c, 0.0);
+		sequence = seq;
+	}
+
+	/**
+	 * length - the number of instructions fused into this one
+	 * @return - the length of the fused sequence
+	 */
+	public int length()
+	{
+		return sequence.length;
+	}
+
+	public String print()
+	{
+		String s = sequence[0].print();
+		for(int k = 1; k < sequence.length; k++)
+			s += "; " + sequence[k].print();
+		return s;
+	}
+
+	@Override
+	public Object getValue()
+	{
+		return sequence.clone();
+	}
+}
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Goto extends Instruction
 {
-	private int jump;
+	private final int jump;
 	
 	public Goto(int j)
 	{
+		super(GOTO);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Goto extends Instruction
 		return "goto "+ jump;
 	}
 	
-	public void refract()
+	public Goto refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Goto(labels.get(jump));
 	}
 	
 	@Override
@@ -0,0 +1,44 @@
+package pack;
+
+import java.util.ArrayList;
+
+/**
+ * GreenThread - a thread of a guest program, started by spawn and run by the Scheduler. It
+ * executes in a VM of its own, for its runtime stack, stack of operands and memo cache, so
+ * switching threads only means resuming another Frame. Its id is what spawn pushes and join
+ * takes, the code at address 0 runs as thread 0.
+ */
+final class GreenThread
+{
+	final int id;
+	VM vm;		//the runtime stack and stack of operands of the thread, null once it has ended
+	Frame top;	//the frame it goes on with, at its program counter
+	volatile boolean done; //read by the join of other threads without the lock of the Scheduler
+	final ArrayList<GreenThread> joiners = new ArrayList<GreenThread>(); //threads stopped at a join of this one
+
+	/**
+	 * GreenThread constructor
+	 * @param i - the id of the thread
+	 * @param v - the virtual machine it runs in
+	 * @param f - its first frame
+	 */
+	GreenThread(int i, VM v, Frame f)
+	{
+		id = i;
+		vm = v;
+		top = f;
+	}
+
+	/**
+	 * joining - the thread this one waits for, if it stopped at a join
+	 * @param scheduler - the scheduler of the thread
+	 * @return - the thread whose id is on top of the stack of operands, null if the thread did
+	 * not stop at a join or the id is not a thread
+	 */
+	GreenThread joining(Scheduler scheduler)
+	{
+		if(vm.compactCode.opcodes[top.getProgramCounter()] != Instruction.JOIN)
+			return null;
+		return scheduler.thread(vm.operandStack.peekInt());
+	}
+}
@@ -0,0 +1,126 @@
+package pack;
+
+import java.util.ArrayList;
+
+/**
+ * GuestFunction - one function of the program as seen by TypeFlow: the code reachable from
+ * the label of an invoke with a given number of parameters and local variables, specialized
+ * for the types of the arguments. The same label invoked with arguments of other types is
+ * a different GuestFunction.
+ * For every reachable instruction the analysis records the types on the stack of operands,
+ * counted from the entry of the function, and the possible types of every memory cell as a
+ * mask of TypeFlow.INT, TypeFlow.DOUBLE and TypeFlow.UNSET. These are kept only for the
+ * addresses from low to high, the instructions a path from the entry can reach at all, so a
+ * program of many functions does not need an array as long as the program for each of them.
+ */
+public final class GuestFunction
+{
+	final int entry;		  //address of the first instruction
+	final int params;		  //number of parameters, they are the first memory cells
+	final int locals;		  //number of local variables, they follow the parameters
+	final byte [] paramTypes; //TypeFlow.INT or TypeFlow.DOUBLE for every parameter
+
+	int low;			 //address of the first element of stacks, memory and calls
+	int high;			 //the address after the last one
+	byte [][] stacks;	 //types on the stack of operands before every instruction, null if unreachable
+	byte [][] memory;	 //masks of the memory cells before every instruction, null if unreachable
+	GuestFunction [] calls; //the function invoked at every reachable invoke
+	byte [] result;		 //the stack of operands at return, null if the function never returns
+	boolean endsProgram; //some path runs past the last instruction, which ends the program
+	String error;		 //why the program cannot be typed, null if it can
+	final ArrayList<GuestFunction> callees = new ArrayList<GuestFunction>();
+
+	/**
+	 * GuestFunction constructor
+	 * @param e - address of the first instruction
+	 * @param p - the number of parameters
+	 * @param l - the number of local variables
+	 * @param types - the types of the parameters
+	 */
+	GuestFunction(int e, int p, int l, byte [] types)
+	{
+		entry = e;
+		params = p;
+		locals = l;
+		paramTypes = types;
+	}
+
+	/**
+	 * key - the string that identifies this specialization, i.e. 12(2,0:ii)
+	 * @return - the key of the function
+	 */
+	String key()
+	{
+		return key(entry, params, locals, paramTypes);
+	}
+
+	/**
+	 * key - the string that identifies a specialization
+	 * @param e - the address of the first instruction
+	 * @param p - the number of parameters
+	 * @param l - the number of local variables
+	 * @param types - the types of the parameters
+	 * @return - the key of the function
+	 */
+	static String key(int e, int p, int l, byte [] types)
+	{
+		StringBuilder s = new StringBuilder().append(e).append('(').append(p).append(',').append(l).append(':');
+		for(byte t : types)
+			s.append(t == TypeFlow.DOUBLE ? 'd' : 'i');
+		return s.append(')').toString();
+	}
+
+	/**
+	 * isReachable - checks if the analysis reached an instruction in this function
+	 * @param pc - the address of the instruction
+	 * @return - true if some path from the entry executes it
+	 */
+	public boolean isReachable(int pc)
+	{
+		return stacks != null && pc >= low && pc < high && stacks[pc - low] != null;
+	}
+
+	/**
+	 * stack - the types on the stack of operands before a reachable instruction
+	 * @param pc - the address of the instruction
+	 * @return - the types, the last one on top
+	 */
+	byte [] stack(int pc)
+	{
+		return stacks[pc - low];
+	}
+
+	/**
+	 * memory - the masks of the memory cells before a reachable instruction
+	 * @param pc - the address of the instruction
+	 * @return - a mask for every memory cell
+	 */
+	byte [] memory(int pc)
+	{
+		return memory[pc - low];
+	}
+
+	/**
+	 * call - the function invoked by a reachable invoke
+	 * @param pc - the address of the invoke
+	 * @return - the function, null if the analysis did not get past the invoke
+	 */
+	GuestFunction call(int pc)
+	{
+		return calls[pc - low];
+	}
+
+	/**
+	 * getError - accessor for the reason this function cannot be typed
+	 * @return - the error, null if the function is well typed
+	 */
+	public String getError()
+	{
+		return error;
+	}
+
+	public String toString()
+	{
+		return key();
+	}
+}
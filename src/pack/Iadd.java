@@ -4,7 +4,7 @@ public class Iadd extends Instruction
 {
 	public Iadd()
 	{
-		
+		super(IADD);
 	}
 	
 	public String print()
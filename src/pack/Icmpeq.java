@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Icmpeq extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Icmpeq(int j)
 	{
+		super(ICMPEQ);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Icmpeq extends Compare
 		return "icmpeq " + jump;
 	}
 	
-	public void refract()
+	public Icmpeq refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Icmpeq(labels.get(jump));
 	}
 	
 	@Override
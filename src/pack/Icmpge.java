@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Icmpge extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Icmpge(int j)
 	{
+		super(ICMPGE);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Icmpge extends Compare
 		return "icmpge " + jump;
 	}
 	
-	public void refract()
+	public Icmpge refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Icmpge(labels.get(jump));
 	}
 	
 	@Override
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Icmpgt extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Icmpgt(int j)
 	{
+		super(ICMPGT);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Icmpgt extends Compare
 		return "icmpgt " + jump;
 	}
 	
-	public void refract()
+	public Icmpgt refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Icmpgt(labels.get(jump));
 	}
 	
 	@Override
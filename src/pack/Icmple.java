@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Icmple extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Icmple(int j)
 	{
+		super(ICMPLE);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Icmple extends Compare
 		return "icmple " + jump;
 	}
 	
-	public void refract()
+	public Icmple refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Icmple(labels.get(jump));
 	}
 	
 	@Override
@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Icmplt extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Icmplt(int j)
 	{
+		super(ICMPLT);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Icmplt extends Compare
 		return "icmplt " + jump;
 	}
 	
-	public void refract()
+	public Icmplt refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Icmplt(labels.get(jump));
 	}
 	
 	@Override
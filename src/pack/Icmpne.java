@@ -1,11 +1,14 @@
 package pack;
 
+import java.util.Map;
+
 public class Icmpne extends Compare
 {
-	private int jump;
+	private final int jump;
 
 	public Icmpne(int j)
 	{
+		super(ICMPNE);
 		jump = j;
 	}
 	
@@ -14,9 +17,9 @@ public class Icmpne extends Compare
 		return "icmpne " + jump;
 	}
 	
-	public void refract()
+	public Icmpne refract(Map<Integer, Integer> labels)
 	{
-		jump = VM.jumpMap.get(jump);
+		return new Icmpne(labels.get(jump));
 	}
 	
 	@Override
@@ -2,10 +2,11 @@ package pack;
 
 public class Iconst extends Instruction
 {
-	private int constant; //must check for plus or minus
+	private final int constant; //must check for plus or minus
 	
 	public Iconst(int c)
 	{
+		super(ICONST);
 		constant = c;
 	}
 	
@@ -4,7 +4,7 @@ public class Idiv extends Instruction
 {
 	public Idiv()
 	{
-		
+		super(IDIV);
 	}
 	
 	public String print()
@@ -2,10 +2,11 @@ package pack;
 
 public class Iload extends Instruction
 {
-	int address; //must not be negative and in range 0 to 999
+	final int address; //must not be negative and in range 0 to 999
 	
 	public Iload(int a)
 	{
+		super(ILOAD);
 		address = a;
 	}
 	
@@ -4,7 +4,7 @@ public class Imul extends Instruction
 {
 	public Imul()
 	{
-		
+		super(IMUL);
 	}
 	
 	public String print()
@@ -0,0 +1,265 @@
+package pack;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Inliner - replaces the invokes of small functions with a copy of their body, so calling
+ * them no longer pushes a Frame and copies the arguments. It runs on the loaded program,
+ * before the Optimizer, which then folds the copies into their callers and drops the bodies
+ * no invoke reaches any more.
+ *
+ * An invoke is inlined when TypeFlow knows the types of its arguments and the function it
+ * calls returns, can be typed, has at most vm.inlineSize reachable instructions, never prints
+ * a memory cell that may not have been written and does not call itself through any chain of
+ * invokes. The copy stores the arguments into spare memory cells of the caller, placed after
+ * the cells of every frame the caller runs in, reads and writes its own cells there, and
+ * jumps past its end instead of returning, leaving its result on the stack of operands as the
+ * return did. The frames of the caller are made larger by raising the number of local
+ * variables of the invokes that call it, or VM.mainCells for the code at address 0.
+ *
+ * Invokes inside an inlined body may be inlined in the next round, vm.inlineDepth rounds
+ * are done, which bounds how deep a chain of calls is flattened.
+ */
+public final class Inliner
+{
+	private final VM vm;
+	private final TypeFlow flow;
+	private final Instruction [] code;
+	private final int length;
+	private final int maxSize;
+
+	//the inlined invokes: the function called and the first spare memory cell of the caller
+	private final HashMap<Integer, GuestFunction> callee = new HashMap<Integer, GuestFunction>();
+	private final HashMap<Integer, Integer> spare = new HashMap<Integer, Integer>();
+	//the memory cells every function entry needs after inlining
+	private final HashMap<Integer, Integer> cells = new HashMap<Integer, Integer>();
+	private int mainCells;
+
+	private Inliner(VM v, TypeFlow f, int size)
+	{
+		vm = v;
+		flow = f;
+		code = v.instructionArray;
+		length = v.arrayLocation;
+		maxSize = size;
+		mainCells = v.mainCells;
+	}
+
+	/**
+	 * inline - runs one round of inlining on the program loaded in a VM. Its instruction array
+	 * is rewritten in place, or replaced with a larger one if the copies do not fit, and its
+	 * jumpMap and mainCells are updated.
+	 * @param vm - the virtual machine
+	 * @param flow - the analysis of the program
+	 * @param maxSize - the largest number of reachable instructions of a function inlined
+	 * @return - the number of instructions after inlining, VM.arrayLocation if no invoke was inlined
+	 */
+	public static int inline(VM vm, TypeFlow flow, int maxSize)
+	{
+		Inliner inliner = new Inliner(vm, flow, maxSize);
+		for(int pc = 0; pc < inliner.length; pc++)
+			if(inliner.code[pc].getOpcode() == Instruction.INVOKE)
+				inliner.choose(pc);
+		if(inliner.callee.isEmpty())
+			return inliner.length;
+		int n = inliner.rewrite(vm.jumpMap);
+		System.out.println("** Inlined " + inliner.callee.size() + " invoke(s) **\n");
+		vm.mainCells = inliner.mainCells;
+		return n;
+	}
+
+	/**
+	 * choose - decides if an invoke is inlined and where the copy keeps its memory cells
+	 * @param site - the address of the invoke
+	 */
+	private void choose(int site)
+	{
+		byte [] types = flow.argumentTypes(site);
+		if(types == null)
+			return;
+		int [] val = TypeFlow.invokeOperands(code[site]);
+		GuestFunction g = flow.lookup(val[0], val[1], val[2], types);
+		if(g == null || g.error != null || g.result == null || g.endsProgram || size(g) > maxSize || calls(g, g, new HashSet<GuestFunction>()))
+			return;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc) && code[pc].getOpcode() == Instruction.PRINT && (g.memory(pc)[(int) code[pc].getValue()] & TypeFlow.UNSET) != 0)
+				return; //prints null from a fresh frame, the spare cells are not fresh
+
+		int first = 0; //after the cells of every frame the invoke runs in, including earlier copies
+		for(GuestFunction f : flow.getFunctions())
+			if(f.isReachable(site))
+				first = Math.max(first, needed(f));
+		int last = first + g.params + g.locals;
+		for(GuestFunction f : flow.getFunctions())
+			if(f.isReachable(site))
+			{
+				if(f == flow.getMain())
+					mainCells = Math.max(mainCells, last);
+				else
+					cells.merge(f.entry, last, Math::max);
+			}
+		callee.put(site, g);
+		spare.put(site, first);
+	}
+
+	/**
+	 * needed - the memory cells a function uses now, including the copies inlined into it so far
+	 */
+	private int needed(GuestFunction f)
+	{
+		int n = f.params + f.locals;
+		if(f == flow.getMain())
+			return Math.max(n, mainCells);
+		Integer grown = cells.get(f.entry);
+		return grown == null ? n : Math.max(n, grown);
+	}
+
+	/**
+	 * calls - checks if a function reaches another one through its invokes
+	 */
+	private static boolean calls(GuestFunction from, GuestFunction to, HashSet<GuestFunction> seen)
+	{
+		for(GuestFunction c : from.callees)
+			if(c == to || (seen.add(c) && calls(c, to, seen)))
+				return true;
+		return false;
+	}
+
+	private int size(GuestFunction g)
+	{
+		int n = 0;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc))
+				n++;
+		return n;
+	}
+
+	/**
+	 * rewrite - lays out the program with the copies, then remaps every jump target, label and
+	 * function entry and makes the frames of the callers larger
+	 * @param labels - the map from labels to addresses
+	 * @return - the number of instructions
+	 */
+	private int rewrite(Map<Integer, Integer> labels)
+	{
+		int [] index = new int[length + 1];
+		int n = 0;
+		for(int pc = 0; pc < length; pc++)
+		{
+			index[pc] = n;
+			n += callee.containsKey(pc) ? copy(callee.get(pc), spare.get(pc), 0, null, null) : 1;
+		}
+		index[length] = n;
+
+		Instruction [] out = new Instruction[n];
+		for(int pc = 0; pc < length; pc++)
+		{
+			Instruction i = code[pc];
+			if(callee.containsKey(pc))
+				copy(callee.get(pc), spare.get(pc), index[pc], out, index);
+			else
+				out[index[pc]] = relocate(i, index, 0, null);
+		}
+		for(int pc = 0; pc < n; pc++) //the frames of the callers hold the copies, spawned threads start in one too
+			if(out[pc].getOpcode() == Instruction.INVOKE || out[pc].getOpcode() == Instruction.SPAWN)
+			{
+				int [] val = TypeFlow.invokeOperands(out[pc]);
+				Integer need = null;
+				for(Map.Entry<Integer, Integer> e : cells.entrySet())
+					if(index[e.getKey()] == val[0])
+						need = e.getValue();
+				if(need != null && val[1] + val[2] < need)
+					out[pc] = out[pc].getOpcode() == Instruction.SPAWN ? new Spawn(val[0], val[1], need - val[1]) : 
+						new Invoke(val[0], val[1], need - val[1]);
+			}
+		vm.ensureCapacity(n);
+		System.arraycopy(out, 0, vm.instructionArray, 0, n);
+		for(Map.Entry<Integer, Integer> label : labels.entrySet())
+			label.setValue(index[label.getValue()]);
+		return n;
+	}
+
+	/**
+	 * copy - lays out the copy of a function for an invoke: stores of the arguments, a goto
+	 * to the entry if it is not the first instruction, then every reachable instruction with
+	 * its memory cells moved to the spare cells and its returns turned into jumps past the
+	 * copy, the last one into nothing
+	 * @param g - the function
+	 * @param first - the first spare memory cell
+	 * @param at - the address of the copy
+	 * @param out - the new instruction array, null to only count the instructions
+	 * @param index - the new address of every old one
+	 * @return - the number of instructions of the copy
+	 */
+	private int copy(GuestFunction g, int first, int at, Instruction [] out, int [] index)
+	{
+		int n = 0;
+		for(int k = g.params - 1; k >= 0; k--, n++) //the last argument is on top
+			if(out != null)
+				out[at + n] = g.paramTypes[k] == TypeFlow.INT ? new Istore(first + k) : new Fstore(first + k);
+		int low = -1, high = -1;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc))
+			{
+				low = low < 0 ? pc : low;
+				high = pc;
+			}
+		int jump = -1;
+		if(low != g.entry)
+			jump = n++;
+		int [] local = new int[length]; //the address of every instruction in the copy
+		for(int pc = low; pc <= high; pc++)
+			if(g.isReachable(pc))
+			{
+				local[pc] = at + n;
+				if(pc != high || !TypeFlow.isReturn(code[pc].getOpcode()))
+					n++;
+			}
+		if(out == null)
+			return n;
+		int end = at + n;
+		if(jump >= 0)
+			out[at + jump] = new Goto(local[g.entry]);
+		for(int pc = low; pc <= high; pc++)
+			if(g.isReachable(pc) && local[pc] < end)
+			{
+				Instruction i = code[pc];
+				out[local[pc]] = TypeFlow.isReturn(i.getOpcode()) ? new Goto(end) : relocate(i, index, first, local);
+			}
+		return n;
+	}
+
+	/**
+	 * relocate - an instruction at its new address
+	 * @param i - the instruction
+	 * @param index - the new address of every old one, for invokes and for jumps outside a copy
+	 * @param first - the first spare memory cell, for an instruction of a copy
+	 * @param local - the address of every instruction in a copy, null outside a copy
+	 * @return - the instruction, i itself if nothing changes
+	 */
+	private static Instruction relocate(Instruction i, int [] index, int first, int [] local)
+	{
+		int op = i.getOpcode();
+		switch(op)
+		{
+		case Instruction.ILOAD: return first == 0 ? i : new Iload(first + (int) i.getValue());
+		case Instruction.FLOAD: return first == 0 ? i : new Fload(first + (int) i.getValue());
+		case Instruction.ISTORE: return first == 0 ? i : new Istore(first + (int) i.getValue());
+		case Instruction.FSTORE: return first == 0 ? i : new Fstore(first + (int) i.getValue());
+		case Instruction.PRINT: return first == 0 ? i : new Print(first + (int) i.getValue());
+		case Instruction.INVOKE:
+		case Instruction.SPAWN:
+			return Optimizer.retarget(i, index[TypeFlow.invokeOperands(i)[0]]);
+		default:
+			if(op == Instruction.GOTO || (op >= Instruction.ICMPEQ && op <= Instruction.FCMPGE))
+			{
+				int t = (int) i.getValue();
+				int to = local == null ? index[t] : local[t]; //a jump to the last return lands at the end
+				return Optimizer.retarget(i, to);
+			}
+			return i;
+		}
+	}
+}
@@ -3,6 +3,10 @@ package pack;
 /**
  * Instruction - abstract class used to derive program functions
  *
+ * Every concrete instruction carries a dense integer opcode, assigned in the same
+ * order as the operator states in State.java. Frame.run() dispatches on the opcode
+ * with a switch, which the compiler turns into a single tableswitch.
+ *
  ***************************************************************************************************
  *                      @author Vagner Machado - QC ID 23651127 - Fall 2019
  ***************************************************************************************************
@@ -10,6 +14,163 @@ package pack;
  */
 public abstract class Instruction 
 {
+	//opcodes, keep them dense so the dispatch switch compiles to a tableswitch
+	public static final int ICONST = 0;
+	public static final int ILOAD = 1;
+	public static final int ISTORE = 2;
+	public static final int FCONST = 3;
+	public static final int FLOAD = 4;
+	public static final int FSTORE = 5;
+	public static final int IADD = 6;
+	public static final int ISUB = 7;
+	public static final int IMUL = 8;
+	public static final int IDIV = 9;
+	public static final int FADD = 10;
+	public static final int FSUB = 11;
+	public static final int FMUL = 12;
+	public static final int FDIV = 13;
+	public static final int INT_TO_FLOAT = 14;
+	public static final int ICMPEQ = 15;
+	public static final int ICMPNE = 16;
+	public static final int ICMPLT = 17;
+	public static final int ICMPLE = 18;
+	public static final int ICMPGT = 19;
+	public static final int ICMPGE = 20;
+	public static final int FCMPEQ = 21;
+	public static final int FCMPNE = 22;
+	public static final int FCMPLT = 23;
+	public static final int FCMPLE = 24;
+	public static final int FCMPGT = 25;
+	public static final int FCMPGE = 26;
+	public static final int GOTO = 27;
+	public static final int INVOKE = 28;
+	public static final int RETURN = 29;
+	public static final int IRETURN = 30;
+	public static final int FRETURN = 31;
+	public static final int PRINT = 32;
+
+	//opcodes of the instructions the loader rewrites the program into, they have no mnemonic
+	public static final int TAIL_INVOKE = 33;
+
+	//opcodes of the quickened forms, see Quick.java. Quick form of X is QUICK + X
+	public static final int QUICK = 34;
+	public static final int QICONST = QUICK + ICONST;
+	public static final int QILOAD = QUICK + ILOAD;
+	public static final int QISTORE = QUICK + ISTORE;
+	public static final int QFCONST = QUICK + FCONST;
+	public static final int QFLOAD = QUICK + FLOAD;
+	public static final int QFSTORE = QUICK + FSTORE;
+	public static final int QICMPEQ = QUICK + ICMPEQ;
+	public static final int QICMPNE = QUICK + ICMPNE;
+	public static final int QICMPLT = QUICK + ICMPLT;
+	public static final int QICMPLE = QUICK + ICMPLE;
+	public static final int QICMPGT = QUICK + ICMPGT;
+	public static final int QICMPGE = QUICK + ICMPGE;
+	public static final int QFCMPEQ = QUICK + FCMPEQ;
+	public static final int QFCMPNE = QUICK + FCMPNE;
+	public static final int QFCMPLT = QUICK + FCMPLT;
+	public static final int QFCMPLE = QUICK + FCMPLE;
+	public static final int QFCMPGT = QUICK + FCMPGT;
+	public static final int QFCMPGE = QUICK + FCMPGE;
+	public static final int QGOTO = QUICK + GOTO;
+	public static final int QINVOKE = QUICK + INVOKE;
+	public static final int QPRINT = QUICK + PRINT;
+	public static final int QTAIL_INVOKE = QUICK + TAIL_INVOKE;
+
+	//opcodes of the superinstructions, see Superinstructions.java
+	public static final int ILOAD_ILOAD_IADD = 68;
+	public static final int ILOAD_ILOAD_ISUB = 69;
+	public static final int ILOAD_ILOAD_IMUL = 70;
+	public static final int ILOAD_ICONST_IADD = 71;
+	public static final int ILOAD_ICONST_ISUB = 72;
+	public static final int ILOAD_ICONST_IADD_ISTORE = 73;
+	public static final int FLOAD_FLOAD_FADD = 74;
+	public static final int FLOAD_FLOAD_FSUB = 75;
+	public static final int FLOAD_FLOAD_FMUL = 76;
+	public static final int FLOAD_FLOAD_FDIV = 77;
+	public static final int ILOAD_ICONST_ICMPEQ = 78; //the six compares keep the order of ICMPEQ ... ICMPGE
+	public static final int ILOAD_ICONST_ICMPNE = 79;
+	public static final int ILOAD_ICONST_ICMPLT = 80;
+	public static final int ILOAD_ICONST_ICMPLE = 81;
+	public static final int ILOAD_ICONST_ICMPGT = 82;
+	public static final int ILOAD_ICONST_ICMPGE = 83;
+	public static final int ILOAD_ILOAD_ICMPEQ = 84;
+	public static final int ILOAD_ILOAD_ICMPNE = 85;
+	public static final int ILOAD_ILOAD_ICMPLT = 86;
+	public static final int ILOAD_ILOAD_ICMPLE = 87;
+	public static final int ILOAD_ILOAD_ICMPGT = 88;
+	public static final int ILOAD_ILOAD_ICMPGE = 89;
+
+	//opcode of an invoke that calls code compiled by Jit, see CompiledInvoke.java
+	public static final int COMPILED_INVOKE = 90;
+
+	//opcodes of a print whose memory cell has a type proved by the Verifier, see TypedPrint.java
+	public static final int PRINT_INT = 91;
+	public static final int PRINT_DOUBLE = 92;
+	public static final int PRINT_NULL = 93;
+
+	//opcode of an invoke whose result may be in the memo cache, see MemoInvoke.java
+	public static final int MEMO_INVOKE = 94;
+
+	//opcodes of spawn and join, see Scheduler.java. They come after the rewritten forms so the
+	//opcodes above keep their values, and have no Quick form, spawn keeps its operands as one
+	public static final int SPAWN = 95;
+	public static final int JOIN = 96;
+
+	//opcodes of the two invokes of a pair the loader runs in parallel, see Parallelizer.java
+	public static final int FORK_INVOKE = 97;
+	public static final int JOIN_INVOKE = 98;
+
+	//mnemonics of the opcodes below QUICK, used by profiles and dumps
+	public static final String [] MNEMONICS = { "iconst", "iload", "istore", "fconst", "fload", "fstore",
+			"iadd", "isub", "imul", "idiv", "fadd", "fsub", "fmul", "fdiv", "intToFloat",
+			"icmpeq", "icmpne", "icmplt", "icmple", "icmpgt", "icmpge",
+			"fcmpeq", "fcmpne", "fcmplt", "fcmple", "fcmpgt", "fcmpge",
+			"goto", "invoke", "return", "ireturn", "freturn", "print", "tailinvoke" };
+
+	protected final int opcode; //read directly by the dispatch loop in Frame.run()
+
+	//pre-resolved operands of the quickened and fused forms, read directly by the dispatch loop
+	final int operand;	 //integer constant, memory address or jump target
+	final int operand2;	 //invoke: number of parameters, fused: second address or constant
+	final int operand3;	 //invoke: number of local variables, fused: destination or jump target
+	final double constant; //floating-point constant
+
+	/**
+	 * Instruction constructor - sets the opcode of the instruction
+	 * @param op - one of the opcode constants above
+	 */
+	protected Instruction(int op)
+	{
+		this(op, 0, 0, 0, 0.0);
+	}
+
+	/**
+	 * Instruction constructor - sets the opcode and the primitive operands of the instruction
+	 * @param op - one of the opcode constants above
+	 * @param a - the integer operand
+	 * @param b - the second integer operand
+	 * @param c - the third integer operand
+	 * @param d - the floating-point operand
+	 */
+	protected Instruction(int op, int a, int b, int c, double d)
+	{
+		opcode = op;
+		operand = a;
+		operand2 = b;
+		operand3 = c;
+		constant = d;
+	}
+
+	/**
+	 * getOpcode - accessor for the opcode of this instruction
+	 * @return - the dense integer opcode
+	 */
+	public int getOpcode()
+	{
+		return opcode;
+	}
+
 	/**
 	 * print - used to display the instruction data
 	 * @return - a string with function data
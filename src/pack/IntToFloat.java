@@ -4,7 +4,7 @@ public class IntToFloat extends Instruction
 {
 	public IntToFloat()
 	{
-		
+		super(INT_TO_FLOAT);
 	}
 	
 	public String print()
@@ -1,11 +1,19 @@
 package pack;
 
+import java.util.Map;
+
 public class Invoke extends Instruction
 {
-	private int a, b, c;
+	private final int a, b, c;
 
 	public Invoke(int i, int j, int k)
 	{
+		this(INVOKE, i, j, k);
+	}
+
+	protected Invoke(int op, int i, int j, int k)
+	{
+		super(op);
 		a = i;
 		b = j;
 		c = k;
@@ -16,9 +24,9 @@ public class Invoke extends Instruction
 		return "invoke " + a + ", " + b + ", " + c;
 	}
 
-	public void refract()
+	public Invoke refract(Map<Integer, Integer> labels)
 	{
-		a = VM.jumpMap.get(a);
+		return new Invoke(labels.get(a), b, c);
 	}
 	
 	@Override
@@ -4,7 +4,7 @@ public class Ireturn extends Instruction
 {
 	public Ireturn()
 	{
-		
+		super(IRETURN);
 	}
 	
 	public String print()
@@ -2,11 +2,12 @@ package pack;
 
 public class Istore extends Instruction
 {
-	private int address; //must be in valid range 0 - 999
+	private final int address; //must be in valid range 0 - 999
 
 
 	public Istore(int a)
 	{
+		super(ISTORE);
 		address = a;
 	}
 	
@@ -4,7 +4,7 @@ public class Isub extends Instruction
 {
 	public Isub()
 	{
-		
+		super(ISUB);
 	}
 	
 	public String print()
@@ -0,0 +1,452 @@
+package pack;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+
+/**
+ * Jit - a template compiler from guest functions to JVM bytecode. Frame.run() counts the
+ * executions of every invoke, and when one reaches VM.jitThreshold the function it calls is
+ * compiled and the invoke is replaced with a CompiledInvoke. Every VM has a compiler of its
+ * own with its own counters, while the compiled code is kept in the Program, so a function is
+ * compiled once for all the executions that share the program, see Program.link().
+ *
+ * A function is compiled together with every function it can call into one hidden class,
+ * defined through a MethodHandles.Lookup of this package, since a hidden class cannot be
+ * named by other classes. Every guest function becomes a static method whose parameters
+ * are the guest parameters as ints and doubles and which returns the value the function
+ * leaves on the stack of operands. The memory cells become JVM local variables, the stack
+ * of operands becomes the JVM operand stack, the compare-jumps and goto become JVM branches,
+ * invoke becomes invokestatic and a self tail call becomes a jump to the entry. Each guest
+ * instruction expands to a fixed template, the types come from TypeFlow, and HotSpot
+ * compiles the result to machine code like any other class.
+ *
+ * Functions that cannot be typed, that end the program, that leave more than one value on
+ * the stack of operands, or whose memory cells change type or print differently depending
+ * on the path are not compiled and stay in the interpreter, as does everything that calls
+ * them.
+ */
+public final class Jit
+{
+	private static final String CLASS = "pack/JitCode"; //the JVM adds a suffix to the name of every hidden class
+	private static final String STACK = "pack/OperandStack";
+
+	//the branch of every compare-jump, in the order of ICMPEQ ... ICMPGE and FCMPEQ ... FCMPGE
+	private static final int [] INT_BRANCH = {ClassFile.IF_ICMPEQ, ClassFile.IF_ICMPNE, ClassFile.IF_ICMPLT,
+			ClassFile.IF_ICMPLE, ClassFile.IF_ICMPGT, ClassFile.IF_ICMPGE};
+	//dcmpg makes NaN greater, so < and <= are false for it, and dcmpl makes it less for the others
+	private static final int [] DOUBLE_COMPARE = {ClassFile.DCMPL, ClassFile.DCMPL, ClassFile.DCMPG,
+			ClassFile.DCMPG, ClassFile.DCMPL, ClassFile.DCMPL};
+	private static final int [] DOUBLE_BRANCH = {ClassFile.IFEQ, ClassFile.IFNE, ClassFile.IFLT,
+			ClassFile.IFLE, ClassFile.IFGT, ClassFile.IFGE};
+
+	int [] invocations; //executions of every invoke, counted by Frame.run()
+
+	private final VM vm; //the virtual machine whose program is compiled
+	private TypeFlow flow; //analysis of Program.original, taken when the first invoke gets hot
+	private int functionsCompiled; //methods generated
+	private int sitesCompiled;	   //invokes replaced
+	private int rejected;		   //functions left to the interpreter
+
+	/**
+	 * Jit constructor - a compiler for the program loaded in a VM
+	 * @param v - the virtual machine
+	 */
+	Jit(VM v)
+	{
+		vm = v;
+	}
+
+	/**
+	 * enable - turns the compiler on, Frame.run() counts invokes from now on
+	 * @param length - the number of instructions of the program
+	 */
+	void enable(int length)
+	{
+		invocations = new int[length];
+	}
+
+	/**
+	 * compile - compiles the function called by a hot invoke, unless an execution of the
+	 * program already did, and replaces VM.compactCode with one where the invoke is a
+	 * CompiledInvoke
+	 * @param site - the address of the invoke
+	 * @return - true if the invoke now calls compiled code, false if it stays interpreted
+	 */
+	boolean compile(int site)
+	{
+		Program program = vm.program;
+		if(flow == null)
+			flow = program.analysis();
+		byte [] types = flow.argumentTypes(site);
+		if(types == null)
+		{
+			log("invoke at " + site + " passes arguments of types that depend on the caller");
+			return false;
+		}
+		int [] val = TypeFlow.invokeOperands(program.original[site]);
+		GuestFunction f = flow.lookup(val[0], val[1], val[2], types);
+		if(f == null)
+			return false;
+		CompiledFunction code;
+		synchronized(program)
+		{
+			if(!program.compiled.containsKey(f))
+				program.compiled.put(f, compileFunction(f));
+			code = program.compiled.get(f);
+		}
+		if(code == null)
+			return false;
+		vm.compactCode = program.link(site, code);
+		sitesCompiled++;
+		return true;
+	}
+
+	/**
+	 * compileFunction - generates and loads the hidden class of a function and its callees
+	 * @param root - the function called by the hot invoke
+	 * @return - the entry point of root, null if it cannot be compiled
+	 */
+	private CompiledFunction compileFunction(GuestFunction root)
+	{
+		ArrayList<GuestFunction> unit = new ArrayList<GuestFunction>();
+		collect(root, unit);
+		for(GuestFunction g : unit)
+		{
+			String reason = g.endsProgram ? "ends the program" : flow.unsupported(g);
+			if(reason != null)
+			{
+				log("function " + root + " is interpreted, " + g + " " + reason);
+				rejected++;
+				return null;
+			}
+		}
+
+		ClassFile cf = new ClassFile(CLASS, "java/lang/Object", "pack/CompiledFunction");
+		cf.beginMethod(ClassFile.ACC_PUBLIC, "<init>", "()V");
+		cf.emitLocal(ClassFile.ALOAD, 0);
+		cf.emit2(ClassFile.INVOKESPECIAL, cf.methodRef("java/lang/Object", "<init>", "()V"));
+		cf.emit(ClassFile.RETURN);
+		cf.endMethod(1, 1);
+		for(GuestFunction g : unit)
+			if(!method(cf, g, unit))
+			{
+				log("function " + root + " is interpreted, " + g + " is too large for a JVM method");
+				rejected++;
+				return null;
+			}
+		bridge(cf, root, unit);
+
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(cf.toByteArray(), true);
+			CompiledFunction code = (CompiledFunction) lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class)).invoke();
+			functionsCompiled += unit.size();
+			log("compiled " + root + " with " + (unit.size() - 1) + " callee(s)");
+			return code;
+		}
+		catch(Throwable e) //the generated class was rejected, the interpreter keeps running the function
+		{
+			log("function " + root + " is interpreted, " + e);
+			rejected++;
+			return null;
+		}
+	}
+
+	/**
+	 * collect - adds a function and every function it can call to a compilation unit
+	 */
+	private static void collect(GuestFunction f, ArrayList<GuestFunction> unit)
+	{
+		if(unit.contains(f))
+			return;
+		unit.add(f);
+		for(GuestFunction callee : f.callees)
+			collect(callee, unit);
+	}
+
+	/**
+	 * method - generates the static method of a guest function
+	 * @param cf - the class being generated
+	 * @param g - the function
+	 * @param unit - the functions of the class, which give the method names
+	 * @return - false if the method is too large
+	 */
+	private boolean method(ClassFile cf, GuestFunction g, ArrayList<GuestFunction> unit)
+	{
+		Instruction [] code = flow.getCode();
+		byte [] types = TypeFlow.cellTypes(g);
+		int [] local = new int[types.length]; //JVM local variable of every memory cell
+		int maxLocals = 0;
+		for(int k = 0; k < types.length; k++)
+		{
+			local[k] = maxLocals;
+			maxLocals += types[k] == TypeFlow.DOUBLE ? 2 : types[k] == TypeFlow.INT ? 1 : 0;
+		}
+
+		cf.beginMethod(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, name(g, unit), descriptor(g));
+		for(int k = g.params; k < types.length; k++) //the verifier wants every local written before it is read
+			if(types[k] == TypeFlow.INT)
+			{
+				cf.emitInt(0);
+				cf.emitLocal(ClassFile.ISTORE, local[k]);
+			}
+			else if(types[k] == TypeFlow.DOUBLE)
+			{
+				cf.emitDouble(0.0);
+				cf.emitLocal(ClassFile.DSTORE, local[k]);
+			}
+		int [] label = new int[code.length];
+		int first = -1;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc))
+			{
+				label[pc] = cf.newLabel();
+				first = first < 0 ? pc : first;
+			}
+		if(first != g.entry) //the function jumps back above its label
+			cf.emitJump(ClassFile.GOTO, label[g.entry]);
+
+		int maxStack = 0;
+		for(int pc = g.low; pc < g.high; pc++)
+		{
+			if(!g.isReachable(pc))
+				continue;
+			cf.bind(label[pc]);
+			maxStack = Math.max(maxStack, width(g.stack(pc)) + 2);
+			Instruction i = code[pc];
+			int op = i.getOpcode();
+			switch(op)
+			{
+			case Instruction.ICONST:
+				cf.emitInt((int) i.getValue());
+				break;
+			case Instruction.FCONST:
+				cf.emitDouble((double) i.getValue());
+				break;
+			case Instruction.ILOAD:
+				cf.emitLocal(ClassFile.ILOAD, local[(int) i.getValue()]);
+				break;
+			case Instruction.FLOAD:
+				cf.emitLocal(ClassFile.DLOAD, local[(int) i.getValue()]);
+				break;
+			case Instruction.ISTORE:
+				cf.emitLocal(ClassFile.ISTORE, local[(int) i.getValue()]);
+				break;
+			case Instruction.FSTORE:
+				cf.emitLocal(ClassFile.DSTORE, local[(int) i.getValue()]);
+				break;
+			case Instruction.IADD:
+				cf.emit(ClassFile.IADD);
+				break;
+			case Instruction.ISUB:
+				cf.emit(ClassFile.ISUB);
+				break;
+			case Instruction.IMUL:
+				cf.emit(ClassFile.IMUL);
+				break;
+			case Instruction.IDIV:
+				cf.emit(ClassFile.IDIV);
+				break;
+			case Instruction.FADD:
+				cf.emit(ClassFile.DADD);
+				break;
+			case Instruction.FSUB:
+				cf.emit(ClassFile.DSUB);
+				break;
+			case Instruction.FMUL:
+				cf.emit(ClassFile.DMUL);
+				break;
+			case Instruction.FDIV:
+				cf.emit(ClassFile.DDIV);
+				break;
+			case Instruction.INT_TO_FLOAT:
+				cf.emit(ClassFile.I2D);
+				break;
+			case Instruction.ICMPEQ:
+			case Instruction.ICMPNE:
+			case Instruction.ICMPLT:
+			case Instruction.ICMPLE:
+			case Instruction.ICMPGT:
+			case Instruction.ICMPGE:
+				cf.emitJump(INT_BRANCH[op - Instruction.ICMPEQ], label[(int) i.getValue()]);
+				break;
+			case Instruction.FCMPEQ:
+			case Instruction.FCMPNE:
+			case Instruction.FCMPLT:
+			case Instruction.FCMPLE:
+			case Instruction.FCMPGT:
+			case Instruction.FCMPGE:
+				cf.emit(DOUBLE_COMPARE[op - Instruction.FCMPEQ]);
+				cf.emitJump(DOUBLE_BRANCH[op - Instruction.FCMPEQ], label[(int) i.getValue()]);
+				break;
+			case Instruction.GOTO:
+				cf.emitJump(ClassFile.GOTO, label[(int) i.getValue()]);
+				break;
+			case Instruction.INVOKE:
+			{
+				GuestFunction callee = g.call(pc);
+				if(flow.isTailJump(g, pc))
+				{
+					for(int k = g.params - 1; k >= 0; k--)
+						cf.emitLocal(types[k] == TypeFlow.DOUBLE ? ClassFile.DSTORE : ClassFile.ISTORE, local[k]);
+					cf.emitJump(ClassFile.GOTO, label[g.entry]);
+					break;
+				}
+				cf.emit2(ClassFile.INVOKESTATIC, cf.methodRef(CLASS, name(callee, unit), descriptor(callee)));
+				if(callee.result == null) //never returns, but the verifier needs the code after it to be consistent
+				{
+					int loop = cf.newLabel();
+					cf.bind(loop);
+					cf.emitJump(ClassFile.GOTO, loop);
+				}
+				break;
+			}
+			case Instruction.RETURN:
+			case Instruction.IRETURN:
+			case Instruction.FRETURN:
+				cf.emit(g.result.length == 0 ? ClassFile.RETURN :
+					g.result[0] == TypeFlow.INT ? ClassFile.IRETURN : ClassFile.DRETURN);
+				break;
+			case Instruction.PRINT:
+			{
+				int address = (int) i.getValue();
+				byte mask = g.memory(pc)[address];
+				if(mask == TypeFlow.INT)
+				{
+					cf.emitLocal(ClassFile.ILOAD, local[address]);
+					cf.emit2(ClassFile.INVOKESTATIC, cf.methodRef("pack/Jit", "print", "(I)V"));
+				}
+				else if(mask == TypeFlow.DOUBLE)
+				{
+					cf.emitLocal(ClassFile.DLOAD, local[address]);
+					cf.emit2(ClassFile.INVOKESTATIC, cf.methodRef("pack/Jit", "print", "(D)V"));
+				}
+				else
+					cf.emit2(ClassFile.INVOKESTATIC, cf.methodRef("pack/Jit", "printNull", "()V"));
+				break;
+			}
+			default:
+				throw new IllegalStateException("TypeFlow accepted opcode " + op);
+			}
+		}
+		return cf.endMethod(maxStack, maxLocals);
+	}
+
+	/**
+	 * bridge - generates CompiledFunction.invoke() for the function called by the hot invoke,
+	 * which moves the arguments and the result between the stack of operands and the JVM stack
+	 */
+	private static void bridge(ClassFile cf, GuestFunction root, ArrayList<GuestFunction> unit)
+	{
+		cf.beginMethod(ClassFile.ACC_PUBLIC, "invoke", "(L" + STACK + ";)V");
+		int [] local = new int[root.params];
+		int next = 2; //after this and the stack
+		for(int k = 0; k < root.params; k++)
+		{
+			local[k] = next;
+			next += root.paramTypes[k] == TypeFlow.DOUBLE ? 2 : 1;
+		}
+		for(int k = root.params - 1; k >= 0; k--) //the last argument is on top
+		{
+			boolean isDouble = root.paramTypes[k] == TypeFlow.DOUBLE;
+			cf.emitLocal(ClassFile.ALOAD, 1);
+			cf.emit2(ClassFile.INVOKEVIRTUAL, cf.methodRef(STACK, isDouble ? "popDouble" : "popInt", isDouble ? "()D" : "()I"));
+			cf.emitLocal(isDouble ? ClassFile.DSTORE : ClassFile.ISTORE, local[k]);
+		}
+		boolean value = root.result != null && root.result.length == 1;
+		if(value)
+			cf.emitLocal(ClassFile.ALOAD, 1);
+		for(int k = 0; k < root.params; k++)
+			cf.emitLocal(root.paramTypes[k] == TypeFlow.DOUBLE ? ClassFile.DLOAD : ClassFile.ILOAD, local[k]);
+		cf.emit2(ClassFile.INVOKESTATIC, cf.methodRef(CLASS, name(root, unit), descriptor(root)));
+		if(value)
+		{
+			boolean isDouble = root.result[0] == TypeFlow.DOUBLE;
+			cf.emit2(ClassFile.INVOKEVIRTUAL, cf.methodRef(STACK, isDouble ? "pushDouble" : "pushInt", isDouble ? "(D)V" : "(I)V"));
+		}
+		cf.emit(ClassFile.RETURN);
+		cf.endMethod(next + 1, next);
+	}
+
+	private static String name(GuestFunction g, ArrayList<GuestFunction> unit)
+	{
+		return "f" + unit.indexOf(g);
+	}
+
+	/**
+	 * descriptor - the JVM method descriptor of a guest function, i.e. (ID)I
+	 */
+	private static String descriptor(GuestFunction g)
+	{
+		StringBuilder s = new StringBuilder("(");
+		for(byte t : g.paramTypes)
+			s.append(t == TypeFlow.DOUBLE ? 'D' : 'I');
+		s.append(')');
+		if(g.result == null || g.result.length == 0)
+			return s.append('V').toString();
+		return s.append(g.result[0] == TypeFlow.DOUBLE ? 'D' : 'I').toString();
+	}
+
+	/**
+	 * width - the number of JVM stack words taken by a stack of operands
+	 */
+	private static int width(byte [] stack)
+	{
+		int words = 0;
+		for(byte t : stack)
+			words += t == TypeFlow.DOUBLE ? 2 : 1;
+		return words;
+	}
+
+	private static void log(String message)
+	{
+		if(VM.jitLog)
+			System.out.println("** JIT: " + message + " **");
+	}
+
+	//called by the generated code for print, the output matches Frame.memoryToString()
+	static void print(int value)
+	{
+		System.out.println("Print: " + value);
+	}
+
+	static void print(double value)
+	{
+		System.out.println("Print: " + value);
+	}
+
+	static void printNull()
+	{
+		System.out.println("Print: null");
+	}
+
+	/**
+	 * getFunctionsCompiled - the number of guest functions compiled so far, a function that is a
+	 * callee of several hot functions is counted once per compilation unit
+	 * @return - the number of methods generated
+	 */
+	public int getFunctionsCompiled()
+	{
+		return functionsCompiled;
+	}
+
+	/**
+	 * getSitesCompiled - the number of invokes that call compiled code
+	 * @return - the number of invokes replaced
+	 */
+	public int getSitesCompiled()
+	{
+		return sitesCompiled;
+	}
+
+	/**
+	 * getRejected - the number of hot functions that stay in the interpreter
+	 * @return - the number of functions the compiler gave up on
+	 */
+	public int getRejected()
+	{
+		return rejected;
+	}
+}
@@ -0,0 +1,134 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Job - one execution of a Batch: a program file and the values of its inputs, and once the
+ * batch has run it, what it printed, its status and the time it took. The types of the
+ * values are the types of the inputs of the program, an Integer for every int and a Double
+ * for every double, see Program.load().
+ */
+public final class Job
+{
+	//status of a job
+	public static final int OK = 0;				//the program ran to its end
+	public static final int RUNTIME_ERROR = 1;	//the virtual machine stopped the program with a Runtime Error
+	public static final int LOAD_ERROR = 2;		//the program has lexical, syntax or verification errors
+	public static final int CRASH = 3;			//the execution threw an exception
+	public static final int WAITING = 4;		//not run yet
+
+	private static final String [] STATUS = {"ok", "runtime error", "load error", "crash", "waiting"};
+
+	final String file;
+	final Number [] inputs;
+	String output = ""; //everything the job printed
+	int status = WAITING;
+	long nanos; //wall time of the execution
+
+	/**
+	 * Job constructor
+	 * @param f - the program file
+	 * @param in - the values of the inputs of the program
+	 */
+	public Job(String f, Number ... in)
+	{
+		file = f;
+		inputs = in.clone();
+	}
+
+	/**
+	 * parse - the job of a line of a manifest, the program file followed by the values of its
+	 * inputs separated by spaces, ints and doubles written as for iconst and fconst
+	 * @param line - the line
+	 * @return - the job
+	 * @throws NumberFormatException - if a value is not a number
+	 */
+	public static Job parse(String line)
+	{
+		String [] tokens = line.trim().split("\\s+");
+		ArrayList<Number> values = new ArrayList<Number>();
+		for(int k = 1; k < tokens.length; k++)
+			if(tokens[k].matches("[+-]?\\d+"))
+				values.add(Integer.parseInt(tokens[k]));
+			else
+				values.add(Double.parseDouble(tokens[k]));
+		return new Job(tokens[0], values.toArray(new Number[0]));
+	}
+
+	/**
+	 * getInputTypes - the types of the inputs, as Program.load() takes them
+	 * @return - 'i' for every Integer and 'd' for every other value
+	 */
+	public String getInputTypes()
+	{
+		StringBuilder s = new StringBuilder();
+		for(Number n : inputs)
+			s.append(n instanceof Integer ? 'i' : 'd');
+		return s.toString();
+	}
+
+	/**
+	 * getFile - accessor for the program file
+	 * @return - the name of the file
+	 */
+	public String getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * getInputs - accessor for the values of the inputs
+	 * @return - a copy of the values
+	 */
+	public Number [] getInputs()
+	{
+		return inputs.clone();
+	}
+
+	/**
+	 * getOutput - accessor for what the job printed
+	 * @return - the output, empty before the job runs
+	 */
+	public String getOutput()
+	{
+		return output;
+	}
+
+	/**
+	 * getStatus - accessor for the status of the job
+	 * @return - OK, RUNTIME_ERROR, LOAD_ERROR, CRASH or WAITING
+	 */
+	public int getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * getStatusName - the status of the job in words
+	 * @return - i.e. "ok" or "runtime error"
+	 */
+	public String getStatusName()
+	{
+		return STATUS[status];
+	}
+
+	/**
+	 * getNanos - accessor for the time the execution took
+	 * @return - the wall time in nanoseconds, 0 if the job did not execute
+	 */
+	public long getNanos()
+	{
+		return nanos;
+	}
+
+	/**
+	 * print - renders the job as a line of a manifest
+	 * @return - the file and the values of the inputs
+	 */
+	public String print()
+	{
+		String values = Arrays.toString(inputs);
+		return inputs.length == 0 ? file : file + " " + values.substring(1, values.length() - 1).replace(",", "");
+	}
+}
@@ -0,0 +1,24 @@
+package pack;
+
+/**
+ * Join - waits for the green thread whose id is on top of the stack of operands to end, then
+ * pops the id, see Scheduler.java
+ */
+public class Join extends Instruction
+{
+	public Join()
+	{
+		super(JOIN);
+	}
+
+	public String print()
+	{
+		return "join";
+	}
+
+	@Override
+	public Object getValue() 
+	{
+		return "join";
+	}
+}
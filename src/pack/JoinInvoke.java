@@ -0,0 +1,33 @@
+package pack;
+
+/**
+ * JoinInvoke - the second invoke of a pair of independent calls of pure functions, see
+ * Parallelizer.java. Frame.run() calls the function as invoke does, or as a CompiledInvoke
+ * does once Jit has compiled it, and when the ForkInvoke of the pair forked a Subtask, waits
+ * for the subtask once the call has returned and puts its result below the one of the call.
+ */
+public final class JoinInvoke extends Rewritten
+{
+	final CompiledFunction function; //the function compiled by Jit, null while it is interpreted
+
+	/**
+	 * JoinInvoke constructor
+	 * @param i - the invoke being replaced
+	 */
+	public JoinInvoke(Instruction i)
+	{
+		super(JOIN_INVOKE, i, TypeFlow.invokeOperands(i)[0], TypeFlow.invokeOperands(i)[1], TypeFlow.invokeOperands(i)[2], 0.0);
+		function = null;
+	}
+
+	/**
+	 * JoinInvoke constructor - a copy that calls compiled code
+	 * @param i - the join being copied
+	 * @param f - the compiled function it calls
+	 */
+	public JoinInvoke(JoinInvoke i, CompiledFunction f)
+	{
+		super(JOIN_INVOKE, i.getOriginal(), i.operand, i.operand2, i.operand3, 0.0);
+		function = f;
+	}
+}
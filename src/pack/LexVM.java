@@ -13,12 +13,17 @@ package pack;
  *                  "iadd" | "isub" | "imul" | "idiv" | "fadd" | "fsub" | "fmul" | "fdiv" |
  *                  "intToFloat" | "icmpeq" | "icmpne" | "icmplt" | "icmple" | "icmpgt" |
  *                  "icmpge" |  "fcmpeq" | "fcmpne" | "fcmplt" | "fcmple" | "fcmpgt" | "fcmpge" | 
- *                  "goto" | "invoke" | "return" | "ireturn" | "freturn" | "print"
+ *                  "goto" | "invoke" | "return" | "ireturn" | "freturn" | "print" |
+ *                  "spawn" | "join"
  * <colon> -> ":"
  * <comma> -> ","
  * 
  *  The lexical analyzer is implemented through a DFA that will accept the above tokens.
  *	The DFA states are represented by the Enum type State, located in file State.java
+ *  The transitions are a table in State indexed by [state][class of character], and the driver
+ *  scans the characters in place in the buffer of Stream: a token is the characters between
+ *  Stream.mark and Stream.position, made into a String once it ends. The lexer, like the
+ *  Stream it reads, belongs to one VM, so several programs can be lexed at once.
  *
  *  *** The DFA has the following states represented by enum-type literals ***
  *  
@@ -68,6 +73,8 @@ package pack;
  *      ireturn         integer return
  *      freturn         float return
  *      print           print value
+ *      spawn           start a green thread
+ *      join            wait for a green thread to end
  *	
  *  B) Non-final states:
  *  	STATE			TOKEN
@@ -88,15 +95,15 @@ package pack;
  *  ***************************** PLEASE READ ***************************************
  *  
  *  IMPORTANT: In order to allow for extra functionality when parsing, please
- *  read the comment on line 160 of State.java. Commenting out the mentioned block
- *  will allow for parsing of consecutive valid operators not separated by spaces.
- *  i.e iconstimulreturninvoke would be parsed as iconst imul return invoke. 
- *  Commenting out the block in State.java would, however, fail to pass the test
- *  for input file #2 provided because it has 'fconstt' as input. Commenting off
- *  the said block would parse this as Fconst for 'fconst' and invalid token for the last 't'.
- *  Since this does not match the expected output for input 2, the block was 
- *  commented off by default. To pass the "ultimate test" provided in file 
- *  input8.txt, please comment off the block on line 160 of State.java and compare it
+ *  read the comment over the transitions of Id in State.java. Ending an Id
+ *  once it is a valid operator will allow for parsing of consecutive valid operators not
+ *  separated by spaces. i.e iconstimulreturninvoke would be parsed as iconst imul return invoke. 
+ *  Doing so would, however, fail to pass the test
+ *  for input file #2 provided because it has 'fconstt' as input. It would
+ *  parse this as Fconst for 'fconst' and invalid token for the last 't'.
+ *  Since this does not match the expected output for input 2, it is not
+ *  done by default. To pass the "ultimate test" provided in file 
+ *  input8.txt, the Id would have to end that way, compare it
  *  to expected8.txt file. 
  *  
  *      Parse safely :)          
@@ -110,29 +117,29 @@ package pack;
  */
 public abstract class LexVM 
 {
-	public static String tokens; //holds current concatenated tokens
-	public static State state;   //holds current state of DFA
+	protected Stream stream; //the input and output files of the program
+	public String tokens; //holds current concatenated tokens
+	public State state;   //holds current state of DFA
 
 	/**
 	 * lexycalAnalysis - Assumes the input and output Stream are initialized
 	 * Checks the input file for lexycal problems and prints when one is fould.
 	 * Otherwise prints the token and category it belongs to.
 	 */
-	public static void lexycalAnalysis()
+	public void lexycalAnalysis()
 	{		
 		int i;
 
-		while ( Stream.intToken != -1 ) // while is not end-of-stream
+		while ( (i = driver()) != -1 ) // extract the next token while is not end-of-stream
 		{
-			i = driver();    // extract the next token
 			if (i == 1)	     //valid category found                 		
-				Stream.displayln( tokens.trim() + "\t  : " + state.toString().substring(0,1).toUpperCase()
+				stream.displayln( tokens.trim() + "\t  : " + state.toString().substring(0,1).toUpperCase()
 						+ state.toString().substring(1));
 			else if (i == 0) //invalid token, lexical error
-				Stream.displayln( tokens.trim() + "\t  : Lexical Error, invalid token");
+				stream.displayln( tokens.trim() + "\t  : Lexical Error, invalid token");
 		} 
 		//close files in stream
-		Stream.close();
+		stream.close();
 	}
 
 	/**
@@ -144,67 +151,98 @@ public abstract class LexVM
 	 * @return - If state is Final, return 1
 	 * @return - If end-of-stream is reached without finding any non-whitespace character, returns -1.
 	 */
-	private static int driver()
+	private int driver()
 	{
+		byte [] classes = State.CLASSES;
+		byte [][] transitions = State.TRANSITIONS;
+		final int undefined = State.UNDEF.ordinal();
+		int current = State.Start.ordinal(); // the ordinal of the current state of the FA
+		int next;							 // and of the next one
 
-		State nextSt; 	// the next state of the FA
-
-		tokens = ""; 	//concatenated tokens
+		tokens = ""; 	//the token is the characters from Stream.mark to Stream.position
 		state = State.Start;
 
-		if (Character.isWhitespace((char) Stream.intToken) )
-			Stream.intToken = Stream.getChar();       // get the next non-whitespace character
-		if ( Stream.intToken == -1 )				  // end-of-stream is reached
-			return -1;
+		for (;;)	// get the next non-whitespace character
+		{
+			if ( stream.position == stream.limit )
+			{
+				stream.mark = stream.position;		 // the whitespace read is not kept
+				if ( !stream.fill() )				 // end-of-stream is reached
+					return -1;
+			}
+			if ( classes[stream.buffer[stream.position]] != State.SPACE )
+				break;
+			stream.position++;
+		}
 
-		while ( Stream.intToken != -1 ) // do the body if "intToken" is not end-of-stream
+		stream.mark = stream.position;
+		while ( stream.position < stream.limit || stream.fill() ) // do the body if not end-of-stream
 		{
-			Stream.charToken = (char) Stream.intToken;// parse int to char
-			nextSt = State.nextState(state, Stream.charToken ); //get next state based on char
-			//	System.out.println("next state: " + nextSt.toString());
-			if ( nextSt == State.UNDEF ) 			  // The current DFA operation will halt.
+			next = transitions[current][classes[stream.buffer[stream.position]]]; //get next state based on char
+			if ( next == undefined ) 			  // The current DFA operation will halt.
 			{
-				if (State.isFinal(state)) 			  // valid token extracted
+				state = State.VALUES[current];
+				if (State.isFinal(this)) 			  // valid token extracted
+				{
+					tokens = text();
 					return 1; 
+				}
 				else if(state.equals(State.UNDEF))    //invalid function name found in State checkState() i.e floAT90
+				{
+					tokens = stream.token();
 					return 0;                      	  //just returning allows for 90 to be parsed as unsigned int
+				}
 
-				else  		   	 // "charToken" is a unexpected character
+				else  		   	 // the character is unexpected, it ends the invalid token
 				{
-					tokens = tokens + Stream.charToken;
-					Stream.intToken = Stream.getNextChar();
+					stream.position++;
+					tokens = stream.token();
 					return 0;	 // invalid token found
 				}
 			}
 			else 				 // The DFA will go on.
 			{
-				state = nextSt;
-				tokens = tokens + Stream.charToken;
-				Stream.intToken = Stream.getNextChar();
+				current = next;
+				stream.position++;
 			}
 		}
 
-		if (State.isFinal(state))  // end-of-stream is reached while a token is being extracted
+		state = State.VALUES[current];
+		if (State.isFinal(this))  // end-of-stream is reached while a token is being extracted
+		{
+			tokens = text();
 			return 1; 			   // valid token extracted
-		else
-			return 0;              // invalid token found
+		}
+		tokens = stream.token();
+		return 0;              // invalid token found
 
 	} // end driver
 
+	/**
+	 * text - the text of the valid token scanned, the mnemonic of an operator is not made again
+	 * @return - the token as a String
+	 */
+	private String text()
+	{
+		if (state.ordinal() >= State.iconst.ordinal() && stream.isToken(State.mnemonic(state)))
+			return State.mnemonic(state);
+		return stream.token(); // not an operator, or Goto or Return as in the enum
+	}
+
 	/**
 	 * getToken - Extracts the next token using the driver of the FA.
 	 * If an invalid token is found, issue an error message.
 	 * Used at the VM.java class to parse tokens
 	 */
-	public static String getToken()
+	public String getToken()
 	{
 		int i = driver();
 		//	System.out.println("This is i: " + i + " and state is " + state.toString());
 		if (i == 0) //error
 		{
-			Stream.displayln(tokens + "\t: Lexical Error, invalid token");
-			System.out.println(tokens + "\t: Lexical Error, invalid token");
-			Stream.close();
+			stream.displayln(tokens + "\t: Lexical Error, invalid token" + stream.at());
+			System.out.println(tokens + "\t: Lexical Error, invalid token" + stream.at());
+			stream.close();
 			return null;
 		}
 		else if (i == 1) // valid
@@ -0,0 +1,173 @@
+package pack;
+
+import java.util.Arrays;
+
+/**
+ * MemoCache - the results of calls to pure functions, see Purity.java, keyed on the function
+ * and the values of its arguments. A MemoInvoke looks its call up before pushing a Frame: on a
+ * hit the arguments are replaced with the result, on a miss the function runs and its return
+ * stores the result.
+ *
+ * The cache is bounded, its table is allocated once and entries live in primitive arrays:
+ * every key is the number of the function followed by the raw bits of up to width - 1
+ * arguments, as on the OperandStack. A key hashes to a set of two entries and evicts the one
+ * of the set used least recently. The keys of the calls that missed and have not returned yet
+ * are kept on a stack, since pure functions may call each other before they return.
+ */
+public final class MemoCache
+{
+	private final int width;	//longs of a key: the function number plus one, then the arguments
+	private final int mask;		//sets - 1
+	private final long [] keys;	//width longs per entry, 0 in the first one if the entry is empty
+	private final long [] values; //the result of every entry, raw bits
+	private final boolean [] older; //for every set, true if its second entry was used less recently
+
+	private long [] pending;		//keys of the calls that missed, width longs each
+	private int [] pendingSet;	//and the set each of them hashes to
+	private int depth;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * MemoCache constructor
+	 * @param capacity - the most entries kept, rounded up to a power of two
+	 * @param arguments - the most arguments of the functions memoized
+	 */
+	public MemoCache(int capacity, int arguments)
+	{
+		int sets = Integer.highestOneBit(Math.max(1, (capacity + 1) / 2 - 1)) * 2; //two entries each
+		mask = sets - 1;
+		width = arguments + 1;
+		keys = new long[2 * sets * width];
+		values = new long[2 * sets];
+		older = new boolean[sets];
+		pending = new long[16 * width];
+		pendingSet = new int[16];
+	}
+
+	/**
+	 * find - looks a call up, the arguments are the top operands of the stack
+	 * @param function - the number of the function, see Purity.memoize()
+	 * @param stack - the stack of operands
+	 * @param count - the number of arguments
+	 * @return - the entry of the result, -1 on a miss, after which the key waits for store()
+	 */
+	public int find(int function, OperandStack stack, int count)
+	{
+		long h = function + 1;
+		for(int k = count - 1; k >= 0; k--)
+			h = mix(h * 31 + stack.slot(k));
+		int set = (int) h & mask;
+		for(int way = 0; way < 2; way++)
+		{
+			int e = 2 * set + way, at = e * width;
+			if(keys[at] != function + 1)
+				continue;
+			int k = 0;
+			while(k < count && keys[at + 1 + k] == stack.slot(count - 1 - k))
+				k++;
+			if(k == count)
+			{
+				older[set] = way == 0;
+				hits++;
+				return e;
+			}
+		}
+		misses++;
+		if(depth == pendingSet.length)
+		{
+			pending = Arrays.copyOf(pending, pending.length * 2);
+			pendingSet = Arrays.copyOf(pendingSet, pendingSet.length * 2);
+		}
+		int at = depth * width;
+		pending[at] = function + 1;
+		for(int k = 0; k < count; k++)
+			pending[at + 1 + k] = stack.slot(count - 1 - k);
+		Arrays.fill(pending, at + 1 + count, at + width, 0);
+		pendingSet[depth++] = set;
+		return -1;
+	}
+
+	/**
+	 * mix - spreads every bit of a value over all of its bits, the arguments may be doubles
+	 * whose low bits are all 0
+	 */
+	private static long mix(long x)
+	{
+		x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+		x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return x ^ (x >>> 33);
+	}
+
+	/**
+	 * value - accessor for the result of an entry
+	 * @param entry - as returned by find()
+	 * @return - the int, or the raw bits of the double
+	 */
+	public long value(int entry)
+	{
+		return values[entry];
+	}
+
+	/**
+	 * store - records the result of the last call that missed, when it returns
+	 * @param stack - the stack of operands, with the result on top
+	 */
+	public void store(OperandStack stack)
+	{
+		int set = pendingSet[--depth];
+		int way = older[set] ? 1 : 0;
+		if(keys[2 * set * width] == 0 || Arrays.equals(keys, 2 * set * width, 2 * set * width + width, pending,
+				depth * width, depth * width + width)) //an empty entry or the same key first
+			way = 0;
+		else if(keys[(2 * set + 1) * width] == 0 || Arrays.equals(keys, (2 * set + 1) * width, (2 * set + 2) * width,
+				pending, depth * width, depth * width + width))
+			way = 1;
+		else
+			evictions++;
+		int e = 2 * set + way;
+		System.arraycopy(pending, depth * width, keys, e * width, width);
+		values[e] = stack.slot(0);
+		older[set] = way == 0;
+	}
+
+	/**
+	 * clear - empties the cache and its counters, for another run of the program
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, 0);
+		Arrays.fill(older, false);
+		depth = 0;
+		hits = misses = evictions = 0;
+	}
+
+	/**
+	 * getHits - accessor for the calls answered from the cache
+	 * @return - the number of hits
+	 */
+	public long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * getMisses - accessor for the calls that ran their function
+	 * @return - the number of misses
+	 */
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * getEvictions - accessor for the entries replaced by newer ones
+	 * @return - the number of evictions
+	 */
+	public long getEvictions()
+	{
+		return evictions;
+	}
+}
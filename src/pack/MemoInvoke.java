@@ -0,0 +1,25 @@
+package pack;
+
+/**
+ * MemoInvoke - an invoke of a pure function, see Purity.java. Frame.run() looks the call up
+ * in the MemoCache of the VM before pushing a Frame and replaces the arguments with the result
+ * when it is there.
+ */
+public final class MemoInvoke extends Rewritten
+{
+	final int function; //the number of the function in the MemoCache, read directly by the dispatch loop
+	final byte type;	 //OperandStack.INT or OperandStack.DOUBLE, the type of the result
+
+	/**
+	 * MemoInvoke constructor
+	 * @param i - the invoke being replaced
+	 * @param f - the number of the function it calls
+	 * @param t - the type of the result
+	 */
+	public MemoInvoke(Instruction i, int f, byte t)
+	{
+		super(MEMO_INVOKE, i, TypeFlow.invokeOperands(i)[0], TypeFlow.invokeOperands(i)[1], TypeFlow.invokeOperands(i)[2], 0.0);
+		function = f;
+		type = t;
+	}
+}
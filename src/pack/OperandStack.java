@@ -0,0 +1,166 @@
+package pack;
+
+/**
+ * OperandStack - the stack of operands shared by all the frames of the virtual machine.
+ * The stack is backed by an array of long slots: integers are stored directly and
+ * floating-point numbers are stored as their raw IEEE 754 bits, so pushing and popping
+ * never boxes a value or takes a monitor like java.util.Stack does. A parallel tag array
+ * records whether each slot holds an int or a double, which is needed when values leave
+ * the stack without a typed instruction, i.e. the parameters copied by invoke into the
+ * variable area of a Frame, which keeps the same representation.
+ * The typed pop methods trust the program: popping an int that was pushed as a double
+ * returns the low bits of the double.
+ */
+public final class OperandStack
+{
+	public static final byte INT = 1;	 //tag of an integer slot
+	public static final byte DOUBLE = 2; //tag of a floating-point slot
+
+	private long [] slots;
+	private byte [] tags;
+	private int top; //index of the next free slot
+
+	/**
+	 * OperandStack constructor - creates an empty stack with room for 64 operands,
+	 * the stack grows on demand.
+	 */
+	public OperandStack()
+	{
+		slots = new long[64];
+		tags = new byte[64];
+	}
+
+	/**
+	 * pushInt - pushes an integer onto the stack
+	 * @param value - the integer to be pushed
+	 */
+	public void pushInt(int value)
+	{
+		if(top == slots.length)
+			grow();
+		slots[top] = value;
+		tags[top++] = INT;
+	}
+
+	/**
+	 * pushDouble - pushes a floating-point number onto the stack
+	 * @param value - the double to be pushed
+	 */
+	public void pushDouble(double value)
+	{
+		if(top == slots.length)
+			grow();
+		slots[top] = Double.doubleToRawLongBits(value);
+		tags[top++] = DOUBLE;
+	}
+
+	/**
+	 * popInt - pops the integer on top of the stack
+	 * @return - the integer on top of the stack
+	 */
+	public int popInt()
+	{
+		return (int) slots[--top];
+	}
+
+	/**
+	 * peekInt - reads the integer on top of the stack without popping it
+	 * @return - the integer on top of the stack
+	 */
+	public int peekInt()
+	{
+		return (int) slots[top - 1];
+	}
+
+	/**
+	 * popDouble - pops the floating-point number on top of the stack
+	 * @return - the double on top of the stack
+	 */
+	public double popDouble()
+	{
+		return Double.longBitsToDouble(slots[--top]);
+	}
+
+	/**
+	 * transferTo - pops the top count operands and copies them, with their tags, into
+	 * the given slot arrays. The deepest of the popped operands lands at offset. Used by
+	 * invoke to move the parameters into the variable area of the callee frame.
+	 * @param dest - the destination slots
+	 * @param destTags - the destination tags
+	 * @param offset - the first destination index
+	 * @param count - the number of operands to move
+	 */
+	public void transferTo(long [] dest, byte [] destTags, int offset, int count)
+	{
+		top -= count;
+		System.arraycopy(slots, top, dest, offset, count);
+		System.arraycopy(tags, top, destTags, offset, count);
+	}
+
+	/**
+	 * slot - reads an operand without popping it, as its raw bits
+	 * @param k - how far below the top, 0 is the operand on top
+	 * @return - the int, or the raw bits of the double
+	 */
+	public long slot(int k)
+	{
+		return slots[top - 1 - k];
+	}
+
+	/**
+	 * set - overwrites an operand, keeping its tag
+	 * @param k - how far below the top, 0 is the operand on top
+	 * @param bits - the int, or the raw bits of the double
+	 */
+	public void set(int k, long bits)
+	{
+		slots[top - 1 - k] = bits;
+	}
+
+	/**
+	 * replaceTop - pops operands and pushes one value in their place, as a call that returns
+	 * it does. Used by a memoized invoke whose result is already known.
+	 * @param count - the number of operands to pop
+	 * @param bits - the int, or the raw bits of the double
+	 * @param tag - INT or DOUBLE
+	 */
+	public void replaceTop(int count, long bits, byte tag)
+	{
+		top -= count;
+		if(top == slots.length)
+			grow();
+		slots[top] = bits;
+		tags[top++] = tag;
+	}
+
+	/**
+	 * size - the number of operands on the stack
+	 * @return - the number of operands on the stack
+	 */
+	public int size()
+	{
+		return top;
+	}
+
+	/**
+	 * isEmpty - checks if there are operands on the stack
+	 * @return - true if the stack is empty, false otherwise
+	 */
+	public boolean isEmpty()
+	{
+		return top == 0;
+	}
+
+	/**
+	 * grow - doubles the capacity of the stack
+	 */
+	private void grow()
+	{
+		long [] s = new long[slots.length * 2];
+		byte [] t = new byte[tags.length * 2];
+		System.arraycopy(slots, 0, s, 0, top);
+		System.arraycopy(tags, 0, t, 0, top);
+		slots = s;
+		tags = t;
+	}
+}
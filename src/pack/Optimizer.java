@@ -0,0 +1,674 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizer - the middle end of the loader. It rewrites VM.instructionArray after the jump
+ * targets are resolved and the program is printed, so the parsed output is unchanged. Three
+ * passes, selected with vm.optimize, run over the control flow graph of the program, whose
+ * edges are the fall through, the jump targets and the entries of invoked and spawned functions:
+ *
+ *   fold   - constant folding and propagation: iconst 2, iconst 3, imul becomes iconst 6, a
+ *            compare of two constants becomes a goto or disappears, and an iload or fload of a
+ *            memory cell that holds the same constant on every path reaching it becomes an
+ *            iconst or fconst. The cells are tracked within a frame, an invoke leaves them as
+ *            they are and the entry of every invoked function knows nothing about them.
+ *   thread - jump threading: a jump, compare or invoke whose target is a goto goes straight to
+ *            the end of the chain, a goto to a return becomes the return and a goto to the next
+ *            instruction is removed.
+ *   dce    - removes the instructions that no path from address 0 reaches.
+ *
+ * The passes repeat while they change something, since each one exposes work for the others.
+ * Removed instructions are only marked until the end, when the array is compacted and every
+ * jump target and label of VM.jumpMap is remapped, a removed address to the instruction that
+ * follows it.
+ */
+public final class Optimizer
+{
+	public static final String [] PASSES = {"fold", "thread", "dce"};
+
+	//what is known about a memory cell or a value on the stack
+	private static final byte UNKNOWN = 0; //no path reached it yet
+	private static final byte INT = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte VARIES = 3;
+
+	private final Instruction [] code;
+	private final int length;
+	private final boolean [] removed;
+	private int folded, threaded, unreachable;
+
+	private Optimizer(Instruction [] c, int n)
+	{
+		code = c;
+		length = n;
+		removed = new boolean[n];
+	}
+
+	/**
+	 * optimize - runs the selected passes on a program and compacts it
+	 * @param code - the instruction array, rewritten in place
+	 * @param length - the number of instructions
+	 * @param labels - the map from labels to addresses, remapped in place
+	 * @param passes - the names of the passes to run
+	 * @return - the number of instructions left
+	 */
+	public static int optimize(Instruction [] code, int length, Map<Integer, Integer> labels, Set<String> passes)
+	{
+		Optimizer o = new Optimizer(code, length);
+		boolean changed = true;
+		for(int round = 0; changed && round < 8; round++)
+		{
+			changed = false;
+			if(passes.contains("fold"))
+				changed |= o.fold();
+			if(passes.contains("thread"))
+				changed |= o.thread();
+			if(passes.contains("dce"))
+				changed |= o.eliminate();
+		}
+		int left = o.compact(labels);
+		System.out.println("** Optimized " + length + " instructions into " + left + ": " + o.folded + " folded, " +
+				o.threaded + " jump(s) threaded, " + o.unreachable + " unreachable removed **\n");
+		return left;
+	}
+
+	/**
+	 * parsePasses - reads a comma separated list of pass names, "all" or "none"
+	 * @param list - the list of names, i.e. the vm.optimize option
+	 * @return - the set of known pass names in the list
+	 */
+	public static Set<String> parsePasses(String list)
+	{
+		Set<String> set = new LinkedHashSet<String>();
+		for(String name : list.split(","))
+		{
+			name = name.trim();
+			if(name.equals("all"))
+				set.addAll(Arrays.asList(PASSES));
+			else if(Arrays.asList(PASSES).contains(name))
+				set.add(name);
+			else if(!name.equals("none") && !name.isEmpty())
+				System.out.println("** Unknown optimization pass \"" + name + "\" ignored **\n");
+		}
+		return set;
+	}
+
+	/**
+	 * fold - constant folding and propagation. A forward dataflow over the basic blocks finds
+	 * the memory cells that hold a constant at the start of every block, then every block is
+	 * simulated once more with a stack of the values it pushes, rewriting what is constant.
+	 * @return - true if an instruction changed
+	 */
+	private boolean fold()
+	{
+		int cells = 1;
+		for(int pc = 0; pc < length; pc++)
+			if(!removed[pc] && hasAddress(code[pc].getOpcode()))
+				cells = Math.max(cells, (int) code[pc].getValue() + 1);
+		boolean [] leader = leaders();
+		boolean [] entry = new boolean[length]; //the memory cells are unknown at these addresses
+		entry[next(0) < length ? next(0) : 0] = true;
+		for(int pc = 0; pc < length; pc++)
+			if(!removed[pc] && isCall(code[pc].getOpcode()) && next(target(code[pc])) < length)
+				entry[next(target(code[pc]))] = true;
+
+		byte [][] kind = new byte[length][];	//per block leader: what is known about every cell
+		long [][] value = new long[length][];
+		ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+		for(int pc = 0; pc < length; pc++)
+			if(entry[pc])
+			{
+				kind[pc] = new byte[cells];
+				Arrays.fill(kind[pc], VARIES);
+				value[pc] = new long[cells];
+				work.add(pc);
+			}
+		Block b = new Block(cells);
+		while(!work.isEmpty())
+		{
+			int start = work.poll();
+			int end = b.run(start, kind[start], value[start], leader, false);
+			for(int s : successors(end))
+			{
+				if(kind[s] == null)
+				{
+					kind[s] = b.kind.clone();
+					value[s] = b.value.clone();
+					work.add(s);
+				}
+				else if(meet(kind[s], value[s], b.kind, b.value))
+					work.add(s);
+			}
+		}
+
+		int before = folded;
+		for(int pc = 0; pc < length; pc++)
+			if(!removed[pc] && leader[pc] && kind[pc] != null)
+				b.run(pc, kind[pc], value[pc], leader, true);
+		return folded > before;
+	}
+
+	/**
+	 * meet - merges what is known about the cells on one more path into a block
+	 * @return - true if the knowledge of the block changed
+	 */
+	private static boolean meet(byte [] kind, long [] value, byte [] k, long [] v)
+	{
+		boolean changed = false;
+		for(int c = 0; c < kind.length; c++)
+		{
+			if(kind[c] == VARIES || k[c] == UNKNOWN || (kind[c] == k[c] && value[c] == v[c]))
+				continue;
+			if(kind[c] == UNKNOWN)
+			{
+				kind[c] = k[c];
+				value[c] = v[c];
+			}
+			else
+				kind[c] = VARIES;
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Block - simulates a basic block with the constants it knows, on a stack of the values
+	 * it pushes. The stack is empty at the start of a block, a value popped below it is not
+	 * constant, and an invoke forgets it, since the callee may leave any values behind.
+	 */
+	private final class Block
+	{
+		byte [] kind;	  //the memory cells at the current instruction
+		long [] value;
+		private int depth;
+		private byte [] type = new byte[16]; //INT, DOUBLE or VARIES for every value on the stack
+		private long [] bits = new long[16]; //the value, ints as they are and doubles as raw bits
+		private int [] producer = new int[16]; //the iconst or fconst that pushed it
+
+		Block(int cells)
+		{
+			kind = new byte[cells];
+			value = new long[cells];
+		}
+
+		/**
+		 * run - simulates a block from its first instruction
+		 * @param start - the address of the first instruction
+		 * @param k - what is known about the cells at the start
+		 * @param v - their values
+		 * @param leader - the first instructions of the blocks
+		 * @param rewrite - true to rewrite the constant instructions
+		 * @return - the address of the last instruction of the block
+		 */
+		int run(int start, byte [] k, long [] v, boolean [] leader, boolean rewrite)
+		{
+			System.arraycopy(k, 0, kind, 0, k.length);
+			System.arraycopy(v, 0, value, 0, v.length);
+			depth = 0;
+			int last = start;
+			for(int pc = start; pc < length && (pc == start || !leader[pc]); pc++)
+			{
+				if(removed[pc])
+					continue;
+				last = pc;
+				Instruction i = code[pc];
+				int op = i.getOpcode();
+				switch(op)
+				{
+				case Instruction.ICONST:
+					push(INT, (int) i.getValue(), pc);
+					break;
+				case Instruction.FCONST:
+					push(DOUBLE, Double.doubleToRawLongBits((double) i.getValue()), pc);
+					break;
+				case Instruction.ILOAD:
+				case Instruction.FLOAD:
+				{
+					int cell = (int) i.getValue();
+					byte t = op == Instruction.ILOAD ? INT : DOUBLE;
+					if(kind[cell] != t)
+						push(VARIES, 0, pc);
+					else
+					{
+						if(rewrite)
+							replace(pc, t == INT ? new Iconst((int) value[cell]) : new Fconst(Double.longBitsToDouble(value[cell])));
+						push(t, value[cell], pc);
+					}
+					break;
+				}
+				case Instruction.ISTORE:
+				case Instruction.FSTORE:
+				{
+					int cell = (int) i.getValue();
+					byte t = pop();
+					kind[cell] = t == (op == Instruction.ISTORE ? INT : DOUBLE) ? t : VARIES;
+					value[cell] = bits[depth];
+					break;
+				}
+				case Instruction.IADD:
+				case Instruction.ISUB:
+				case Instruction.IMUL:
+				case Instruction.IDIV:
+				{
+					byte tb = pop();
+					int y = (int) bits[depth], py = producer[depth];
+					byte ta = pop();
+					int x = (int) bits[depth], px = producer[depth];
+					if(ta != INT || tb != INT || (op == Instruction.IDIV && y == 0)) //a division by zero must still fail
+					{
+						push(VARIES, 0, pc);
+						break;
+					}
+					int r = op == Instruction.IADD ? x + y : op == Instruction.ISUB ? x - y : op == Instruction.IMUL ? x * y : x / y;
+					if(rewrite)
+						fold(px, py, pc, new Iconst(r));
+					push(INT, r, pc);
+					break;
+				}
+				case Instruction.FADD:
+				case Instruction.FSUB:
+				case Instruction.FMUL:
+				case Instruction.FDIV:
+				{
+					byte tb = pop();
+					double y = Double.longBitsToDouble(bits[depth]);
+					int py = producer[depth];
+					byte ta = pop();
+					double x = Double.longBitsToDouble(bits[depth]);
+					int px = producer[depth];
+					if(ta != DOUBLE || tb != DOUBLE)
+					{
+						push(VARIES, 0, pc);
+						break;
+					}
+					double r = op == Instruction.FADD ? x + y : op == Instruction.FSUB ? x - y : op == Instruction.FMUL ? x * y : x / y;
+					if(rewrite)
+						fold(px, py, pc, new Fconst(r));
+					push(DOUBLE, Double.doubleToRawLongBits(r), pc);
+					break;
+				}
+				case Instruction.INT_TO_FLOAT:
+				{
+					byte t = pop();
+					int px = producer[depth];
+					if(t != INT)
+					{
+						push(VARIES, 0, pc);
+						break;
+					}
+					double r = (int) bits[depth];
+					if(rewrite)
+						fold(px, -1, pc, new Fconst(r));
+					push(DOUBLE, Double.doubleToRawLongBits(r), pc);
+					break;
+				}
+				case Instruction.INVOKE:
+				case Instruction.SPAWN: //the id it pushes is not constant
+					depth = 0;
+					break;
+				case Instruction.JOIN:
+					pop();
+					break;
+				case Instruction.PRINT:
+					break;
+				default:
+					if(isCompare(op))
+					{
+						byte tb = pop();
+						long y = bits[depth];
+						int py = producer[depth];
+						byte ta = pop();
+						long x = bits[depth];
+						int px = producer[depth];
+						byte t = op <= Instruction.ICMPGE ? INT : DOUBLE;
+						if(rewrite && ta == t && tb == t)
+						{
+							boolean jump = t == INT ? holds(op - Instruction.ICMPEQ, Long.compare((int) x, (int) y)) :
+								holds(op - Instruction.FCMPEQ, Double.longBitsToDouble(x), Double.longBitsToDouble(y));
+							fold(px, py, pc, jump ? new Goto(target(i)) : null);
+						}
+					}
+					//goto and the returns end the block with nothing to fold
+				}
+			}
+			return last;
+		}
+
+		private void push(byte t, long v, int pc)
+		{
+			if(depth == type.length)
+			{
+				type = Arrays.copyOf(type, depth * 2);
+				bits = Arrays.copyOf(bits, depth * 2);
+				producer = Arrays.copyOf(producer, depth * 2);
+			}
+			type[depth] = t;
+			bits[depth] = v;
+			producer[depth++] = pc;
+		}
+
+		/**
+		 * pop - pops a value, leaving it in the slot of the new depth
+		 * @return - its type, VARIES for a value pushed before the block
+		 */
+		private byte pop()
+		{
+			if(depth == 0)
+			{
+				push(VARIES, 0, -1);
+				return type[--depth];
+			}
+			return type[--depth];
+		}
+	}
+
+	/**
+	 * fold - removes the constants an instruction consumes and replaces it with its result
+	 * @param a - the producer of the first constant
+	 * @param b - the producer of the second constant, -1 if there is only one
+	 * @param pc - the instruction
+	 * @param result - the instruction that replaces it, null to remove it
+	 */
+	private void fold(int a, int b, int pc, Instruction result)
+	{
+		removed[a] = true;
+		if(b >= 0)
+			removed[b] = true;
+		if(result == null)
+			removed[pc] = true;
+		else
+			code[pc] = result;
+		folded++;
+	}
+
+	private void replace(int pc, Instruction i)
+	{
+		code[pc] = i;
+		folded++;
+	}
+
+	/**
+	 * thread - jump threading
+	 * @return - true if an instruction changed
+	 */
+	private boolean thread()
+	{
+		int before = threaded;
+		for(int pc = 0; pc < length; pc++)
+		{
+			if(removed[pc])
+				continue;
+			Instruction i = code[pc];
+			int op = i.getOpcode();
+			if(op != Instruction.GOTO && !isCall(op) && !isCompare(op))
+				continue;
+			int t = target(i);
+			int end = follow(t);
+			if(op == Instruction.GOTO && end < length && TypeFlow.isReturn(code[end].getOpcode()))
+			{
+				code[pc] = code[end];
+				threaded++;
+			}
+			else if(op == Instruction.GOTO && next(end) == next(pc + 1))
+			{
+				removed[pc] = true;
+				threaded++;
+			}
+			else if(end != t)
+			{
+				code[pc] = retarget(i, end);
+				threaded++;
+			}
+		}
+		return threaded > before;
+	}
+
+	/**
+	 * follow - the end of a chain of gotos
+	 * @param t - a jump target
+	 * @return - the first instruction from t that is not a goto, t if the chain is a loop
+	 */
+	private int follow(int t)
+	{
+		int end = next(t);
+		for(int steps = 0; end < length && code[end].getOpcode() == Instruction.GOTO; steps++)
+		{
+			if(steps == length)
+				return t;
+			end = next(target(code[end]));
+		}
+		return end;
+	}
+
+	/**
+	 * eliminate - removes the instructions no path from address 0 reaches
+	 * @return - true if an instruction was removed
+	 */
+	private boolean eliminate()
+	{
+		boolean [] reached = new boolean[length + 1];
+		ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+		if(next(0) < length)
+			work.add(next(0));
+		reached[next(0)] = true;
+		while(!work.isEmpty())
+			for(int s : successors(work.poll()))
+				if(!reached[s])
+				{
+					reached[s] = true;
+					work.add(s);
+				}
+		int before = unreachable;
+		for(int pc = 0; pc < length; pc++)
+			if(!removed[pc] && !reached[pc])
+			{
+				removed[pc] = true;
+				unreachable++;
+			}
+		return unreachable > before;
+	}
+
+	/**
+	 * compact - drops the removed instructions and remaps every jump target and label
+	 * @param labels - the map from labels to addresses
+	 * @return - the number of instructions left
+	 */
+	private int compact(Map<Integer, Integer> labels)
+	{
+		int [] index = new int[length + 1];
+		int n = 0;
+		for(int pc = 0; pc < length; pc++)
+		{
+			index[pc] = n; //a removed instruction maps to the one that follows it
+			if(!removed[pc])
+				n++;
+		}
+		index[length] = n;
+		Instruction [] out = new Instruction[n];
+		for(int pc = 0; pc < length; pc++)
+			if(!removed[pc])
+			{
+				Instruction i = code[pc];
+				int t = target(i);
+				out[index[pc]] = t < 0 ? i : retarget(i, index[t]);
+			}
+		System.arraycopy(out, 0, code, 0, n);
+		Arrays.fill(code, n, length, null);
+		for(Map.Entry<Integer, Integer> label : labels.entrySet())
+			label.setValue(index[label.getValue()]);
+		return n;
+	}
+
+	/**
+	 * leaders - marks the first instruction of every basic block
+	 */
+	private boolean [] leaders()
+	{
+		boolean [] leader = new boolean[length + 1];
+		leader[next(0)] = true;
+		for(int pc = 0; pc < length; pc++)
+		{
+			if(removed[pc])
+				continue;
+			int op = code[pc].getOpcode();
+			int t = target(code[pc]);
+			if(t >= 0)
+				leader[next(t)] = true;
+			if(t >= 0 || TypeFlow.isReturn(op))
+				leader[next(pc + 1)] = true;
+		}
+		return leader;
+	}
+
+	/**
+	 * successors - the instructions that can run after the last one of a block
+	 * @param pc - the address of a live instruction
+	 * @return - their addresses, without the end of the program
+	 */
+	private int [] successors(int pc)
+	{
+		Instruction i = code[pc];
+		int op = i.getOpcode();
+		int [] s;
+		if(op == Instruction.GOTO)
+			s = new int [] {next(target(i))};
+		else if(TypeFlow.isReturn(op))
+			s = new int[0];
+		else if(isCompare(op) || isCall(op))
+			s = new int [] {next(pc + 1), next(target(i))};
+		else
+			s = new int [] {next(pc + 1)};
+		int n = 0;
+		for(int k : s)
+			if(k < length)
+				s[n++] = k;
+		return Arrays.copyOf(s, n);
+	}
+
+	/**
+	 * next - the first instruction from an address that is not removed
+	 * @return - its address, the length of the program if there is none
+	 */
+	private int next(int pc)
+	{
+		while(pc < length && removed[pc])
+			pc++;
+		return pc;
+	}
+
+	/**
+	 * target - the jump target of a goto or compare, or the entry of an invoke or spawn
+	 * @return - the address, -1 for other instructions
+	 */
+	private static int target(Instruction i)
+	{
+		int op = i.getOpcode();
+		if(op == Instruction.GOTO || isCompare(op))
+			return (int) i.getValue();
+		if(isCall(op))
+			return TypeFlow.invokeOperands(i)[0];
+		return -1;
+	}
+
+	/**
+	 * isCall - checks for the opcodes of invoke and spawn, which start a function in a new frame
+	 */
+	private static boolean isCall(int op)
+	{
+		return op == Instruction.INVOKE || op == Instruction.SPAWN;
+	}
+
+	/**
+	 * jumpTargets - the addresses a goto, compare, invoke or spawn of a program jumps to, which are the
+	 * labels of the input unless a pass or the Inliner made jumps of its own
+	 * @param code - the instruction array
+	 * @param length - the number of instructions
+	 * @return - the set of addresses
+	 */
+	public static Set<Integer> jumpTargets(Instruction [] code, int length)
+	{
+		Set<Integer> targets = new HashSet<Integer>();
+		for(int pc = 0; pc < length; pc++)
+			if(target(code[pc]) >= 0)
+				targets.add(target(code[pc]));
+		return targets;
+	}
+
+	/**
+	 * retarget - a copy of a goto, compare, invoke or spawn with another target
+	 */
+	static Instruction retarget(Instruction i, int t)
+	{
+		switch(i.getOpcode())
+		{
+		case Instruction.GOTO: return new Goto(t);
+		case Instruction.ICMPEQ: return new Icmpeq(t);
+		case Instruction.ICMPNE: return new Icmpne(t);
+		case Instruction.ICMPLT: return new Icmplt(t);
+		case Instruction.ICMPLE: return new Icmple(t);
+		case Instruction.ICMPGT: return new Icmpgt(t);
+		case Instruction.ICMPGE: return new Icmpge(t);
+		case Instruction.FCMPEQ: return new Fcmpeq(t);
+		case Instruction.FCMPNE: return new Fcmpne(t);
+		case Instruction.FCMPLT: return new Fcmplt(t);
+		case Instruction.FCMPLE: return new Fcmple(t);
+		case Instruction.FCMPGT: return new Fcmpgt(t);
+		case Instruction.FCMPGE: return new Fcmpge(t);
+		default:
+		{
+			int [] val = TypeFlow.invokeOperands(i);
+			return i.getOpcode() == Instruction.SPAWN ? new Spawn(t, val[1], val[2]) : new Invoke(t, val[1], val[2]);
+		}
+		}
+	}
+
+	/**
+	 * holds - decides a comparison from the sign of x - y
+	 * @param k - the comparison, 0 to 5 in the order of ICMPEQ ... ICMPGE
+	 */
+	private static boolean holds(int k, int sign)
+	{
+		switch(k)
+		{
+		case 0: return sign == 0;
+		case 1: return sign != 0;
+		case 2: return sign < 0;
+		case 3: return sign <= 0;
+		case 4: return sign > 0;
+		default: return sign >= 0;
+		}
+	}
+
+	/**
+	 * holds - decides a floating-point comparison, false for every ordering of NaN but !=
+	 */
+	private static boolean holds(int k, double x, double y)
+	{
+		switch(k)
+		{
+		case 0: return x == y;
+		case 1: return x != y;
+		case 2: return x < y;
+		case 3: return x <= y;
+		case 4: return x > y;
+		default: return x >= y;
+		}
+	}
+
+	private static boolean hasAddress(int op)
+	{
+		return op == Instruction.ILOAD || op == Instruction.ISTORE || op == Instruction.FLOAD ||
+				op == Instruction.FSTORE || op == Instruction.PRINT;
+	}
+
+	private static boolean isCompare(int op)
+	{
+		return op >= Instruction.ICMPEQ && op <= Instruction.FCMPGE;
+	}
+}
@@ -0,0 +1,148 @@
+package pack;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Parallelizer - finds the pairs of invokes that can run at the same time and rewrites them
+ * into a ForkInvoke and a JoinInvoke, as in the tree recursion of
+ *
+ *     iload 0, iconst 1, isub, invoke 10, 1, 0, iload 0, iconst 2, isub, invoke 10, 1, 0, iadd
+ *
+ * Each invoke must always call the same pure function returning one value, see Purity.java,
+ * and the code between them only loads, stores, pushes constants and computes: no jump, call
+ * or print and no label, and it never pops below the result of the first call. So the
+ * arguments of the second call do not depend on the first one, and neither call can change
+ * what the other computes. A pair is only worth a subtask when both calls do much work, at
+ * least vm.parallelThreshold instructions by the estimate of work() below, so in practice the
+ * calls of recursive functions and of functions with loops.
+ *
+ * At run time the first call forks a Subtask and the second runs in the frame chain of the
+ * caller, see Subtask.java for when a fork is actually made.
+ */
+public final class Parallelizer
+{
+	private static final long UNBOUNDED = Long.MAX_VALUE; //the work of a recursion or a loop
+
+	/**
+	 * parallelize - replaces the pairs of invokes described above with a ForkInvoke and a
+	 * JoinInvoke. Runs before Superinstructions, while the code between them is plain.
+	 * @param code - the instruction array, as analyzed
+	 * @param n - the number of instructions
+	 * @param targets - the addresses jumped to
+	 * @param flow - the analysis of the program
+	 * @param threshold - the least work estimated for both calls of a pair
+	 * @return - the number of pairs replaced
+	 */
+	public static int parallelize(Instruction [] code, int n, Set<Integer> targets, TypeFlow flow, long threshold)
+	{
+		Set<GuestFunction> pure = Purity.pureFunctions(flow);
+		HashMap<GuestFunction, Long> work = new HashMap<GuestFunction, Long>();
+		int pairs = 0;
+		for(int pc = 0; pc < n; pc++)
+		{
+			GuestFunction first = callee(code, pc, flow, pure);
+			if(first == null || work(first, flow.getCode(), work, new HashSet<GuestFunction>()) < threshold)
+				continue;
+			int join = pc + 1;
+			while(join < n && !targets.contains(join) && code[join].getOpcode() <= Instruction.INT_TO_FLOAT)
+				join++;
+			GuestFunction second = join < n && !targets.contains(join) ? callee(code, join, flow, pure) : null;
+			if(second == null || work(second, flow.getCode(), work, new HashSet<GuestFunction>()) < threshold ||
+					!independent(flow, pc, join, second.params))
+				continue;
+			code[pc] = new ForkInvoke(code[pc], join, first.result[0]);
+			code[join] = new JoinInvoke(code[join]);
+			pairs++;
+			pc = join;
+		}
+		if(pairs > 0)
+			System.out.println("** Running " + pairs + " pair(s) of invokes in parallel **\n");
+		return pairs;
+	}
+
+	/**
+	 * callee - the function an invoke always calls, when it is pure and returns one value
+	 * @return - the function, null if the instruction is not such an invoke
+	 */
+	private static GuestFunction callee(Instruction [] code, int pc, TypeFlow flow, Set<GuestFunction> pure)
+	{
+		if(code[pc].getOpcode() != Instruction.INVOKE)
+			return null;
+		GuestFunction callee = null;
+		for(GuestFunction f : flow.getFunctions())
+			if(f.isReachable(pc))
+			{
+				if(callee != null && callee != f.call(pc))
+					return null;
+				callee = f.call(pc);
+			}
+		return callee != null && pure.contains(callee) && callee.result != null && callee.result.length == 1 ? callee : null;
+	}
+
+	/**
+	 * independent - checks that in every function reaching the first invoke of a pair the code
+	 * up to the second one never pops the result of the first and leaves the arguments of the
+	 * second on top of it
+	 * @param flow - the analysis of the program
+	 * @param fork - the address of the first invoke
+	 * @param join - the address of the second invoke
+	 * @param params - the number of arguments of the second invoke
+	 */
+	private static boolean independent(TypeFlow flow, int fork, int join, int params)
+	{
+		for(GuestFunction f : flow.getFunctions())
+		{
+			if(!f.isReachable(fork))
+				continue;
+			if(!f.isReachable(fork + 1))
+				return false;
+			int depth = f.stack(fork + 1).length; //the result of the first call on top
+			for(int pc = fork + 1; pc <= join; pc++)
+				if(!f.isReachable(pc) || f.stack(pc).length < depth)
+					return false;
+			if(f.stack(join).length != depth + params)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * work - estimates the instructions a call of a function executes: every reachable
+	 * instruction once, plus the work of every call it makes. A function that jumps back or
+	 * calls itself, directly or not, may run for any time, its work is UNBOUNDED.
+	 * @param g - the function
+	 * @param code - the instructions analyzed
+	 * @param known - the work of the functions estimated so far
+	 * @param open - the functions whose work is being estimated, the calls on the way to g
+	 * @return - the estimate
+	 */
+	private static long work(GuestFunction g, Instruction [] code, HashMap<GuestFunction, Long> known, Set<GuestFunction> open)
+	{
+		Long w = known.get(g);
+		if(w != null)
+			return w;
+		if(!open.add(g))
+			return UNBOUNDED;
+		long sum = 0;
+		for(int pc = g.low; pc < g.high && sum < UNBOUNDED; pc++)
+		{
+			if(!g.isReachable(pc))
+				continue;
+			int op = code[pc].getOpcode();
+			if(op >= Instruction.ICMPEQ && op <= Instruction.GOTO && (int) code[pc].getValue() <= pc)
+				sum = UNBOUNDED;
+			else if(op == Instruction.INVOKE && g.call(pc) != null)
+			{
+				long callee = work(g.call(pc), code, known, open);
+				sum = callee == UNBOUNDED ? UNBOUNDED : sum + 1 + Math.min(callee, UNBOUNDED - 2 - sum);
+			}
+			else
+				sum++;
+		}
+		open.remove(g);
+		known.put(g, sum);
+		return sum;
+	}
+}
@@ -2,10 +2,11 @@ package pack;
 
 public class Print extends Instruction
 {
-	private int value;
+	private final int value;
 
 	public Print(int v)
 	{
+		super(PRINT);
 		value = v;
 	}
 	
@@ -0,0 +1,214 @@
+package pack;
+
+import java.util.HashMap;
+
+/**
+ * Program - a loaded program: the result of lexing, parsing, linking, verifying and rewriting
+ * one input file, which never changes once the loader is done. Any number of executions can
+ * share it at once, on any threads, each in a VM of its own with its own runtime stack, stack
+ * of operands and memo cache, so a program run on many inputs is parsed only once:
+ *
+ *     Program program = Program.load(args);
+ *     new VM(program).execute(); //as many times and on as many threads as needed
+ *
+ * A program can take inputs, the first memory cells of the frame at address 0, which every
+ * execution writes before the program runs, i.e. Program.load(args, "id") for an int and a
+ * double and new VM(program).execute(12, 2.5). The loader analyzes them as the parameters of
+ * a function, so they are typed like the other cells.
+ *
+ * The instructions are never changed in place, refract() links a jump or invoke by making a
+ * new instruction, and the loader packs a copy of its instruction array. What executions derive
+ * from the program is made once, by the first execution that needs it, and kept here for all
+ * of them: the analysis by TypeFlow, the closures, the register form and the code compiled by
+ * Jit. Every CompactCode is immutable as well. When Jit replaces a hot invoke, the program gets
+ * a new CompactCode with the CompiledInvoke in it, the one later executions start from, while
+ * the executions running keep the one they have until they compile an invoke themselves.
+ */
+public final class Program
+{
+	final Instruction [] original; //the instructions as loaded and optimized, analyzed by TypeFlow
+	final int length; //number of instructions
+	final int mainCells; //memory cells of the main frame, inputs included
+	final byte [] inputs; //the types of the inputs, TypeFlow.INT or TypeFlow.DOUBLE
+	final boolean printsTyped; //every print has a TypedPrint, so frames need no tags
+	final int memoArguments; //the most arguments of a memoized function, -1 if no invoke is memoized
+	final boolean threads; //the program has a spawn or a join, it runs on the Scheduler
+
+	private volatile CompactCode code; //the newest packed program, with every invoke compiled so far
+
+	//derived from the program by the first execution that needs it, guarded by this
+	private TypeFlow flow;
+	private ClosureFunction closures;
+	private boolean closuresCompiled;
+	private RegisterProgram registers;
+	private boolean registersTranslated;
+	final HashMap<GuestFunction, CompiledFunction> compiled = new HashMap<GuestFunction, CompiledFunction>(); //null if rejected
+
+	/**
+	 * Program constructor - made by the loader once it is done with the program
+	 * @param c - the packed program
+	 * @param o - the instructions as loaded and optimized
+	 * @param cells - the memory cells of the main frame
+	 * @param in - the types of the inputs
+	 * @param typed - true if every print has a TypedPrint
+	 * @param memo - the most arguments of a memoized function, -1 if no invoke is memoized
+	 * @param f - the analysis of o, null if the loader did not need it
+	 */
+	Program(CompactCode c, Instruction [] o, int cells, byte [] in, boolean typed, int memo, TypeFlow f)
+	{
+		code = c;
+		original = o;
+		length = o.length;
+		mainCells = cells;
+		inputs = in;
+		printsTyped = typed;
+		memoArguments = memo;
+		flow = f;
+		boolean spawns = false;
+		for(Instruction i : o)
+			spawns |= i.getOpcode() == Instruction.SPAWN || i.getOpcode() == Instruction.JOIN;
+		threads = spawns;
+	}
+
+	/**
+	 * load - lexes, parses and loads a program, as VM.parseInput() does
+	 * @param args - the input file, the parsed output file and optionally the expected output
+	 * @return - the program, null if the input has errors
+	 */
+	public static Program load(String [] args)
+	{
+		return load(args, "");
+	}
+
+	/**
+	 * load - lexes, parses and loads a program that takes inputs
+	 * @param args - the input file, the parsed output file and optionally the expected output
+	 * @param inputs - the types of the inputs, 'i' for an int and 'd' for a double, i.e. "iid"
+	 * @return - the program, null if the input has errors
+	 */
+	public static Program load(String [] args, String inputs)
+	{
+		VM loader = new VM();
+		loader.inputTypes = new byte[inputs.length()];
+		for(int k = 0; k < inputs.length(); k++)
+		{
+			char t = inputs.charAt(k);
+			if(t != 'i' && t != 'd')
+				throw new IllegalArgumentException("input type '" + t + "' is not i or d");
+			loader.inputTypes[k] = t == 'i' ? TypeFlow.INT : TypeFlow.DOUBLE;
+		}
+		return loader.parseInput(args) ? loader.program : null;
+	}
+
+	/**
+	 * code - the packed program an execution starts from
+	 * @return - the newest packed program
+	 */
+	CompactCode code()
+	{
+		return code;
+	}
+
+	/**
+	 * link - replaces an invoke with a call to its compiled function in a new packed program,
+	 * unless an execution already did. The invokes of a parallel pair stay a ForkInvoke and a
+	 * JoinInvoke that call the compiled function, so that the pair can still fork.
+	 * @param site - the address of the invoke
+	 * @param function - the compiled function it calls
+	 * @return - the newest packed program, with the invoke compiled
+	 */
+	synchronized CompactCode link(int site, CompiledFunction function)
+	{
+		CompactCode c = code;
+		Instruction i = c.instructions[site];
+		if(i.getOpcode() == Instruction.FORK_INVOKE && ((ForkInvoke) i).function == null)
+			code = c = c.replace(site, new ForkInvoke((ForkInvoke) i, function));
+		else if(i.getOpcode() == Instruction.JOIN_INVOKE && ((JoinInvoke) i).function == null)
+			code = c = c.replace(site, new JoinInvoke((JoinInvoke) i, function));
+		else if(i.getOpcode() != Instruction.COMPILED_INVOKE && i.getOpcode() != Instruction.FORK_INVOKE && 
+				i.getOpcode() != Instruction.JOIN_INVOKE)
+			code = c = c.replace(site, new CompiledInvoke(i, function));
+		return c;
+	}
+
+	/**
+	 * analysis - the type analysis of the program, shared by the compilers of all executions
+	 * @return - the analysis of original, made on the first call
+	 */
+	synchronized TypeFlow analysis()
+	{
+		if(flow == null)
+			flow = new TypeFlow(original, length, mainCells, inputs);
+		return flow;
+	}
+
+	/**
+	 * closures - the program compiled by ClosureCompiler
+	 * @return - the code at address 0, null if the program cannot be compiled
+	 */
+	synchronized ClosureFunction closures()
+	{
+		if(!closuresCompiled)
+		{
+			closures = ClosureCompiler.compile(analysis());
+			closuresCompiled = true;
+		}
+		return closures;
+	}
+
+	/**
+	 * registers - the program translated by RegisterTranslator
+	 * @return - the register form, null if the program cannot be translated
+	 */
+	synchronized RegisterProgram registers()
+	{
+		if(!registersTranslated)
+		{
+			registers = RegisterTranslator.translate(analysis());
+			registersTranslated = true;
+		}
+		return registers;
+	}
+
+	/**
+	 * cells - the memory cells holding the values of the inputs
+	 * @param values - an Integer for every int input and a Double for every double input
+	 * @return - ints as they are and doubles as their raw bits, as the FrameArena keeps them
+	 * @throws IllegalArgumentException - if the values do not match the types of the inputs
+	 */
+	long [] cells(Number [] values)
+	{
+		if(values.length != inputs.length)
+			throw new IllegalArgumentException("the program takes " + inputs.length + " input(s), not " + values.length);
+		long [] cells = new long[values.length];
+		for(int k = 0; k < values.length; k++)
+			if(inputs[k] == TypeFlow.INT && values[k] instanceof Integer)
+				cells[k] = values[k].intValue();
+			else if(inputs[k] == TypeFlow.DOUBLE && values[k] instanceof Double)
+				cells[k] = Double.doubleToRawLongBits(values[k].doubleValue());
+			else
+				throw new IllegalArgumentException("input " + k + " must be " + (inputs[k] == TypeFlow.INT ? "an int" : "a double"));
+		return cells;
+	}
+
+	/**
+	 * getInputs - accessor for the types of the inputs
+	 * @return - 'i' for an int and 'd' for a double input, in the order of the memory cells
+	 */
+	public String getInputs()
+	{
+		StringBuilder s = new StringBuilder();
+		for(byte t : inputs)
+			s.append(t == TypeFlow.INT ? 'i' : 'd');
+		return s.toString();
+	}
+
+	/**
+	 * getLength - accessor for the number of instructions
+	 * @return - the number of instructions of the program
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+}
@@ -0,0 +1,96 @@
+package pack;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Purity - finds the guest functions whose result depends only on their arguments and marks
+ * the invokes of them for memoization. A function is pure when TypeFlow can type it, it never
+ * prints, spawns or joins a thread, it never runs past the last instruction, which ends the
+ * program, and every function it invokes is pure. A fresh Frame starts with its memory cells unwritten and a function
+ * cannot reach the cells of its caller or the operands below its arguments, so nothing else
+ * can change what a pure function computes. Pure functions that leave one value on the stack
+ * of operands are memoized: their invokes become MemoInvokes, which use VM.memoCache.
+ */
+public final class Purity
+{
+	/**
+	 * pureFunctions - the pure functions of a program, as the largest set closed under the
+	 * rule above, so that recursive functions can be pure
+	 * @param flow - the analysis of the program
+	 * @return - the pure functions
+	 */
+	public static Set<GuestFunction> pureFunctions(TypeFlow flow)
+	{
+		Instruction [] code = flow.getCode();
+		Set<GuestFunction> pure = new HashSet<GuestFunction>();
+		for(GuestFunction g : flow.getFunctions())
+			if(g != flow.getMain() && g.error == null && !g.endsProgram && !hasEffects(g, code))
+				pure.add(g);
+		boolean changed = true;
+		while(changed)
+		{
+			changed = false;
+			for(GuestFunction g : flow.getFunctions())
+				if(pure.contains(g) && !pure.containsAll(g.callees))
+				{
+					pure.remove(g);
+					changed = true;
+				}
+		}
+		return pure;
+	}
+
+	/**
+	 * memoize - replaces the invokes that always call the same pure function returning one
+	 * value with MemoInvokes. Invokes rewritten into tail calls are left alone, they run in
+	 * the frame of their caller.
+	 * @param code - the instruction array, as analyzed
+	 * @param n - the number of instructions
+	 * @param flow - the analysis of the program
+	 * @return - the most arguments of a memoized function, -1 if no invoke was replaced
+	 */
+	public static int memoize(Instruction [] code, int n, TypeFlow flow)
+	{
+		Set<GuestFunction> pure = pureFunctions(flow);
+		HashMap<GuestFunction, Integer> number = new HashMap<GuestFunction, Integer>();
+		int arguments = -1, sites = 0;
+		for(int pc = 0; pc < n; pc++)
+		{
+			if(code[pc].getOpcode() != Instruction.INVOKE)
+				continue;
+			GuestFunction callee = null;
+			boolean same = true;
+			for(GuestFunction f : flow.getFunctions())
+				if(f.isReachable(pc))
+				{
+					same &= callee == null || callee == f.call(pc);
+					callee = f.call(pc);
+				}
+			if(callee == null || !same || !pure.contains(callee) || callee.result == null || callee.result.length != 1)
+				continue;
+			number.putIfAbsent(callee, number.size());
+			code[pc] = new MemoInvoke(code[pc], number.get(callee), callee.result[0]);
+			arguments = Math.max(arguments, callee.params);
+			sites++;
+		}
+		if(sites > 0)
+			System.out.println("** Memoizing " + sites + " invoke(s) of " + number.size() + " pure function(s) **\n");
+		return arguments;
+	}
+
+	/**
+	 * hasEffects - checks if a function has a reachable print, spawn or join
+	 */
+	private static boolean hasEffects(GuestFunction g, Instruction [] code)
+	{
+		for(int pc = g.low; pc < g.high; pc++)
+		{
+			int op = code[pc].getOpcode();
+			if(g.isReachable(pc) && (op == Instruction.PRINT || op == Instruction.SPAWN || op == Instruction.JOIN))
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,37 @@
+package pack;
+
+/**
+ * Quick - the quickened form of an instruction that has an operand. CompactCode packs
+ * such an instruction as a Quick, which holds the operand as a primitive in the fields of
+ * Instruction and has the opcode QUICK + the original opcode, so the dispatch loop reads the
+ * operand directly: no getValue() call, no boxed Integer or Integer [] and no cast.
+ */
+public final class Quick extends Rewritten
+{
+	private Quick(Instruction i, int a, int p, int l, double d)
+	{
+		super(QUICK + i.getOpcode(), i, a, p, l, d);
+	}
+
+	/**
+	 * quicken - creates the quickened form of an instruction with an operand
+	 * @param i - an instruction of the input language or a TailInvoke
+	 * @return - the quickened form of i
+	 */
+	public static Quick quicken(Instruction i)
+	{
+		switch(i.getOpcode())
+		{
+		case FCONST:
+			return new Quick(i, 0, 0, 0, (double) i.getValue());
+		case INVOKE:
+		case TAIL_INVOKE:
+		{
+			Integer [] val = (Integer[]) i.getValue();
+			return new Quick(i, val[0], val[1], val[2], 0.0);
+		}
+		default: //the integer constant, memory address or jump target
+			return new Quick(i, (int) i.getValue(), 0, 0, 0.0);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package pack;
+
+import java.util.Arrays;
+
+/**
+ * RegisterMachine - executes a RegisterProgram. All frames live in one array of long registers,
+ * ints as they are and doubles as their raw bits like the FrameArena, and a frame is addressed
+ * from a base pointer: a call places the frame of the callee after the frame of the caller and
+ * copies the arguments into its first registers. The return address, the base of the caller
+ * and the register that receives the result are kept in an int array, so a guest call is not
+ * a Java call and the depth of calls is bounded only by VM.maxCallDepth.
+ */
+public final class RegisterMachine
+{
+	/**
+	 * run - executes a program from the code at address 0
+	 * @param p - the program, as made by RegisterTranslator
+	 * @param inputs - the values of the first memory cells of the code at address 0
+	 * @return - the number of register instructions executed, for vm.stats
+	 */
+	public static long run(RegisterProgram p, long [] inputs)
+	{
+		final int [] op = p.op, A = p.a, B = p.b, C = p.c, args = p.args, entry = p.entry, frameSize = p.frameSize;
+		final double [] K = p.constant;
+		final int maxCallDepth = VM.maxCallDepth;
+		long [] r = new long[Math.max(1024, frameSize[0])];
+		System.arraycopy(inputs, 0, r, 0, inputs.length);
+		int [] calls = new int[3 * 64]; //return address, base and result register of every active call
+		int depth = 0, base = 0, pc = entry[0];
+		long count = 0;
+		for(;;)
+		{
+			count++;
+			switch(op[pc])
+			{
+			case RegisterProgram.ICONST:
+				r[base + A[pc]] = B[pc];
+				pc++;
+				break;
+			case RegisterProgram.DCONST:
+				r[base + A[pc]] = Double.doubleToRawLongBits(K[pc]);
+				pc++;
+				break;
+			case RegisterProgram.MOVE:
+				r[base + A[pc]] = r[base + B[pc]];
+				pc++;
+				break;
+			case RegisterProgram.IADD:
+				r[base + A[pc]] = (int) r[base + B[pc]] + (int) r[base + C[pc]];
+				pc++;
+				break;
+			case RegisterProgram.ISUB:
+				r[base + A[pc]] = (int) r[base + B[pc]] - (int) r[base + C[pc]];
+				pc++;
+				break;
+			case RegisterProgram.IMUL:
+				r[base + A[pc]] = (int) r[base + B[pc]] * (int) r[base + C[pc]];
+				pc++;
+				break;
+			case RegisterProgram.IDIV:
+				r[base + A[pc]] = (int) r[base + B[pc]] / (int) r[base + C[pc]];
+				pc++;
+				break;
+			case RegisterProgram.IADDK:
+				r[base + A[pc]] = (int) r[base + B[pc]] + C[pc];
+				pc++;
+				break;
+			case RegisterProgram.ISUBK:
+				r[base + A[pc]] = (int) r[base + B[pc]] - C[pc];
+				pc++;
+				break;
+			case RegisterProgram.IMULK:
+				r[base + A[pc]] = (int) r[base + B[pc]] * C[pc];
+				pc++;
+				break;
+			case RegisterProgram.IDIVK:
+				r[base + A[pc]] = (int) r[base + B[pc]] / C[pc];
+				pc++;
+				break;
+			case RegisterProgram.DADD:
+				r[base + A[pc]] = Double.doubleToRawLongBits(Double.longBitsToDouble(r[base + B[pc]]) + Double.longBitsToDouble(r[base + C[pc]]));
+				pc++;
+				break;
+			case RegisterProgram.DSUB:
+				r[base + A[pc]] = Double.doubleToRawLongBits(Double.longBitsToDouble(r[base + B[pc]]) - Double.longBitsToDouble(r[base + C[pc]]));
+				pc++;
+				break;
+			case RegisterProgram.DMUL:
+				r[base + A[pc]] = Double.doubleToRawLongBits(Double.longBitsToDouble(r[base + B[pc]]) * Double.longBitsToDouble(r[base + C[pc]]));
+				pc++;
+				break;
+			case RegisterProgram.DDIV:
+				r[base + A[pc]] = Double.doubleToRawLongBits(Double.longBitsToDouble(r[base + B[pc]]) / Double.longBitsToDouble(r[base + C[pc]]));
+				pc++;
+				break;
+			case RegisterProgram.I2D:
+				r[base + A[pc]] = Double.doubleToRawLongBits((int) r[base + B[pc]]);
+				pc++;
+				break;
+			case RegisterProgram.ICMPEQ:
+				pc = (int) r[base + A[pc]] == (int) r[base + B[pc]] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPNE:
+				pc = (int) r[base + A[pc]] != (int) r[base + B[pc]] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPLT:
+				pc = (int) r[base + A[pc]] < (int) r[base + B[pc]] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPLE:
+				pc = (int) r[base + A[pc]] <= (int) r[base + B[pc]] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPGT:
+				pc = (int) r[base + A[pc]] > (int) r[base + B[pc]] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPGE:
+				pc = (int) r[base + A[pc]] >= (int) r[base + B[pc]] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPEQK:
+				pc = (int) r[base + A[pc]] == B[pc] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPNEK:
+				pc = (int) r[base + A[pc]] != B[pc] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPLTK:
+				pc = (int) r[base + A[pc]] < B[pc] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPLEK:
+				pc = (int) r[base + A[pc]] <= B[pc] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPGTK:
+				pc = (int) r[base + A[pc]] > B[pc] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.ICMPGEK:
+				pc = (int) r[base + A[pc]] >= B[pc] ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.DCMPEQ:
+				pc = Double.longBitsToDouble(r[base + A[pc]]) == Double.longBitsToDouble(r[base + B[pc]]) ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.DCMPNE:
+				pc = Double.longBitsToDouble(r[base + A[pc]]) != Double.longBitsToDouble(r[base + B[pc]]) ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.DCMPLT:
+				pc = Double.longBitsToDouble(r[base + A[pc]]) < Double.longBitsToDouble(r[base + B[pc]]) ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.DCMPLE:
+				pc = Double.longBitsToDouble(r[base + A[pc]]) <= Double.longBitsToDouble(r[base + B[pc]]) ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.DCMPGT:
+				pc = Double.longBitsToDouble(r[base + A[pc]]) > Double.longBitsToDouble(r[base + B[pc]]) ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.DCMPGE:
+				pc = Double.longBitsToDouble(r[base + A[pc]]) >= Double.longBitsToDouble(r[base + B[pc]]) ? C[pc] : pc + 1;
+				break;
+			case RegisterProgram.GOTO:
+				pc = C[pc];
+				break;
+			case RegisterProgram.CALL:
+			{
+				int f = A[pc], at = B[pc], n = args[at];
+				int callee = base + args[at + 1];
+				if(depth == maxCallDepth)
+				{
+					System.out.println("Runtime Error: invoke at " + p.source[pc] + " exceeds the maximum call depth of " +
+							maxCallDepth + ", see vm.maxCallDepth");
+					return count;
+				}
+				if(callee + frameSize[f] > r.length)
+					r = Arrays.copyOf(r, Math.max(r.length * 2, callee + frameSize[f]));
+				for(int k = 0; k < n; k++)
+					r[callee + k] = r[base + args[at + 2 + k]];
+				if(3 * depth + 3 > calls.length)
+					calls = Arrays.copyOf(calls, calls.length * 2);
+				calls[3 * depth] = pc + 1;
+				calls[3 * depth + 1] = base;
+				calls[3 * depth + 2] = C[pc];
+				depth++;
+				base = callee;
+				pc = entry[f];
+				break;
+			}
+			case RegisterProgram.RET:
+			{
+				long value = A[pc] < 0 ? 0 : r[base + A[pc]];
+				if(depth == 0) //the code at address 0 returned
+				{
+					return count;
+				}
+				depth--;
+				pc = calls[3 * depth];
+				base = calls[3 * depth + 1];
+				if(calls[3 * depth + 2] >= 0)
+					r[base + calls[3 * depth + 2]] = value;
+				break;
+			}
+			case RegisterProgram.PRINTI:
+				System.out.println("Print: " + (int) r[base + A[pc]]);
+				pc++;
+				break;
+			case RegisterProgram.PRINTD:
+				System.out.println("Print: " + Double.longBitsToDouble(r[base + A[pc]]));
+				pc++;
+				break;
+			case RegisterProgram.PRINTN:
+				System.out.println("Print: null");
+				pc++;
+				break;
+			default: //HALT
+				return count;
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package pack;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * RegisterProgram - a program in three-address register form, made by RegisterTranslator and
+ * executed by RegisterMachine. The instructions of all functions are kept in parallel arrays:
+ * an opcode and up to three integer operands, i.e. IADD a b c is r[a] = r[b] + r[c], plus a
+ * floating-point constant for DCONST. Registers are numbered from the base of the frame of
+ * the function: first its parameters and local variables, which are its memory cells, then
+ * one register for every depth of its stack of operands, so no value moves through
+ * VM.operandStack.
+ */
+public final class RegisterProgram
+{
+	//opcodes of the register form
+	static final int ICONST = 0;	//r[a] = b
+	static final int DCONST = 1;	//r[a] = constant
+	static final int MOVE = 2;		//r[a] = r[b]
+	static final int IADD = 3;		//r[a] = r[b] op r[c], in the order of Instruction.IADD ... IDIV
+	static final int ISUB = 4;
+	static final int IMUL = 5;
+	static final int IDIV = 6;
+	static final int IADDK = 7;		//r[a] = r[b] op c, the same order
+	static final int ISUBK = 8;
+	static final int IMULK = 9;
+	static final int IDIVK = 10;
+	static final int DADD = 11;		//r[a] = r[b] op r[c] on doubles
+	static final int DSUB = 12;
+	static final int DMUL = 13;
+	static final int DDIV = 14;
+	static final int I2D = 15;		//r[a] = (double) r[b]
+	static final int ICMPEQ = 16;	//if r[a] op r[b] goto c, in the order of Instruction.ICMPEQ ... ICMPGE
+	static final int ICMPNE = 17;
+	static final int ICMPLT = 18;
+	static final int ICMPLE = 19;
+	static final int ICMPGT = 20;
+	static final int ICMPGE = 21;
+	static final int ICMPEQK = 22;	//if r[a] op b goto c, the same order
+	static final int ICMPNEK = 23;
+	static final int ICMPLTK = 24;
+	static final int ICMPLEK = 25;
+	static final int ICMPGTK = 26;
+	static final int ICMPGEK = 27;
+	static final int DCMPEQ = 28;	//if r[a] op r[b] goto c on doubles, the same order
+	static final int DCMPNE = 29;
+	static final int DCMPLT = 30;
+	static final int DCMPLE = 31;
+	static final int DCMPGT = 32;
+	static final int DCMPGE = 33;
+	static final int GOTO = 34;		//goto c
+	static final int CALL = 35;		//r[c] = function a, arguments described at args[b], c is -1 without a result
+	static final int RET = 36;		//return r[a], a is -1 without a result
+	static final int PRINTI = 37;	//print r[a] as an int
+	static final int PRINTD = 38;	//print r[a] as a double
+	static final int PRINTN = 39;	//print null, the cell was never written
+	static final int HALT = 40;		//the program ran past its last instruction
+
+	private static final String [] OPERATORS = {"+", "-", "*", "/"};
+	private static final String [] COMPARISONS = {"==", "!=", "<", "<=", ">", ">="};
+
+	int [] op = new int[64];
+	int [] a = new int[64];
+	int [] b = new int[64];
+	int [] c = new int[64];
+	double [] constant = new double[64];
+	int length;
+
+	//for every CALL, at args[b]: the number of arguments, the frame size of the caller, the argument registers
+	int [] args = new int[64];
+	int argsLength;
+
+	//for every function, in the order of TypeFlow.getFunctions(), main first
+	GuestFunction [] functions;
+	int [] entry;	  //index of the first instruction
+	int [] frameSize; //number of registers
+	int [] start;	  //index of the first instruction generated for the function
+	int [] source;	  //for every instruction, the address of the stack instruction it comes from
+
+	/**
+	 * emit - appends an instruction
+	 * @return - its index
+	 */
+	int emit(int opcode, int x, int y, int z, double d, int from)
+	{
+		if(length == op.length)
+		{
+			int n = length * 2;
+			op = Arrays.copyOf(op, n);
+			a = Arrays.copyOf(a, n);
+			b = Arrays.copyOf(b, n);
+			c = Arrays.copyOf(c, n);
+			constant = Arrays.copyOf(constant, n);
+			source = Arrays.copyOf(source, n);
+		}
+		op[length] = opcode;
+		a[length] = x;
+		b[length] = y;
+		c[length] = z;
+		constant[length] = d;
+		source[length] = from;
+		return length++;
+	}
+
+	/**
+	 * addArgs - appends the description of the arguments of a CALL
+	 * @param callerFrame - the frame size of the calling function
+	 * @param registers - the registers holding the arguments, first argument first
+	 * @return - the index of the description
+	 */
+	int addArgs(int callerFrame, int [] registers)
+	{
+		if(argsLength + registers.length + 2 > args.length)
+			args = Arrays.copyOf(args, (argsLength + registers.length + 2) * 2);
+		int at = argsLength;
+		args[argsLength++] = registers.length;
+		args[argsLength++] = callerFrame;
+		for(int r : registers)
+			args[argsLength++] = r;
+		return at;
+	}
+
+	/**
+	 * getLength - accessor for the number of register instructions
+	 * @return - the number of instructions of all functions
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * print - renders one register instruction, i.e. r3 = r0 + 1
+	 * @param i - the index of the instruction
+	 * @return - the text of the instruction
+	 */
+	public String print(int i)
+	{
+		int x = a[i], y = b[i], z = c[i];
+		switch(op[i])
+		{
+		case ICONST: return "r" + x + " = " + y;
+		case DCONST: return "r" + x + " = " + constant[i];
+		case MOVE: return "r" + x + " = r" + y;
+		case IADD: case ISUB: case IMUL: case IDIV:
+			return "r" + x + " = r" + y + " " + OPERATORS[op[i] - IADD] + " r" + z;
+		case IADDK: case ISUBK: case IMULK: case IDIVK:
+			return "r" + x + " = r" + y + " " + OPERATORS[op[i] - IADDK] + " " + z;
+		case DADD: case DSUB: case DMUL: case DDIV:
+			return "r" + x + " = r" + y + " " + OPERATORS[op[i] - DADD] + " r" + z + " (double)";
+		case I2D: return "r" + x + " = (double) r" + y;
+		case GOTO: return "goto " + z;
+		case CALL:
+		{
+			StringBuilder s = new StringBuilder(z < 0 ? "" : "r" + z + " = ").append("call ").append(functions[x]).append(" (");
+			for(int k = 0; k < args[y]; k++)
+				s.append(k == 0 ? "r" : ", r").append(args[y + 2 + k]);
+			return s.append(')').toString();
+		}
+		case RET: return x < 0 ? "return" : "return r" + x;
+		case PRINTI: case PRINTD: return "print r" + x;
+		case PRINTN: return "print null";
+		case HALT: return "halt";
+		default:
+			if(op[i] >= ICMPEQ && op[i] <= ICMPGE)
+				return "if r" + x + " " + COMPARISONS[op[i] - ICMPEQ] + " r" + y + " goto " + z;
+			if(op[i] >= ICMPEQK && op[i] <= ICMPGEK)
+				return "if r" + x + " " + COMPARISONS[op[i] - ICMPEQK] + " " + y + " goto " + z;
+			return "if r" + x + " " + COMPARISONS[op[i] - DCMPEQ] + " r" + y + " goto " + z + " (double)";
+		}
+	}
+
+	/**
+	 * dump - writes the register form of every function to a file, in the style of
+	 * VM.printInstructionArray(), with the address of the stack instruction each register
+	 * instruction comes from
+	 * @param file - the name of the file
+	 * @throws FileNotFoundException - if the file cannot be created
+	 */
+	public void dump(String file) throws FileNotFoundException
+	{
+		try(PrintWriter out = new PrintWriter(file))
+		{
+			for(int f = 0; f < functions.length; f++)
+			{
+				GuestFunction g = functions[f];
+				int cells = g.params + g.locals;
+				out.println("function " + g + (f == 0 ? " main" : "") + ": " + frameSize[f] + " registers, " +
+						(cells == 0 ? "no memory cells" : "r0-r" + (cells - 1) + " memory cells") + ", r" + cells + "-r" +
+						(frameSize[f] - 1) + " stack, entry " + entry[f]);
+				int end = f + 1 < functions.length ? start[f + 1] : length;
+				for(int i = start[f]; i < end; i++)
+					out.println(i + ": " + print(i) + "\t\t(" + source[i] + ")");
+				out.println();
+			}
+		}
+	}
+}
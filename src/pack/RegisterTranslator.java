@@ -0,0 +1,556 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * RegisterTranslator - translates the stack bytecode of a whole program into the three-address
+ * form of RegisterProgram, an execution mode selected with vm.registers. Every GuestFunction
+ * found by TypeFlow gets a frame of registers: its memory cells first, then one register per
+ * depth of its stack of operands, so an instruction reads and writes registers by number
+ * instead of pushing and popping.
+ *
+ * The stack is simulated at translation time. Loads and constants emit nothing, they stay on
+ * the simulated stack as the register or the value they name, so iload 0, iconst 1, iadd
+ * becomes the single instruction r2 = r0 + 1, and a store retargets the instruction that
+ * computed the value when it can, so istore 0 after it gives r0 = r0 + 1. Values are moved
+ * to the register of their depth only where basic blocks meet, and a value naming a memory
+ * cell is copied before the cell is overwritten.
+ *
+ * The program is translated only if every function passes TypeFlow.unsupported(), otherwise
+ * the interpreter runs it.
+ */
+public final class RegisterTranslator
+{
+	private final TypeFlow flow;
+	private final Instruction [] code;
+	private final RegisterProgram program = new RegisterProgram();
+	private final HashMap<GuestFunction, Integer> index = new HashMap<GuestFunction, Integer>();
+
+	//the function being translated
+	private GuestFunction g;
+	private int frame;	   //registers of its frame
+	private int stackBase; //the register of stack depth 0
+	private boolean [] leader;
+	private int [] address; //the register instruction of every leader
+	private final ArrayList<int []> fixups = new ArrayList<int []>(); //{instruction, stack address} of jumps
+	private int blockStart;	//the first register instruction of the current block
+
+	//the simulated stack: a register, or -1 for a constant
+	private int depth;
+	private int [] register = new int[16];
+	private int [] intValue = new int[16];
+	private double [] doubleValue = new double[16];
+	private byte [] type = new byte[16];
+
+	private RegisterTranslator(TypeFlow f)
+	{
+		flow = f;
+		code = f.getCode();
+	}
+
+	/**
+	 * translate - translates a program
+	 * @param flow - the analysis of the program
+	 * @return - the register form, null if the program cannot be translated
+	 */
+	public static RegisterProgram translate(TypeFlow flow)
+	{
+		for(GuestFunction g : flow.getFunctions())
+		{
+			String reason = flow.unsupported(g);
+			if(reason != null)
+			{
+				System.out.println("** Register translation is not possible, function " + g + " " + reason + " **\n");
+				return null;
+			}
+		}
+		RegisterTranslator translator = new RegisterTranslator(flow);
+		RegisterProgram p = translator.program;
+		int n = flow.getFunctions().size();
+		p.functions = flow.getFunctions().toArray(new GuestFunction[n]);
+		p.entry = new int[n];
+		p.frameSize = new int[n];
+		p.start = new int[n];
+		p.source = new int[p.op.length];
+		for(int f = 0; f < n; f++)
+		{
+			translator.index.put(p.functions[f], f);
+			p.frameSize[f] = frameSize(p.functions[f]);
+		}
+		for(int f = 0; f < n; f++)
+			translator.function(f);
+		return p;
+	}
+
+	/**
+	 * frameSize - the registers of a function: memory cells and one per stack depth
+	 */
+	private static int frameSize(GuestFunction f)
+	{
+		int depth = 0;
+		for(byte [] s : f.stacks)
+			if(s != null)
+				depth = Math.max(depth, s.length);
+		return f.params + f.locals + depth + 1;
+	}
+
+	/**
+	 * function - translates the basic blocks of a function, in the order of their addresses
+	 * @param f - the index of the function
+	 */
+	private void function(int f)
+	{
+		g = program.functions[f];
+		frame = program.frameSize[f];
+		stackBase = g.params + g.locals;
+		int n = code.length;
+		leader = new boolean[n + 1]; //a jump to n, or an entry at n, ends the program
+		address = new int[n + 1];
+		leader[g.entry] = true;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc))
+			{
+				int op = code[pc].getOpcode();
+				if(isCompare(op) || op == Instruction.GOTO)
+					leader[(int) code[pc].getValue()] = true;
+				if(pc == 0 || !g.isReachable(pc - 1) || endsBlock(pc - 1))
+					leader[pc] = true;
+			}
+		fixups.clear();
+		program.start[f] = program.length;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc) && leader[pc])
+				block(pc);
+		if(leader[n])
+		{
+			address[n] = program.length;
+			emit(RegisterProgram.HALT, 0, 0, 0, n);
+		}
+		for(int [] jump : fixups)
+			program.c[jump[0]] = address[jump[1]];
+		program.entry[f] = address[g.entry];
+	}
+
+	/**
+	 * block - translates the basic block that starts at an instruction
+	 * @param start - the address of the first instruction
+	 */
+	private void block(int start)
+	{
+		address[start] = blockStart = program.length;
+		byte [] entryStack = g.stack(start);
+		depth = 0;
+		for(int d = 0; d < entryStack.length; d++)
+			push(stackBase + d, entryStack[d]);
+		int n = code.length;
+		boolean exit = false;
+		for(int pc = start; !exit; pc++)
+		{
+			Instruction i = code[pc];
+			int op = i.getOpcode();
+			switch(op)
+			{
+			case Instruction.ICONST:
+				pushConstant((int) i.getValue());
+				break;
+			case Instruction.FCONST:
+				pushConstant((double) i.getValue());
+				break;
+			case Instruction.ILOAD:
+				push((int) i.getValue(), TypeFlow.INT);
+				break;
+			case Instruction.FLOAD:
+				push((int) i.getValue(), TypeFlow.DOUBLE);
+				break;
+			case Instruction.ISTORE:
+			case Instruction.FSTORE:
+				store(pc, (int) i.getValue());
+				break;
+			case Instruction.IADD:
+			case Instruction.ISUB:
+			case Instruction.IMUL:
+			case Instruction.IDIV:
+				intOperation(pc, op);
+				break;
+			case Instruction.FADD:
+			case Instruction.FSUB:
+			case Instruction.FMUL:
+			case Instruction.FDIV:
+			{
+				depth -= 2;
+				int x = materialize(depth, pc), y = materialize(depth + 1, pc);
+				emit(RegisterProgram.DADD + op - Instruction.FADD, stackBase + depth, x, y, pc);
+				push(stackBase + depth, TypeFlow.DOUBLE);
+				break;
+			}
+			case Instruction.INT_TO_FLOAT:
+				depth--;
+				if(register[depth] < 0)
+					pushConstant((double) intValue[depth]);
+				else
+				{
+					emit(RegisterProgram.I2D, stackBase + depth, register[depth], 0, pc);
+					push(stackBase + depth, TypeFlow.DOUBLE);
+				}
+				break;
+			case Instruction.ICMPEQ:
+			case Instruction.ICMPNE:
+			case Instruction.ICMPLT:
+			case Instruction.ICMPLE:
+			case Instruction.ICMPGT:
+			case Instruction.ICMPGE:
+			case Instruction.FCMPEQ:
+			case Instruction.FCMPNE:
+			case Instruction.FCMPLT:
+			case Instruction.FCMPLE:
+			case Instruction.FCMPGT:
+			case Instruction.FCMPGE:
+				compare(pc, op, (int) i.getValue());
+				exit = true;
+				break;
+			case Instruction.GOTO:
+				spill(pc);
+				jump(RegisterProgram.GOTO, 0, 0, (int) i.getValue(), pc);
+				exit = true;
+				break;
+			case Instruction.INVOKE:
+				exit = invoke(pc);
+				break;
+			case Instruction.RETURN:
+			case Instruction.IRETURN:
+			case Instruction.FRETURN:
+				emit(RegisterProgram.RET, depth == 0 ? -1 : materialize(--depth, pc), 0, 0, pc);
+				exit = true;
+				break;
+			case Instruction.PRINT:
+			{
+				int cell = (int) i.getValue();
+				byte mask = g.memory(pc)[cell];
+				emit(mask == TypeFlow.INT ? RegisterProgram.PRINTI : mask == TypeFlow.DOUBLE ? RegisterProgram.PRINTD :
+					RegisterProgram.PRINTN, cell, 0, 0, pc);
+				break;
+			}
+			default:
+				throw new IllegalStateException("TypeFlow accepted opcode " + op);
+			}
+			if(!exit && (pc + 1 >= n || leader[pc + 1])) //falls into the next block, which follows in the register form
+			{
+				spill(pc);
+				exit = true;
+			}
+			if(exit && pc + 1 >= n && !endsWithJump(pc)) //falling past the end ends the program
+				emit(RegisterProgram.HALT, 0, 0, 0, pc);
+		}
+	}
+
+	/**
+	 * store - translates istore or fstore
+	 * @param pc - the address of the store
+	 * @param cell - the memory cell written
+	 */
+	private void store(int pc, int cell)
+	{
+		int d = --depth;
+		int r = register[d];
+		save(cell, pc);
+		if(r < 0)
+		{
+			if(type[d] == TypeFlow.INT)
+				emit(RegisterProgram.ICONST, cell, intValue[d], 0, pc);
+			else
+				emitConstant(cell, doubleValue[d], pc);
+		}
+		else if(r != cell && (r < stackBase || !retarget(r, cell))) //a memory cell keeps its value
+			emit(RegisterProgram.MOVE, cell, r, 0, pc);
+	}
+
+	/**
+	 * retarget - makes the last instruction of the block write a memory cell instead of the
+	 * stack register it computed a value into. The stack register must be one no later
+	 * instruction reads, a memory cell written by the last instruction is not.
+	 * @return - true if it did
+	 */
+	private boolean retarget(int from, int to)
+	{
+		int last = program.length - 1;
+		if(last < blockStart)
+			return false;
+		int op = program.op[last];
+		if(op >= RegisterProgram.MOVE && op <= RegisterProgram.I2D && program.a[last] == from)
+		{
+			program.a[last] = to;
+			return true;
+		}
+		if(op == RegisterProgram.CALL && program.c[last] == from)
+		{
+			program.c[last] = to;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * intOperation - translates iadd, isub, imul or idiv. An operation on two constants is
+	 * folded, unless it divides by zero, which must fail when it runs.
+	 */
+	private void intOperation(int pc, int op)
+	{
+		depth -= 2;
+		int d = depth, dst = stackBase + d;
+		int x = register[d], y = register[d + 1];
+		int i = intValue[d], j = intValue[d + 1];
+		int k = op - Instruction.IADD;
+		if(x < 0 && y < 0 && (op != Instruction.IDIV || j != 0))
+		{
+			pushConstant(op == Instruction.IADD ? i + j : op == Instruction.ISUB ? i - j : op == Instruction.IMUL ? i * j : i / j);
+			return;
+		}
+		if(x >= 0 && y >= 0)
+			emit(RegisterProgram.IADD + k, dst, x, y, pc);
+		else if(x >= 0)
+			emit(RegisterProgram.IADDK + k, dst, x, j, pc);
+		else if(y >= 0 && (op == Instruction.IADD || op == Instruction.IMUL)) //the constant goes second
+			emit(RegisterProgram.IADDK + k, dst, y, i, pc);
+		else
+		{
+			emit(RegisterProgram.ICONST, dst, i, 0, pc);
+			if(y >= 0)
+				emit(RegisterProgram.IADD + k, dst, dst, y, pc);
+			else
+				emit(RegisterProgram.IADDK + k, dst, dst, j, pc);
+		}
+		push(dst, TypeFlow.INT);
+	}
+
+	/**
+	 * compare - translates a compare-jump, which ends a block. A comparison with a constant
+	 * first is turned around, and one of two constants is decided now.
+	 */
+	private void compare(int pc, int op, int target)
+	{
+		depth -= 2;
+		int d = depth;
+		spill(pc);
+		if(op >= Instruction.FCMPEQ)
+		{
+			int x = materialize(d, pc), y = materialize(d + 1, pc);
+			jump(RegisterProgram.DCMPEQ + op - Instruction.FCMPEQ, x, y, target, pc);
+			return;
+		}
+		int x = register[d], y = register[d + 1];
+		int k = op - Instruction.ICMPEQ;
+		if(x >= 0 && y >= 0)
+			jump(RegisterProgram.ICMPEQ + k, x, y, target, pc);
+		else if(x >= 0)
+			jump(RegisterProgram.ICMPEQK + k, x, intValue[d + 1], target, pc);
+		else if(y >= 0)
+			jump(RegisterProgram.ICMPEQK + mirror(op) - Instruction.ICMPEQ, y, intValue[d], target, pc);
+		else if(holds(op, intValue[d], intValue[d + 1]))
+			jump(RegisterProgram.GOTO, 0, 0, target, pc);
+	}
+
+	/**
+	 * holds - decides an integer comparison of two constants
+	 */
+	private static boolean holds(int op, int x, int y)
+	{
+		switch(op)
+		{
+		case Instruction.ICMPEQ: return x == y;
+		case Instruction.ICMPNE: return x != y;
+		case Instruction.ICMPLT: return x < y;
+		case Instruction.ICMPLE: return x <= y;
+		case Instruction.ICMPGT: return x > y;
+		default: return x >= y;
+		}
+	}
+
+	/**
+	 * mirror - the comparison with its operands swapped, i.e. k < x is x > k
+	 */
+	private static int mirror(int op)
+	{
+		switch(op)
+		{
+		case Instruction.ICMPLT: return Instruction.ICMPGT;
+		case Instruction.ICMPLE: return Instruction.ICMPGE;
+		case Instruction.ICMPGT: return Instruction.ICMPLT;
+		case Instruction.ICMPGE: return Instruction.ICMPLE;
+		default: return op;
+		}
+	}
+
+	/**
+	 * invoke - translates an invoke, a call or a jump to the entry for a self tail call
+	 * @param pc - the address of the invoke
+	 * @return - true if the invoke ends the block
+	 */
+	private boolean invoke(int pc)
+	{
+		GuestFunction callee = g.call(pc);
+		int params = callee.params;
+		depth -= params;
+		int d = depth;
+		if(flow.isTailJump(g, pc)) //the arguments are the whole stack, they become the parameters
+		{
+			for(int k = 0; k < params; k++) //a parameter that another parameter takes the place of is copied first
+				if(register[d + k] >= 0 && register[d + k] < params && register[d + k] != k)
+				{
+					emit(RegisterProgram.MOVE, stackBase + d + k, register[d + k], 0, pc);
+					register[d + k] = stackBase + d + k;
+				}
+			for(int k = 0; k < params; k++)
+				if(register[d + k] < 0)
+				{
+					if(type[d + k] == TypeFlow.INT)
+						emit(RegisterProgram.ICONST, k, intValue[d + k], 0, pc);
+					else
+						emitConstant(k, doubleValue[d + k], pc);
+				}
+				else if(register[d + k] != k)
+					emit(RegisterProgram.MOVE, k, register[d + k], 0, pc);
+			jump(RegisterProgram.GOTO, 0, 0, g.entry, pc);
+			return true;
+		}
+
+		int [] args = new int[params];
+		for(int k = 0; k < params; k++)
+			args[k] = materialize(d + k, pc);
+		boolean value = callee.result != null && callee.result.length == 1;
+		emit(RegisterProgram.CALL, index.get(callee), program.addArgs(frame, args), value ? stackBase + d : -1, pc);
+		if(value)
+			push(stackBase + d, callee.result[0]);
+		return callee.result == null; //never returns
+	}
+
+	/**
+	 * spill - moves the values left on the simulated stack to the register of their depth,
+	 * where the next block expects them
+	 */
+	private void spill(int pc)
+	{
+		for(int d = 0; d < depth; d++)
+			materialize(d, pc);
+	}
+
+	/**
+	 * save - copies the values on the simulated stack that name a memory cell about to be written
+	 * @param cell - the cell
+	 */
+	private void save(int cell, int pc)
+	{
+		for(int d = 0; d < depth; d++)
+			if(register[d] == cell)
+			{
+				emit(RegisterProgram.MOVE, stackBase + d, cell, 0, pc);
+				register[d] = stackBase + d;
+			}
+	}
+
+	/**
+	 * materialize - puts a value of the simulated stack in a register: constants are loaded
+	 * into the register of their depth, memory cells are moved there only for a spill
+	 * @param d - the depth of the value
+	 * @return - the register that holds it
+	 */
+	private int materialize(int d, int pc)
+	{
+		int r = register[d];
+		int home = stackBase + d;
+		if(r == home)
+			return r;
+		if(r < 0)
+		{
+			if(type[d] == TypeFlow.INT)
+				emit(RegisterProgram.ICONST, home, intValue[d], 0, pc);
+			else
+				emitConstant(home, doubleValue[d], pc);
+			register[d] = home;
+			return home;
+		}
+		if(d < depth) //still on the stack at the end of the block
+		{
+			emit(RegisterProgram.MOVE, home, r, 0, pc);
+			register[d] = home;
+			return home;
+		}
+		return r;
+	}
+
+	private void push(int r, byte t)
+	{
+		grow();
+		register[depth] = r;
+		type[depth++] = t;
+	}
+
+	private void pushConstant(int value)
+	{
+		grow();
+		register[depth] = -1;
+		intValue[depth] = value;
+		type[depth++] = TypeFlow.INT;
+	}
+
+	private void pushConstant(double value)
+	{
+		grow();
+		register[depth] = -1;
+		doubleValue[depth] = value;
+		type[depth++] = TypeFlow.DOUBLE;
+	}
+
+	private void grow()
+	{
+		if(depth < register.length)
+			return;
+		register = Arrays.copyOf(register, depth * 2);
+		intValue = Arrays.copyOf(intValue, depth * 2);
+		doubleValue = Arrays.copyOf(doubleValue, depth * 2);
+		type = Arrays.copyOf(type, depth * 2);
+	}
+
+	private void emit(int op, int x, int y, int z, int pc)
+	{
+		program.emit(op, x, y, z, 0.0, pc);
+	}
+
+	private void emitConstant(int r, double value, int pc)
+	{
+		program.emit(RegisterProgram.DCONST, r, 0, 0, value, pc);
+	}
+
+	/**
+	 * jump - emits an instruction that jumps to a stack address, patched once the function is done
+	 */
+	private void jump(int op, int x, int y, int target, int pc)
+	{
+		fixups.add(new int [] {program.emit(op, x, y, 0, 0.0, pc), target});
+	}
+
+	/**
+	 * endsWithJump - checks if the last instruction of a block never falls through
+	 */
+	private boolean endsWithJump(int pc)
+	{
+		int op = code[pc].getOpcode();
+		if(op == Instruction.INVOKE)
+			return flow.isTailJump(g, pc) || g.call(pc).result == null;
+		return op == Instruction.GOTO || TypeFlow.isReturn(op);
+	}
+
+	/**
+	 * endsBlock - checks if the instruction at an address is the last of its basic block
+	 */
+	private boolean endsBlock(int pc)
+	{
+		return isCompare(code[pc].getOpcode()) || endsWithJump(pc);
+	}
+
+	private static boolean isCompare(int op)
+	{
+		return op >= Instruction.ICMPEQ && op <= Instruction.FCMPGE;
+	}
+}
@@ -4,7 +4,7 @@ public class Return extends Instruction
 {
 	public Return()
 	{
-		
+		super(RETURN);
 	}
 	
 	public String print()
@@ -0,0 +1,47 @@
+package pack;
+
+/**
+ * Rewritten - an instruction put in place of another one so that it executes faster, i.e. a
+ * Quick, a CompiledInvoke or a TypedPrint. Only the opcode and the operands are new, the
+ * instruction replaced is kept, and the rewritten one prints and gives the value of it, so
+ * the program still prints the same way however many times it was rewritten.
+ */
+public abstract class Rewritten extends Instruction
+{
+	private final Instruction original;
+
+	/**
+	 * Rewritten constructor
+	 * @param op - the opcode of the new form
+	 * @param i - the instruction being replaced
+	 * @param a - the integer operand
+	 * @param b - the second integer operand
+	 * @param c - the third integer operand
+	 * @param d - the floating-point operand
+	 */
+	protected Rewritten(int op, Instruction i, int a, int b, int c, double d)
+	{
+		super(op, a, b, c, d);
+		original = i;
+	}
+
+	/**
+	 * getOriginal - accessor for the instruction this one replaces
+	 * @return - the original instruction
+	 */
+	public Instruction getOriginal()
+	{
+		return original;
+	}
+
+	public String print()
+	{
+		return original.print();
+	}
+
+	@Override
+	public Object getValue()
+	{
+		return original.getValue();
+	}
+}
@@ -0,0 +1,206 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Scheduler - runs the green threads of a guest program. spawn k1, k2, k3 starts the function
+ * at label k1 in a thread of its own, with the k2 arguments on top of the stack of operands as
+ * invoke would call it, and pushes the id of the thread. join waits until the thread whose id
+ * is on top of the stack has ended and pops the id. Threads share nothing but the Program:
+ * every one has the runtime stack, stack of operands and memo cache of a VM of its own, and
+ * what a spawned function returns is dropped. The program ends when all its threads have ended,
+ * the code at address 0, thread 0, included.
+ *
+ * Scheduling is cooperative and round robin. A thread runs for a time slice of vm.timeSlice
+ * dispatched instructions, or until it joins a thread that has not ended, and then goes to the
+ * back of the queue of ready threads, or waits for the thread it joins. Frame.run(slice) counts
+ * the slice and returns the frame to resume, so a switch costs a return and a call, and a thread
+ * costs a VM instead of a Java thread. A call to compiled code runs to its end within a slice.
+ * The ready threads are run by vm.carriers Java threads, 1 by default, the one executing the
+ * program, more to spread them over processors. A Runtime Error ends the thread it happens in,
+ * and when the threads left all wait in join for threads that cannot end, the program stops
+ * with a Runtime Error for the deadlock.
+ */
+public final class Scheduler
+{
+	private final VM vm; //the virtual machine of thread 0
+	private final ArrayList<GreenThread> threads = new ArrayList<GreenThread>(); //by id
+	private final ArrayDeque<GreenThread> ready = new ArrayDeque<GreenThread>();
+	private int running;		//threads a carrier is running
+	private int ended;			//threads that have ended
+	private long slices;		//time slices run
+	private Throwable failure;	//what a carrier threw, which stops all of them
+
+	/**
+	 * Scheduler constructor
+	 * @param v - the virtual machine whose program runs as thread 0
+	 */
+	Scheduler(VM v)
+	{
+		vm = v;
+	}
+
+	/**
+	 * run - runs a program until all its threads have ended
+	 * @param main - the main frame, on the runtime stack of the virtual machine of the scheduler
+	 */
+	void run(Frame main)
+	{
+		synchronized(this)
+		{
+			threads.add(new GreenThread(0, vm, main));
+			ready.add(threads.get(0));
+		}
+		Thread [] carriers = new Thread[Math.max(0, VM.carriers - 1)];
+		for(int k = 0; k < carriers.length; k++)
+		{
+			carriers[k] = new Thread(null, this::carry, "vm-carrier-" + (k + 1), VM.stackSize * 1024L * 1024L);
+			carriers[k].start();
+		}
+		carry();
+		for(Thread carrier : carriers)
+			try
+			{
+				carrier.join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		if(failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if(failure instanceof Error)
+			throw (Error) failure;
+		if(ended < threads.size())
+			System.out.println("Runtime Error: deadlock, " + (threads.size() - ended) + 
+					" thread(s) wait in join for threads that never end");
+	}
+
+	/**
+	 * spawn - starts a thread, as the spawn instruction of another one
+	 * @param parent - the virtual machine of the thread that spawns it, its arguments are popped
+	 * @param entry - the address of the function
+	 * @param params - the number of parameters
+	 * @param locals - the number of local variables
+	 * @return - the id of the new thread
+	 */
+	int spawn(VM parent, int entry, int params, int locals)
+	{
+		VM child = parent.child();
+		child.scheduler = this;
+		Frame first = child.runtimeStack.push(entry, params + locals, 0, null);
+		parent.operandStack.transferTo(child.runtimeStack.slots, child.runtimeStack.tags, first.base, params);
+		synchronized(this)
+		{
+			GreenThread thread = new GreenThread(threads.size(), child, first);
+			threads.add(thread);
+			ready.add(thread);
+			notifyAll();
+			return thread.id;
+		}
+	}
+
+	/**
+	 * thread - finds a thread by its id
+	 * @param id - the id, as spawn pushed it
+	 * @return - the thread, null if no thread has the id
+	 */
+	synchronized GreenThread thread(int id)
+	{
+		return id >= 0 && id < threads.size() ? threads.get(id) : null;
+	}
+
+	/**
+	 * carry - runs the ready threads a time slice at a time until none is left
+	 */
+	private void carry()
+	{
+		GreenThread thread = null;
+		Frame top = null;
+		while(true)
+		{
+			synchronized(this)
+			{
+				if(thread != null)
+					reschedule(thread, top);
+				while(ready.isEmpty() && running > 0 && failure == null)
+					try
+					{
+						wait();
+					}
+					catch(InterruptedException e)
+					{
+						failure = new IllegalStateException("a carrier of the green threads was interrupted", e);
+					}
+				if(ready.isEmpty() || failure != null)
+				{
+					notifyAll();
+					return;
+				}
+				thread = ready.poll();
+				running++;
+				slices++;
+			}
+			try
+			{
+				top = thread.top.run(VM.timeSlice);
+			}
+			catch(RuntimeException | Error e) //i.e. a division by zero, it stops the program as without threads
+			{
+				synchronized(this)
+				{
+					failure = failure == null ? e : failure;
+				}
+				top = null;
+			}
+		}
+	}
+
+	/**
+	 * reschedule - queues a thread after its time slice, or ends it, with the lock held
+	 * @param thread - the thread
+	 * @param top - the frame it goes on with, null if it has ended
+	 */
+	private void reschedule(GreenThread thread, Frame top)
+	{
+		running--;
+		if(top == null)
+		{
+			thread.done = true;
+			thread.vm = null;
+			thread.top = null;
+			ended++;
+			ready.addAll(thread.joiners);
+			thread.joiners.clear();
+		}
+		else
+		{
+			thread.top = top;
+			GreenThread target = thread.joining(this);
+			if(target != null && !target.done)
+				target.joiners.add(thread);
+			else
+				ready.add(thread);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * getThreads - the number of threads the program ran
+	 * @return - the number of threads, thread 0 included
+	 */
+	public synchronized int getThreads()
+	{
+		return threads.size();
+	}
+
+	/**
+	 * getSlices - the number of time slices the threads ran for
+	 * @return - the number of times a carrier resumed a thread
+	 */
+	public synchronized long getSlices()
+	{
+		return slices;
+	}
+}
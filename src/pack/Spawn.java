@@ -0,0 +1,39 @@
+package pack;
+
+import java.util.Map;
+
+/**
+ * Spawn - starts a green thread, see Scheduler.java. Like invoke it names the label of a
+ * function, its number of parameters and its number of local variables, and pops the
+ * arguments, but the function runs in a runtime stack and stack of operands of its own while
+ * the caller goes on, with the id of the new thread pushed in place of a result. The operands
+ * are kept as primitives from the start, spawn has no Quick form.
+ */
+public class Spawn extends Instruction
+{
+	private final int a, b, c;
+
+	public Spawn(int i, int j, int k)
+	{
+		super(SPAWN, i, j, k, 0.0);
+		a = i;
+		b = j;
+		c = k;
+	}
+
+	public String print()
+	{
+		return "spawn " + a + ", " + b + ", " + c;
+	}
+
+	public Spawn refract(Map<Integer, Integer> labels)
+	{
+		return new Spawn(labels.get(a), b, c);
+	}
+
+	@Override
+	public Object getValue() 
+	{
+		return new Integer [] {a,b,c};
+	}
+}
@@ -1,5 +1,7 @@
 package pack;
 
+import java.util.Arrays;
+
 
 /************************************************************************************
  *
@@ -74,10 +76,12 @@ public enum State
 	ireturn,  
 	freturn,			// ...
 	print,				// 32
+	spawn,				// 33
+	join,				// 34
 
 	// Undefined: Used to indicate invalid undefined transitions
 	//  **** MUST BE LAST IN ENUM **** for checkFunction() to work properly
-	UNDEF;				// 33           
+	UNDEF;				// 35           
 
 	/**
 	 * checkFunction - validates that an ID is a valid operator
@@ -86,36 +90,63 @@ public enum State
 	 */
 	public static State checkFunction(String str) 
 	{
-		if (str.equals("goto")) // special case due to 'goto' being reserved
-			return State.Goto;
-		else if (str.equals("return")) // special case due to 'return' being reserved
-			return State.Return;
-		for (int i = State.iconst.ordinal(); i < State.UNDEF.ordinal(); i++) 
-		{
-			if (State.values()[i].name().equals(str))  // compares the State in enum to current state
-				return State.values()[i];
-		}
-		return null;
+		return checkFunction(str.toCharArray(), 0, str.length());
+	}
+
+	/**
+	 * checkFunction - validates that a range of characters is a valid operator, without making
+	 * a String of it: the characters select a slot of the perfect hash table of the mnemonics,
+	 * and only the mnemonic in that slot is compared with them
+	 * @param text - the characters, i.e. the buffer of Stream
+	 * @param start - the index of the first character
+	 * @param length - the number of characters
+	 * @return - the operator, null if the characters are not a mnemonic
+	 */
+	public static State checkFunction(char [] text, int start, int length)
+	{
+		if (length < 4 || length > MAX_MNEMONIC) // shorter than goto or longer than intToFloat
+			return null;
+		int slot = slot(text[start], text[start + length - 2], text[start + length - 1], length, multiplier);
+		char [] mnemonic = HASHED[slot];
+		if (mnemonic == null || mnemonic.length != length)
+			return null;
+		for (int k = 0; k < length; k++)
+			if (mnemonic[k] != text[start + k])
+				return null;
+		return HASHED_STATES[slot];
+	}
+
+	/**
+	 * mnemonic - the text of an operator state, i.e. "goto" for Goto
+	 * @param operator - a state from iconst to join
+	 * @return - the mnemonic, the same String every time
+	 */
+	public static String mnemonic(State operator)
+	{
+		return MNEMONICS[operator.ordinal()];
 	}
 	/**
 	 * isFinal - compares the ordinal value of current state and first invalid state. If
 	 * current state >= first final state: returns true; false otherwise.
-	 * @param state
+	 * An Id is the token the lexer is scanning, from mark to position in its Stream.
+	 * @param lexer - the lexer, its state becomes the operator an Id spells or UNDEF
 	 * @return
 	 */
-	public static boolean isFinal(State state)
+	public static boolean isFinal(LexVM lexer)
 	{
+		State state = lexer.state;
 		if(state.equals(State.Id)) //case ID : check for valid  operator names
 		{	
-			State st = checkFunction(LexVM.tokens); //checks for a valid ID for operator  
+			Stream s = lexer.stream;
+			State st = checkFunction(s.buffer, s.mark, s.position - s.mark); //checks the ID scanned for a valid operator
 			if(st == null) // there is not a matching operator
 			{
-				LexVM.state = State.UNDEF; // indicate an invalid  transition for ID, i.e (ID) -> (digit) transition i.e: fstore84
+				lexer.state = State.UNDEF; // indicate an invalid  transition for ID, i.e (ID) -> (digit) transition i.e: fstore84
 				return false;
 			}
 			else //there is a matching operator
 			{
-				LexVM.state = st;
+				lexer.state = st;
 				return true;
 			}
 		} //for all other, compare state ordinal to ID ordinal
@@ -123,6 +154,138 @@ public enum State
 	}
 
 
+	//classes of characters, the columns of TRANSITIONS
+	static final int OTHER = 0;	 //no transition on it
+	static final int LETTER = 1; //Character.isLetter(), except e and E
+	static final int EXP = 2;	 //e or E, a letter that also starts the exponent of a float
+	static final int DIGIT = 3;	 //Character.isDigit()
+	static final int PLUS = 4;
+	static final int MINUS = 5;
+	static final int COLON = 6;
+	static final int COMMA = 7;
+	static final int PERIOD = 8;
+	static final int SPACE = 9;	 //Character.isWhitespace(), no transition on it either
+
+	static final State [] VALUES = values(); //the states by ordinal, cloned once
+
+	//the class of every char, precomputed so the lexer does not call Character.isX per character
+	static final byte [] CLASSES = new byte[Character.MAX_VALUE + 1];
+
+	//the DFA: the ordinal of the next state indexed by [ordinal of the state][class of the character],
+	//the ordinal of UNDEF if the transition is undefined
+	static final byte [][] TRANSITIONS = new byte[VALUES.length][SPACE + 1];
+
+	static
+	{
+		for(int c = 0; c <= Character.MAX_VALUE; c++)
+		{
+			char ch = (char) c;
+			if(ch == 'e' || ch == 'E')
+				CLASSES[c] = EXP;
+			else if(Character.isLetter(ch))
+				CLASSES[c] = LETTER;
+			else if(Character.isDigit(ch))
+				CLASSES[c] = DIGIT;
+			else if(Character.isWhitespace(ch))
+				CLASSES[c] = SPACE;
+		}
+		CLASSES['+'] = PLUS;
+		CLASSES['-'] = MINUS;
+		CLASSES[':'] = COLON;
+		CLASSES[','] = COMMA;
+		CLASSES['.'] = PERIOD;
+
+		for(byte [] row : TRANSITIONS)
+			Arrays.fill(row, (byte) UNDEF.ordinal());
+		transition(Start, Id, LETTER, EXP);
+		transition(Start, UnsignedInt, DIGIT);
+		transition(Start, Plus, PLUS);
+		transition(Start, Minus, MINUS);
+		transition(Start, Colon, COLON);
+		transition(Start, Comma, COMMA);
+		transition(Start, Period, PERIOD);
+		//to parse consecutive valid operators, i.e. iconstimul as iconst imul, an Id followed by a letter
+		//would have to end when it is already an operator. It does not, to pass input2.txt with 'fconstt',
+		//which would otherwise be parsed as a valid 'fconst' and a lexical error for 't'
+		transition(Id, Id, LETTER, EXP);
+		transition(UnsignedInt, UnsignedInt, DIGIT);
+		transition(UnsignedInt, Float, PERIOD);
+		transition(Period, Float, DIGIT);
+		transition(Float, Float, DIGIT);
+		transition(Float, E, EXP);
+		transition(E, FloatE, DIGIT);
+		transition(E, EPlusMinus, PLUS, MINUS);
+		transition(EPlusMinus, FloatE, DIGIT);
+		transition(FloatE, FloatE, DIGIT);
+		transition(Plus, Period, PERIOD);
+		transition(Plus, SignedInt, DIGIT);
+		transition(Minus, SignedInt, DIGIT);
+		transition(Minus, Period, PERIOD);
+		transition(SignedInt, SignedInt, DIGIT);
+		transition(SignedInt, Float, PERIOD);
+	}
+
+	//the mnemonic of every operator state by ordinal, goto and return are upper case in the enum
+	private static final String [] MNEMONICS = new String[VALUES.length];
+	private static final int MAX_MNEMONIC = "intToFloat".length();
+
+	//perfect hash table of the mnemonics, built once: every mnemonic has a slot of its own
+	private static final int SLOTS = 128;
+	private static final String [] ALIASES = {"Goto", "Return"}; //the names in the enum are accepted too
+	private static final char [][] HASHED = new char[SLOTS][];
+	private static final State [] HASHED_STATES = new State[SLOTS];
+	private static int multiplier; //the multiplier of slot() that separates all of them
+
+	static
+	{
+		for (int i = iconst.ordinal(); i < UNDEF.ordinal(); i++)
+			MNEMONICS[i] = VALUES[i].name();
+		MNEMONICS[Goto.ordinal()] = "goto";	   // special case due to 'goto' being reserved
+		MNEMONICS[Return.ordinal()] = "return"; // special case due to 'return' being reserved
+
+		//the length and the first and last two characters tell the mnemonics apart, look for a
+		//multiplier that hashes them without collisions
+		for (multiplier = 0x9E3779B1; ; multiplier += 2)
+		{
+			Arrays.fill(HASHED, null);
+			boolean collision = false;
+			for (int i = iconst.ordinal(); i <= UNDEF.ordinal() + ALIASES.length && !collision; i++)
+			{
+				if (i == UNDEF.ordinal())
+					continue;
+				char [] m = (i < UNDEF.ordinal() ? MNEMONICS[i] : ALIASES[i - UNDEF.ordinal() - 1]).toCharArray();
+				int slot = slot(m[0], m[m.length - 2], m[m.length - 1], m.length, multiplier);
+				collision = HASHED[slot] != null;
+				HASHED[slot] = m;
+				HASHED_STATES[slot] = i < UNDEF.ordinal() ? VALUES[i] : valueOf(ALIASES[i - UNDEF.ordinal() - 1]);
+			}
+			if (!collision)
+				break;
+		}
+	}
+
+	/**
+	 * slot - the perfect hash function of the mnemonics
+	 * @return - a slot of HASHED
+	 */
+	private static int slot(char first, char penultimate, char last, int length, int multiplier)
+	{
+		int h = ((first * 31 + penultimate) * 31 + last) * 31 + length;
+		return (h * multiplier) >>> 25; // the top 7 bits, SLOTS is 128
+	}
+
+	/**
+	 * transition - adds the transitions of a state on classes of characters to TRANSITIONS
+	 * @param from - the current state
+	 * @param to - the next state
+	 * @param classes - the classes of characters
+	 */
+	private static void transition(State from, State to, int... classes)
+	{
+		for(int c : classes)
+			TRANSITIONS[from.ordinal()][c] = (byte) to.ordinal();
+	}
+
 	/**
 	 * Returns the next state of the DFA given the current state and input char;
 	 * if the next state is undefined, UNDEF is returned.
@@ -132,103 +295,6 @@ public enum State
 	 */
 	public static State nextState(State state, char c)
 	{
-		switch(state)
-		{
-		case Start:
-			if ( Character.isLetter(c) )
-				return State.Id;
-			else if ( Character.isDigit(c) )
-				return State.UnsignedInt;
-			else if ( c == '+' )
-				return State.Plus;
-			else if ( c == '-' )
-				return State.Minus;
-			else if ( c == ':' )
-				return State.Colon;
-			else if (c == ',')
-				return State.Comma;
-			else if (c == '.')
-				return State.Period;
-			else
-				return State.UNDEF;
-
-		case Id:
-			if (Character.isLetter(c)) //checks for a valid operator
-			{
-				/*State st = checkFunction(LexVM.tokens + c);
-				if(st != null)
-					return st;*/ //uncommenting this block will allow for parsing of consecutive valid operators
-								  // it was commented off to pass input2.txt test for 'fconstt'
-								  // uncommenting would parse 'fconst' as valid and 't' as lexical error.
-								  // all other provided test input pass with the above uncommented
-								  // NOTE: to pass input8.txt to match expected8.txt, this block MUST be uncommented
-				return State.Id;
-			}				
-			else
-				return State.UNDEF;
-
-		case UnsignedInt:
-			if (Character.isDigit(c))
-				return State.UnsignedInt;
-			else if ( c == '.' )
-				return State.Float;
-			else
-				return State.UNDEF;
-
-		case Period:
-			if (Character.isDigit(c))
-				return State.Float;
-			else
-				return State.UNDEF;
-
-		case Float:
-			if ( Character.isDigit(c) )
-				return State.Float;
-			else if ( c == 'e' || c == 'E' )
-				return State.E;
-			else
-				return State.UNDEF;
-		case E:
-			if ( Character.isDigit(c) )
-				return State.FloatE;
-			else if ( c == '+' || c == '-' )
-				return State.EPlusMinus;
-			else
-				return State.UNDEF;
-		case EPlusMinus:
-			if ( Character.isDigit(c) )
-				return State.FloatE;
-			else
-				return State.UNDEF;
-		case FloatE:
-			if ( Character.isDigit(c) )
-				return State.FloatE;
-			else
-				return State.UNDEF;
-		case Plus:
-			if(c == '.')
-				return State.Period;
-			else if (Character.isDigit(c))
-				return State.SignedInt;
-			else 
-				return State.UNDEF;
-		case Minus:
-			if(Character.isDigit(c))
-				return State.SignedInt;
-			else if (c == '.')
-				return State.Period;
-			else 
-				return State.UNDEF;
-
-		case SignedInt:
-			if(Character.isDigit(c))
-				return State.SignedInt;
-			else if (c == '.')
-				return State.Float;
-			else 
-				return State.UNDEF;
-		default:
-			return State.UNDEF;
-		}
+		return VALUES[TRANSITIONS[state.ordinal()][CLASSES[c]]];
 	}
 }
@@ -1,19 +1,31 @@
 package pack;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Scanner;
 
 
 /************************************************************************************
  * class Stream - this class was edited from the javaIO so it can accept the files 
  * for input and output in the constructor. Stream class uses the input file to read
- * characters and send to the LexVM class representation of a DFA. Description of
- * the methods can be found below.
+ * characters and send to the LexVM class representation of a DFA. The input file is
+ * mapped into memory with FileChannel.map and decoded in blocks straight from the mapping
+ * into a char buffer that LexVM scans in place, so a token is a range of the buffer, no
+ * String is built while it is scanned and no call is made per character. The line and
+ * column of a token are counted only when an error message asks for them. Every VM opens
+ * a Stream of its own, so several programs can be lexed at once on different threads.
+ * Description of the methods can be found below.
  *************************************************************************************
  *
  *   @author ProfessorYukawa - Edited by VagnerMachado - QCID 23651127 - Fall 2019
@@ -21,25 +33,34 @@ import java.util.Scanner;
  *************************************************************************************
  */
 
-public abstract class Stream 
+public class Stream 
 {
-	public static BufferedReader inStream; // input stream
-	public static PrintWriter outStream;   // output stream
-	public static int intToken;            // the integer value of the character read in
-	public static char charToken;          // used to convert the variable "intToken" to the char type whenever necessary
-	private static boolean available; //stream open/close status
+	public ByteBuffer inStream;		   // input file, mapped into memory
+	public PrintWriter outStream;	   // output stream
+	private CharsetDecoder decoder;	   // decodes inStream in the default charset, as a FileReader would
+	char [] buffer = new char[1 << 16]; // characters decoded from the input, scanned in place by LexVM
+	int position;					   // index of the next character to be scanned
+	int limit;						   // number of characters in the buffer
+	int mark;						   // index of the first character of the token being scanned
+	private int lines;				   // line breaks in the characters dropped from the front of the buffer
+	private int column;				   // characters after the last of them
+	private boolean available; //stream open/close status
 	/**
-	 * setStream - Initialized an input stream and an output stream based on parameters
+	 * Stream constructor - Initialized an input stream and an output stream based on parameters
 	 * @param input -  the file name used as input
 	 * @param output - the file name used as output
 	 */
-	public static void setStream(String input, String output)
+	public Stream(String input, String output)
 	{
 		try
 		{
-			inStream = new BufferedReader(new FileReader(input));
+			try(FileChannel channel = FileChannel.open(Paths.get(input), StandardOpenOption.READ))
+			{
+				inStream = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			decoder = Charset.defaultCharset().newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
 			outStream = new PrintWriter(new FileWriter(output));
-			intToken = inStream.read();
 		} catch (IOException e) {
 			System.out.println("Error Opening File in Stream class Constructor");
 			e.printStackTrace();
@@ -47,27 +68,103 @@ public abstract class Stream
 		available = true;
 	}
 	
-	public  static boolean IsStreamAvailable()
+	public boolean IsStreamAvailable()
 	{
 		return available;
 	}
 
 	/**
-	 * getNextChar - returns the next character in the input stream as integer
-	 * @return - the next character as integer in the input stream or  -1 if end of file reached
+	 * fill - decodes the next block of the input file into the buffer, once all of its characters
+	 * were scanned. The characters of the token being scanned, from mark on, are moved to the
+	 * front of the buffer first, and the buffer doubles when that token fills all of it.
+	 * @return - false if end-of-stream is reached
 	 */
-	public static int getNextChar()
+	boolean fill()
 	{
-		try
+		if(inStream == null) //closed
+			return false;
+		if(mark > 0)
 		{
-			return inStream.read();
+			for(int k = 0; k < mark; k++) //keep the line and column of buffer[0]
+				if(buffer[k] == '\n')
+				{
+					lines++;
+					column = 0;
+				}
+				else
+					column++;
+			System.arraycopy(buffer, mark, buffer, 0, limit - mark);
+			limit -= mark;
+			position -= mark;
+			mark = 0;
 		}
-		catch(IOException e)
+		if(limit == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		CharBuffer out = CharBuffer.wrap(buffer, limit, buffer.length - limit);
+		if(inStream.hasRemaining())
 		{
-			System.out.println("Error calling getNextChar() in Stream class");
-			e.printStackTrace();
-			return -1;
+			decoder.decode(inStream, out, true); //the whole file is mapped, its end is the end of input
+			if(!inStream.hasRemaining())
+				decoder.flush(out);
 		}
+		if(out.position() == limit)
+			return false;
+		limit = out.position();
+		return true;
+	}
+
+	/**
+	 * at - the position of the token scanned, for error messages
+	 * @return - i.e. " at line 3, column 7"
+	 */
+	public String at()
+	{
+		int line = lines + 1, col = column + 1;
+		for(int k = 0; k < mark && k < limit; k++)
+			if(buffer[k] == '\n')
+			{
+				line++;
+				col = 1;
+			}
+			else
+				col++;
+		return " at line " + line + ", column " + col;
+	}
+
+	/**
+	 * token - the characters of the token scanned, from mark to position
+	 * @return - the token as a String
+	 */
+	String token()
+	{
+		return new String(buffer, mark, position - mark);
+	}
+
+	/**
+	 * isToken - compares the characters of the token scanned with a String
+	 * @param s - the String
+	 * @return - true if they are the same
+	 */
+	boolean isToken(String s)
+	{
+		if(s.length() != position - mark)
+			return false;
+		for(int k = 0; k < s.length(); k++)
+			if(s.charAt(k) != buffer[mark + k])
+				return false;
+		return true;
+	}
+
+	/**
+	 * getNextChar - returns the next character in the input stream as integer
+	 * @return - the next character as integer in the input stream or  -1 if end of file reached
+	 */
+	public int getNextChar()
+	{
+		mark = position;
+		if(position == limit && !fill())
+			return -1;
+		return buffer[position++];
 	}
 
 
@@ -75,7 +172,7 @@ public abstract class Stream
 	 * getChar - Returns the next non-whitespace character as integer on the input stream. 
 	 * @return -1 if end-of-stream or the next char if exists
 	 */
-	public static int getChar()
+	public int getChar()
 	{
 		int i = getNextChar();
 		while ( Character.isWhitespace((char)i) )
@@ -87,7 +184,7 @@ public abstract class Stream
 	 * display - overloaded method prints a character to output file
 	 * @param s - the integer value of character to be printed
 	 */
-	public static void display(int s)
+	public void display(int s)
 	{
 		outStream.print((char)s);
 	}
@@ -96,7 +193,7 @@ public abstract class Stream
 	 * display - overloaded method prints a character to output file
 	 * @param s - the integer value of character to be printed
 	 */
-	public static void display(String s)
+	public void display(String s)
 	{
 		outStream.print(s);
 	}
@@ -105,7 +202,7 @@ public abstract class Stream
 	 * displayln - prints a string to output file then ends the line
 	 * @param s - the string to be printed to output file
 	 */
-	public static void displayln(String s)
+	public void displayln(String s)
 	{
 		outStream.println(s);
 	}
@@ -113,18 +210,11 @@ public abstract class Stream
 	/**
 	 * close - closes the input and output files
 	 */
-	public static void close()
+	public void close()
 	{
-		try
-		{
-			inStream.close();
+		inStream = null; //the mapping is released when it is collected
+		if(outStream != null)
 			outStream.close();
-		}
-		catch(IOException e)
-		{
-			System.out.println("Error calling close() in Stream class");
-			e.printStackTrace();
-		}
 		available = false;
 	}
 
@@ -0,0 +1,116 @@
+package pack;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Subtask - the first call of a pair of invokes the loader runs in parallel, see
+ * Parallelizer.java, forked to a ForkJoinPool of vm.parallelism workers shared by all the
+ * executions of the JVM. The call runs in a VM of its own, with its own runtime stack, stack
+ * of operands and memo cache, on the shared Program, while the caller goes on with the second
+ * call in its own frame chain and joins the subtask when that call returns. The subtask's
+ * own pairs fork again, so a divide-and-conquer program spreads over the workers by itself.
+ *
+ * A call is only forked while the pool needs work: on a worker while it has fewer than
+ * SURPLUS tasks queued that no other worker has stolen yet, elsewhere while fewer calls wait
+ * for a worker than there are workers. Every other call runs in the frame chain of its caller
+ * like any invoke, so the cost of a VM is paid by few and large calls.
+ *
+ * A subtask prints nothing, its function is pure. The Runtime Error that stops it is kept and
+ * reported by the VM that joins it, and its frames count towards vm.maxCallDepth on top of the
+ * frames of the calls that forked it, so a program stops where it would with nothing forked.
+ * The workers have the thread stack the JVM gives any thread, -Xss, not vm.stackSize.
+ */
+final class Subtask extends RecursiveTask<Long>
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int SURPLUS = 3; //tasks a worker keeps queued for the others to steal
+
+	private static ForkJoinPool pool; //made by the first fork
+
+	private final VM vm; //the virtual machine of the call
+	private final Frame first;
+
+	/**
+	 * Subtask constructor - the frame of the call, its arguments popped from the caller
+	 * @param parent - the virtual machine of the caller
+	 * @param entry - the address of the function
+	 * @param params - the number of parameters
+	 * @param locals - the number of local variables
+	 */
+	private Subtask(VM parent, int entry, int params, int locals)
+	{
+		vm = parent.child();
+		vm.subtask = true;
+		vm.callerDepth = parent.callerDepth + parent.runtimeStack.size();
+		first = vm.runtimeStack.push(entry, params + locals, 0, null);
+		parent.operandStack.transferTo(vm.runtimeStack.slots, vm.runtimeStack.tags, first.base, params);
+	}
+
+	/**
+	 * fork - starts the call of a ForkInvoke in a subtask, if the pool needs work
+	 * @param parent - the virtual machine of the caller, whose arguments are popped on a fork
+	 * @param entry - the address of the function
+	 * @param params - the number of parameters
+	 * @param locals - the number of local variables
+	 * @return - the subtask, null if the call is left to the caller
+	 */
+	static Subtask fork(VM parent, int entry, int params, int locals)
+	{
+		if(parent.callerDepth + parent.runtimeStack.size() >= VM.maxCallDepth) //the caller reports it
+			return null;
+		ForkJoinPool p = pool();
+		boolean worker = ForkJoinTask.getPool() == p;
+		if(worker ? ForkJoinTask.getSurplusQueuedTaskCount() >= SURPLUS : p.getQueuedSubmissionCount() >= p.getParallelism())
+			return null;
+		Subtask task = new Subtask(parent, entry, params, locals);
+		if(worker)
+			task.fork();
+		else
+			p.execute(task);
+		return task;
+	}
+
+	/**
+	 * pool - the pool of workers, made on the first call
+	 * @return - the pool
+	 */
+	private static synchronized ForkJoinPool pool()
+	{
+		if(pool == null)
+			pool = new ForkJoinPool(VM.parallelism);
+		return pool;
+	}
+
+	/**
+	 * compute - runs the call to its return
+	 * @return - the int, or the raw bits of the double, it returns, null if a Runtime Error
+	 * stopped it
+	 */
+	@Override
+	protected Long compute()
+	{
+		first.run();
+		return vm.runtimeStack.size() == 0 ? vm.operandStack.slot(0) : null;
+	}
+
+	/**
+	 * getError - accessor for the Runtime Error that stopped the call
+	 * @return - the error, null if the call returned
+	 */
+	String getError()
+	{
+		return vm.error;
+	}
+
+	/**
+	 * getForks - the subtasks forked by the call, its own included
+	 * @return - the number of calls forked, valid once the subtask is done
+	 */
+	long getForks()
+	{
+		return vm.forks + 1;
+	}
+}
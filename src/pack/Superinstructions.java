@@ -0,0 +1,274 @@
+package pack;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Scanner;
+import java.util.Set;
+
+/**
+ * Superinstructions - fuses frequent sequences of instructions into single Fused instructions.
+ * The pass runs over the instruction array after the jump targets are retargeted. A sequence is
+ * fused only if none of its instructions but the first is a label in VM.jumpMap, so every jump
+ * still lands on the start of a sequence. The fused forms and their operands are:
+ *
+ *		PATTERN						SEQUENCE						OPERANDS
+ *		iload_iload_iarith			iload a; iload b; iadd|isub|imul	a, b
+ *		iload_iconst_iarith			iload a; iconst k; iadd|isub		a, k
+ *		iload_iconst_iadd_istore	iload a; iconst k; iadd; istore c	a, k, c
+ *		fload_fload_farith			fload a; fload b; fadd|fsub|fmul|fdiv	a, b
+ *		iload_iconst_icmp			iload a; iconst k; icmp?? L		a, k, L
+ *		iload_iload_icmp			iload a; iload b; icmp?? L		a, b, L
+ *
+ * The patterns to fuse are configurable by name, or they can be derived from a profile of
+ * the opcode pairs executed by an earlier run, see fromProfile() and writeProfile().
+ */
+public final class Superinstructions
+{
+	//the catalog of patterns, each position of a shape lists the opcodes it matches, longest first
+	public static final String [] PATTERNS = { "iload_iconst_iadd_istore", "iload_iload_iarith", 
+			"iload_iconst_iarith", "fload_fload_farith", "iload_iconst_icmp", "iload_iload_icmp" };
+	private static final int [][][] SHAPES = {
+			{ {Instruction.ILOAD}, {Instruction.ICONST}, {Instruction.IADD}, {Instruction.ISTORE} },
+			{ {Instruction.ILOAD}, {Instruction.ILOAD}, {Instruction.IADD, Instruction.ISUB, Instruction.IMUL} },
+			{ {Instruction.ILOAD}, {Instruction.ICONST}, {Instruction.IADD, Instruction.ISUB} },
+			{ {Instruction.FLOAD}, {Instruction.FLOAD}, {Instruction.FADD, Instruction.FSUB, Instruction.FMUL, Instruction.FDIV} },
+			{ {Instruction.ILOAD}, {Instruction.ICONST}, {Instruction.ICMPEQ, Instruction.ICMPNE, Instruction.ICMPLT, 
+				Instruction.ICMPLE, Instruction.ICMPGT, Instruction.ICMPGE} },
+			{ {Instruction.ILOAD}, {Instruction.ILOAD}, {Instruction.ICMPEQ, Instruction.ICMPNE, Instruction.ICMPLT, 
+				Instruction.ICMPLE, Instruction.ICMPGT, Instruction.ICMPGE} } };
+
+	private static final int OPS = Instruction.MNEMONICS.length;
+
+	/**
+	 * fuse - replaces the first instruction of every matching sequence with a Fused instruction
+	 * @param code - the instruction array
+	 * @param length - the number of instructions in the array
+	 * @param labels - the addresses jumps may land on, the values of VM.jumpMap
+	 * @param patterns - the names of the patterns to fuse
+	 * @return - the number of superinstructions created
+	 */
+	public static int fuse(Instruction [] code, int length, Collection<Integer> labels, Set<String> patterns)
+	{
+		boolean [] label = new boolean[length];
+		for(int address : labels)
+			if(address < length)
+				label[address] = true;
+
+		int count = 0;
+		for(int pc = 0; pc < length; pc++)
+		{
+			for(int p = 0; p < PATTERNS.length; p++)
+			{
+				int [][] shape = SHAPES[p];
+				if(patterns.contains(PATTERNS[p]) && matches(code, length, label, pc, shape))
+				{
+					Instruction [] seq = new Instruction[shape.length];
+					System.arraycopy(code, pc, seq, 0, shape.length);
+					code[pc] = build(p, seq);
+					count++;
+					pc += shape.length - 1;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * matches - checks if the sequence starting at pc has the given shape and no label inside
+	 */
+	private static boolean matches(Instruction [] code, int length, boolean [] label, int pc, int [][] shape)
+	{
+		if(pc + shape.length > length)
+			return false;
+		for(int k = 0; k < shape.length; k++)
+		{
+			if(k > 0 && label[pc + k])
+				return false;
+			boolean found = false;
+			for(int op : shape[k])
+				found |= code[pc + k].getOpcode() == op;
+			if(!found)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * build - creates the Fused instruction for a matched sequence of pattern p
+	 */
+	private static Fused build(int p, Instruction [] seq)
+	{
+		int a = (int) seq[0].getValue();
+		int last = seq[2].getOpcode();
+		switch(PATTERNS[p])
+		{
+		case "iload_iconst_iadd_istore":
+			return new Fused(Instruction.ILOAD_ICONST_IADD_ISTORE, seq, a, (int) seq[1].getValue(), (int) seq[3].getValue());
+		case "iload_iload_iarith":
+			return new Fused(Instruction.ILOAD_ILOAD_IADD + last - Instruction.IADD, seq, a, (int) seq[1].getValue(), 0);
+		case "iload_iconst_iarith":
+			return new Fused(Instruction.ILOAD_ICONST_IADD + last - Instruction.IADD, seq, a, (int) seq[1].getValue(), 0);
+		case "fload_fload_farith":
+			return new Fused(Instruction.FLOAD_FLOAD_FADD + last - Instruction.FADD, seq, a, (int) seq[1].getValue(), 0);
+		case "iload_iconst_icmp":
+			return new Fused(Instruction.ILOAD_ICONST_ICMPEQ + last - Instruction.ICMPEQ, seq, a, (int) seq[1].getValue(), 
+					(int) seq[2].getValue());
+		default: //iload_iload_icmp
+			return new Fused(Instruction.ILOAD_ILOAD_ICMPEQ + last - Instruction.ICMPEQ, seq, a, (int) seq[1].getValue(), 
+					(int) seq[2].getValue());
+		}
+	}
+
+	/**
+	 * parsePatterns - reads a comma separated list of pattern names, "all" or "none"
+	 * @param list - the list of names, i.e. the vm.fuse option
+	 * @return - the set of known pattern names in the list
+	 */
+	public static Set<String> parsePatterns(String list)
+	{
+		Set<String> set = new LinkedHashSet<String>();
+		for(String name : list.split(","))
+		{
+			name = name.trim();
+			if(name.equals("all"))
+				for(String pattern : PATTERNS)
+					set.add(pattern);
+			else if(indexOf(name) >= 0)
+				set.add(name);
+			else if(!name.equals("none") && !name.isEmpty())
+				System.out.println("** Unknown superinstruction pattern \"" + name + "\" ignored **\n");
+		}
+		return set;
+	}
+
+	/**
+	 * fromProfile - selects the patterns whose opcode pairs are all frequent in a profile
+	 * recorded by writeProfile(). The score of a pattern is the count of its least frequent
+	 * pair of adjacent positions, a pattern is selected if its score is at least the given
+	 * fraction of all the pairs executed.
+	 * @param file - the profile file
+	 * @param threshold - the fraction of all pairs a pattern must reach, i.e. 0.01
+	 * @return - the selected patterns, all of them if the profile cannot be read
+	 */
+	public static Set<String> fromProfile(String file, double threshold)
+	{
+		long [] counts = new long[OPS * OPS];
+		long total = 0;
+		Scanner scan = null;
+		try
+		{
+			scan = new Scanner(new File(file));
+			while(scan.hasNext())
+			{
+				int first = opcodeOf(scan.next());
+				int second = opcodeOf(scan.next());
+				long count = scan.nextLong();
+				if(first >= 0 && second >= 0)
+					counts[first * OPS + second] += count;
+				total += count;
+			}
+			scan.close();
+		}
+		catch(FileNotFoundException | RuntimeException e)
+		{
+			System.out.println("** Not able to read the opcode profile " + file + ", fusing all patterns **\n");
+			if(scan != null)
+				scan.close();
+			return parsePatterns("all");
+		}
+
+		Set<String> set = new LinkedHashSet<String>();
+		for(int p = 0; p < PATTERNS.length; p++)
+		{
+			long score = Long.MAX_VALUE;
+			for(int k = 0; k + 1 < SHAPES[p].length; k++)
+			{
+				long pair = 0;
+				for(int first : SHAPES[p][k])
+					for(int second : SHAPES[p][k + 1])
+						pair += counts[first * OPS + second];
+				score = Math.min(score, pair);
+			}
+			if(total > 0 && score > 0 && score >= threshold * total)
+				set.add(PATTERNS[p]);
+		}
+		return set;
+	}
+
+	/**
+	 * newProfile - the counters of a profile, Frame.run() counts the opcode pairs it executes
+	 * in the profile of its VM
+	 * @return - the executed opcode pairs, pairs[first * OPS + second], all 0
+	 */
+	public static long [] newProfile()
+	{
+		return new long[OPS * OPS];
+	}
+
+	/**
+	 * profiled - the opcode an executed instruction is counted as in a profile: quick forms and
+	 * the instructions the loader or Jit put in place of a print or an invoke count as the
+	 * instruction of the input language they replace, spawn and join as invoke
+	 * @param op - the opcode executed
+	 * @return - an index of Instruction.MNEMONICS
+	 */
+	static int profiled(int op)
+	{
+		if(op < Instruction.QUICK)
+			return op;
+		if(op < Instruction.ILOAD_ILOAD_IADD)
+			return op - Instruction.QUICK;
+		if(op >= Instruction.PRINT_INT && op <= Instruction.PRINT_NULL)
+			return Instruction.PRINT;
+		return Instruction.INVOKE; //superinstructions are not created while recording
+	}
+
+	/**
+	 * writeProfile - writes the recorded opcode pairs, one "first second count" line per pair
+	 * @param file - the profile file
+	 * @param pairs - the profile, as counted by Frame.run()
+	 */
+	public static void writeProfile(String file, long [] pairs)
+	{
+		try
+		{
+			PrintWriter out = new PrintWriter(file);
+			for(int k = 0; k < pairs.length; k++)
+				if(pairs[k] > 0)
+					out.println(Instruction.MNEMONICS[k / OPS] + " " + Instruction.MNEMONICS[k % OPS] + " " + pairs[k]);
+			out.close();
+		}
+		catch(IOException e)
+		{
+			System.out.println("Error writing the opcode profile " + file);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * indexOf - the index of a pattern in the catalog, -1 if unknown
+	 */
+	private static int indexOf(String name)
+	{
+		for(int p = 0; p < PATTERNS.length; p++)
+			if(PATTERNS[p].equals(name))
+				return p;
+		return -1;
+	}
+
+	/**
+	 * opcodeOf - the opcode of a mnemonic in a profile, -1 if unknown
+	 */
+	private static int opcodeOf(String mnemonic)
+	{
+		for(int op = 0; op < OPS; op++)
+			if(Instruction.MNEMONICS[op].equals(mnemonic))
+				return op;
+		return -1;
+	}
+}
@@ -0,0 +1,28 @@
+package pack;
+
+/**
+ * TailInvoke - an invoke that is immediately followed by return, ireturn or freturn.
+ * It is not part of the input language, VM.markTailCalls() puts it in place of such an
+ * invoke after the jump targets are retargeted. Frame.run() executes it by reusing the
+ * frame of the caller for the callee, so tail recursive functions run in constant frame
+ * space. The return that follows it is kept and still executes when the call is not
+ * eliminated, i.e. by runLegacy() which sees a plain Invoke.
+ */
+public class TailInvoke extends Invoke
+{
+	public TailInvoke(Invoke call)
+	{
+		this((Integer[]) call.getValue());
+	}
+
+	private TailInvoke(Integer [] val)
+	{
+		super(TAIL_INVOKE, val[0], val[1], val[2]);
+	}
+
+	@Override
+	public String print()
+	{
+		return "tail " + super.print();
+	}
+}
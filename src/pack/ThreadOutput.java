@@ -0,0 +1,101 @@
+package pack;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * ThreadOutput - a PrintStream that sends what a thread prints to the stream the thread
+ * captured it with, and what other threads print to the stream it was made with. The
+ * interpreter, the register machine, closures and compiled code all print to System.out, so
+ * Batch makes System.out one of these while it runs and every job captures the output of the
+ * thread it runs on. A thread started by one that captured its output, i.e. a carrier of the
+ * green threads of a program, prints to the same stream. println() of a String, the one the
+ * virtual machine uses, goes straight to the stream of the thread, without the lock every
+ * PrintStream takes.
+ */
+public final class ThreadOutput extends PrintStream
+{
+	private final ThreadLocal<PrintStream> target;
+
+	/**
+	 * ThreadOutput constructor
+	 * @param fallback - where the threads that did not capture their output print
+	 */
+	public ThreadOutput(PrintStream fallback)
+	{
+		this(new InheritableThreadLocal<PrintStream>()
+		{
+			@Override
+			protected PrintStream initialValue()
+			{
+				return fallback;
+			}
+		});
+	}
+
+	private ThreadOutput(ThreadLocal<PrintStream> t)
+	{
+		super(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+				t.get().write(b);
+			}
+
+			@Override
+			public void write(byte [] b, int off, int len)
+			{
+				t.get().write(b, off, len);
+			}
+
+			@Override
+			public void flush()
+			{
+				t.get().flush();
+			}
+		}, true);
+		target = t;
+	}
+
+	/**
+	 * capture - sends what the current thread prints to a stream of its own
+	 * @param out - the stream
+	 */
+	public void capture(PrintStream out)
+	{
+		target.set(out);
+	}
+
+	/**
+	 * release - sends what the current thread prints to the stream this was made with again
+	 */
+	public void release()
+	{
+		target.remove();
+	}
+
+	@Override
+	public void print(String s)
+	{
+		target.get().print(s);
+	}
+
+	@Override
+	public void println(String s)
+	{
+		target.get().println(s);
+	}
+
+	@Override
+	public void println(Object o)
+	{
+		target.get().println(o);
+	}
+
+	@Override
+	public void println()
+	{
+		target.get().println();
+	}
+}
@@ -0,0 +1,117 @@
+package pack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput - measures how the number of programs loaded and executed per second grows with
+ * the number of threads in one JVM:
+ *
+ *     java -cp bin pack.Throughput inputFile.txt [programs] [threads]
+ *
+ * For 1, 2, 4 ... threads, up to the given number or the number of available processors, the
+ * threads load and execute the program the given number of times, 64 by default, every run in
+ * a VM of its own, so nothing but the runtime options is shared between them. A second table
+ * does the same with the program loaded once, every run a VM executing the shared Program. A
+ * round with all the threads warms the JVM up first. The output of print is discarded. The
+ * speedup is the rate over the rate of one thread, and the efficiency the speedup over the
+ * number of threads, 1.0 when the runs scale linearly.
+ */
+public class Throughput
+{
+	public static void main(String [] args) throws IOException, InterruptedException
+	{
+		if(args.length < 1)
+		{
+			System.out.println("usage: java pack.Throughput inputFile.txt [programs] [threads]");
+			return;
+		}
+		int programs = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		PrintStream console = System.out;
+		PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+		console.println("************ THROUGHPUT ************\n");
+		System.setOut(discard);
+		File parsed = File.createTempFile("throughput", ".txt");
+		parsed.deleteOnExit();
+		Program program = Program.load(new String [] {args[0], parsed.getPath()});
+		if(program == null)
+		{
+			System.setOut(console);
+			console.println("** The program has error(s), see " + parsed.getPath() + " **\n");
+			return;
+		}
+		console.println("load and execute:");
+		table(console, args[0], null, programs, maxThreads);
+		console.println("execute one shared Program:");
+		table(console, args[0], program, programs, maxThreads);
+		System.setOut(console);
+	}
+
+	/**
+	 * table - prints the rates of rounds of 1, 2, 4 ... threads
+	 * @param console - where the table is printed
+	 * @param input - the program file
+	 * @param program - the loaded program, null to load it in every run
+	 * @param programs - the number of runs
+	 * @param maxThreads - the most threads
+	 */
+	private static void table(PrintStream console, String input, Program program, int programs, int maxThreads) 
+			throws IOException, InterruptedException
+	{
+		console.printf("%-8s %12s %14s %10s %12s%n", "threads", "ms", "programs/s", "speedup", "efficiency");
+		round(input, program, programs, maxThreads); //warm up
+		double single = 0;
+		for(int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)
+		{
+			long time = round(input, program, programs, threads);
+			double rate = programs / (time / 1e9);
+			single = threads == 1 ? rate : single;
+			console.printf("%-8d %12.2f %14.2f %10.2f %12.2f%n", threads, time / 1e6, rate, rate / single, rate / single / threads);
+		}
+		console.println();
+	}
+
+	/**
+	 * round - loads and executes a program a number of times, spread over a number of threads
+	 * that each take the next run until all are done
+	 * @param input - the program file
+	 * @param program - the loaded program, null to load it in every run
+	 * @param programs - the number of runs
+	 * @param threads - the number of threads
+	 * @return - the wall time in nanoseconds
+	 */
+	private static long round(String input, Program program, int programs, int threads) throws IOException, InterruptedException
+	{
+		AtomicInteger next = new AtomicInteger();
+		Thread [] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++)
+		{
+			File parsed = File.createTempFile("throughput", ".txt"); //every VM writes the parsed output
+			parsed.deleteOnExit();
+			String [] files = {input, parsed.getPath()};
+			workers[t] = new Thread(null, () -> {
+				while(next.getAndIncrement() < programs)
+				{
+					if(program != null)
+					{
+						new VM(program).execute();
+						continue;
+					}
+					VM vm = new VM();
+					if(vm.parseInput(files))
+						vm.execute();
+				}
+			}, "vm-" + t, VM.stackSize * 1024L * 1024L);
+		}
+		long start = System.nanoTime();
+		for(Thread worker : workers)
+			worker.start();
+		for(Thread worker : workers)
+			worker.join();
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,636 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * TypeFlow - interprocedural type analysis of a loaded program. Starting at the first
+ * instruction, it follows every path through the program, symbolically executing the
+ * instructions on the types of the stack of operands and of the memory cells, and splits
+ * the program into GuestFunctions at the invoke instructions.
+ *
+ * The effect of a function on the stack of operands is the stack it leaves at its return
+ * instructions. Recursive functions are solved by iteration: a call to a function whose
+ * effect is still unknown does not continue, and a function is analyzed again whenever the
+ * effect of a function it calls changes, until no effect changes. A function met for the
+ * first time at an invoke is analyzed right away, up to MAX_NESTING deep, so a caller does
+ * not have to be analyzed again for every function it calls. An invoke immediately followed by a return that calls the function it
+ * is in, with nothing else on the stack, jumps back to the entry, the same way Frame.run()
+ * reuses the frame for it. The function a spawn starts is analyzed like an invoked one, but
+ * the caller only gets the int id of the thread, and join takes it.
+ *
+ * The types are recorded only for the span of addresses a function can reach by following
+ * its jumps and fall-throughs, found once for every entry, so the memory of the analysis
+ * grows with the size of the functions and not with their number times the program size.
+ *
+ * The analysis works on the instructions of the input language as they were loaded, before
+ * the loader rewrites them, see VM.originalProgram.
+ */
+public final class TypeFlow
+{
+	public static final byte INT = OperandStack.INT;
+	public static final byte DOUBLE = OperandStack.DOUBLE;
+	public static final byte UNSET = 4; //mask bit of a memory cell that may not have been written
+
+	private static final byte [] EMPTY = new byte[0];
+	private static final int MAX_NESTING = 256; //functions analyzed inside the analysis of their callers
+
+	private final Instruction [] code;
+	private final int length;
+	private final HashMap<String, GuestFunction> functions = new HashMap<String, GuestFunction>();
+	private final ArrayList<GuestFunction> order = new ArrayList<GuestFunction>();
+	private final GuestFunction main;
+	private final HashMap<GuestFunction, LinkedHashSet<GuestFunction>> callers = new HashMap<GuestFunction, LinkedHashSet<GuestFunction>>();
+	private final HashMap<Integer, int []> spans = new HashMap<Integer, int []>(); //low and high of every entry
+	private boolean [] seen; //scratch of span(), false everywhere between calls
+	private int nesting;	 //analyses in progress
+
+	/**
+	 * TypeFlow constructor - analyzes a program, whose execution starts at address 0 in a
+	 * frame without memory cells
+	 * @param program - the instructions as loaded
+	 * @param n - the number of instructions
+	 */
+	public TypeFlow(Instruction [] program, int n)
+	{
+		this(program, n, 0);
+	}
+
+	/**
+	 * TypeFlow constructor - analyzes a program, whose execution starts at address 0 in a
+	 * frame with local variables, as the Inliner makes for the code it copies into it
+	 * @param program - the instructions as loaded
+	 * @param n - the number of instructions
+	 * @param mainCells - the number of memory cells of the frame of the code at address 0
+	 */
+	public TypeFlow(Instruction [] program, int n, int mainCells)
+	{
+		this(program, n, mainCells, EMPTY);
+	}
+
+	/**
+	 * TypeFlow constructor - analyzes a program whose first memory cells of the frame at
+	 * address 0 are inputs, written before it runs, as the parameters of a function are
+	 * @param program - the instructions as loaded
+	 * @param n - the number of instructions
+	 * @param mainCells - the number of memory cells of the frame of the code at address 0, inputs included
+	 * @param inputs - the types of the inputs, INT or DOUBLE
+	 */
+	public TypeFlow(Instruction [] program, int n, int mainCells, byte [] inputs)
+	{
+		code = program;
+		length = n;
+		main = function(0, inputs.length, mainCells - inputs.length, inputs);
+		ArrayDeque<GuestFunction> work = new ArrayDeque<GuestFunction>();
+		LinkedHashSet<GuestFunction> queued = new LinkedHashSet<GuestFunction>();
+		work.add(main);
+		queued.add(main);
+		while(!work.isEmpty())
+		{
+			GuestFunction f = work.poll();
+			queued.remove(f);
+			int found = order.size();
+			boolean changed = analyze(f);
+			for(int k = found; k < order.size(); k++) //analyzing a function may discover new ones
+				if(queued.add(order.get(k)))
+					work.add(order.get(k));
+			if(changed && callers.containsKey(f))
+				for(GuestFunction caller : callers.get(f))
+					if(queued.add(caller))
+						work.add(caller);
+		}
+	}
+
+	/**
+	 * getMain - accessor for the code that runs first, in the frame of no function
+	 * @return - the function at address 0
+	 */
+	public GuestFunction getMain()
+	{
+		return main;
+	}
+
+	/**
+	 * getCode - accessor for the instructions analyzed
+	 * @return - the program as loaded
+	 */
+	public Instruction [] getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * getFunctions - accessor for all the functions found, in the order they were found
+	 * @return - the functions, main first
+	 */
+	public List<GuestFunction> getFunctions()
+	{
+		return order;
+	}
+
+	/**
+	 * lookup - finds a specialization of a function
+	 * @param e - the address of the first instruction
+	 * @param p - the number of parameters
+	 * @param l - the number of local variables
+	 * @param types - the types of the arguments
+	 * @return - the function, null if the program never calls it that way
+	 */
+	public GuestFunction lookup(int e, int p, int l, byte [] types)
+	{
+		return functions.get(GuestFunction.key(e, p, l, types));
+	}
+
+	/**
+	 * argumentTypes - the types of the arguments passed by an invoke, if they are the same
+	 * every time the invoke executes
+	 * @param site - the address of an invoke
+	 * @return - the types of the arguments, null if they depend on the caller or the functions
+	 * that contain the invoke cannot be typed
+	 */
+	public byte [] argumentTypes(int site)
+	{
+		int params = invokeOperands(code[site])[1];
+		byte [] types = null;
+		for(GuestFunction f : order)
+		{
+			if(!f.isReachable(site))
+				continue;
+			if(f.error != null)
+				return null;
+			byte [] s = f.stack(site);
+			byte [] t = Arrays.copyOfRange(s, s.length - params, s.length);
+			if(types != null && !Arrays.equals(types, t))
+				return null;
+			types = t;
+		}
+		return types;
+	}
+
+	/**
+	 * isTailJump - checks if the analysis treated an invoke as a jump back to the entry of the function
+	 * @param f - the function containing the invoke
+	 * @param pc - the address of the invoke
+	 * @return - true if the invoke calls f with nothing else on the stack and is followed by a return
+	 */
+	public boolean isTailJump(GuestFunction f, int pc)
+	{
+		return f.call(pc) == f && pc + 1 < length && isReturn(code[pc + 1].getOpcode()) &&
+				f.stack(pc).length == f.params;
+	}
+
+	/**
+	 * unsupported - decides if a function can be compiled to code with static types: it must be
+	 * typed, leave at most one value on the stack of operands, keep the type of every memory cell,
+	 * print every memory cell the same way on all paths and neither spawn nor join a thread
+	 * @param g - the function
+	 * @return - why it cannot, null if it can
+	 */
+	public String unsupported(GuestFunction g)
+	{
+		if(g.error != null)
+			return "cannot be typed: " + g.error;
+		if(g.result != null && g.result.length > 1)
+			return "leaves " + describe(g.result) + " on the stack of operands";
+		byte [] types = cellTypes(g);
+		for(int k = 0; k < types.length; k++)
+			if(types[k] == (INT | DOUBLE))
+				return "stores both int and double in memory cell " + k;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc) && (code[pc].getOpcode() == Instruction.SPAWN || code[pc].getOpcode() == Instruction.JOIN))
+				return "spawns or joins a thread at " + pc;
+		for(int pc = g.low; pc < g.high; pc++)
+			if(g.isReachable(pc) && code[pc].getOpcode() == Instruction.PRINT)
+			{
+				byte mask = g.memory(pc)[(int) code[pc].getValue()];
+				if(mask != INT && mask != DOUBLE && mask != UNSET)
+					return "prints a memory cell at " + pc + " that may not have been written";
+			}
+		return null;
+	}
+
+	/**
+	 * cellTypes - the types every memory cell of a function holds on some path
+	 * @param g - the function
+	 * @return - a mask of INT and DOUBLE for every memory cell, 0 if unused
+	 */
+	public static byte [] cellTypes(GuestFunction g)
+	{
+		byte [] types = new byte[g.params + g.locals];
+		System.arraycopy(g.paramTypes, 0, types, 0, g.params);
+		for(byte [] m : g.memory)
+			if(m != null)
+				for(int k = 0; k < types.length; k++)
+					types[k] |= m[k] & (INT | DOUBLE);
+		return types;
+	}
+
+	/**
+	 * function - finds or creates a specialization of a function
+	 * @return - the function
+	 */
+	private GuestFunction function(int e, int p, int l, byte [] types)
+	{
+		String key = GuestFunction.key(e, p, l, types);
+		GuestFunction f = functions.get(key);
+		if(f == null)
+		{
+			f = new GuestFunction(e, p, l, types);
+			functions.put(key, f);
+			order.add(f);
+		}
+		return f;
+	}
+
+	/**
+	 * analyze - computes the types before every reachable instruction of a function, using the
+	 * effects of the functions it calls known so far
+	 * @param f - the function
+	 * @return - true if the effect of f changed
+	 */
+	private boolean analyze(GuestFunction f)
+	{
+		if(f.error != null)
+			return false;
+		byte [] result = null; //recursive calls keep seeing the effect of the last pass until this one ends
+		int [] span = span(f.entry);
+		f.low = span[0];
+		f.high = span[1];
+		f.stacks = new byte[f.high - f.low][];
+		f.memory = new byte[f.high - f.low][];
+		f.calls = new GuestFunction[f.high - f.low];
+		f.callees.clear();
+		f.endsProgram = false;
+
+		int [] work = new int[16];
+		int pending = 0;
+		if(f.entry < length)
+		{
+			f.stacks[f.entry - f.low] = EMPTY;
+			f.memory[f.entry - f.low] = entryMemory(f);
+			work[pending++] = f.entry;
+		}
+		else
+			f.endsProgram = true;
+		int [] targets = new int[2];
+		while(pending > 0 && f.error == null)
+		{
+			int pc = work[--pending];
+			byte [] s = f.stack(pc);
+			byte [] m = f.memory(pc);
+			Instruction i = code[pc];
+			String error = null;
+			byte [] next = null;	 //the stack after the instruction
+			byte [] nextMemory = m;
+			int successors = 1;
+			targets[0] = pc + 1;
+			switch(i.getOpcode())
+			{
+			case Instruction.ICONST:
+				next = push(s, INT);
+				break;
+			case Instruction.FCONST:
+				next = push(s, DOUBLE);
+				break;
+			case Instruction.ILOAD:
+			case Instruction.FLOAD:
+			{
+				byte type = i.getOpcode() == Instruction.ILOAD ? INT : DOUBLE;
+				int address = (int) i.getValue();
+				error = checkAddress(f, address);
+				if(error == null)
+					error = checkLoad(m[address], type);
+				next = push(s, type);
+				break;
+			}
+			case Instruction.ISTORE:
+			case Instruction.FSTORE:
+			{
+				byte type = i.getOpcode() == Instruction.ISTORE ? INT : DOUBLE;
+				int address = (int) i.getValue();
+				error = checkAddress(f, address);
+				if(error == null)
+					error = expect(s, type);
+				if(error == null)
+				{
+					next = pop(s, 1);
+					nextMemory = m.clone();
+					nextMemory[address] = type;
+				}
+				break;
+			}
+			case Instruction.IADD:
+			case Instruction.ISUB:
+			case Instruction.IMUL:
+			case Instruction.IDIV:
+				error = expect(s, INT, INT);
+				next = push(pop(s, 2), INT);
+				break;
+			case Instruction.FADD:
+			case Instruction.FSUB:
+			case Instruction.FMUL:
+			case Instruction.FDIV:
+				error = expect(s, DOUBLE, DOUBLE);
+				next = push(pop(s, 2), DOUBLE);
+				break;
+			case Instruction.INT_TO_FLOAT:
+				error = expect(s, INT);
+				next = push(pop(s, 1), DOUBLE);
+				break;
+			case Instruction.ICMPEQ:
+			case Instruction.ICMPNE:
+			case Instruction.ICMPLT:
+			case Instruction.ICMPLE:
+			case Instruction.ICMPGT:
+			case Instruction.ICMPGE:
+				error = expect(s, INT, INT);
+				next = pop(s, 2);
+				targets[successors++] = (int) i.getValue();
+				break;
+			case Instruction.FCMPEQ:
+			case Instruction.FCMPNE:
+			case Instruction.FCMPLT:
+			case Instruction.FCMPLE:
+			case Instruction.FCMPGT:
+			case Instruction.FCMPGE:
+				error = expect(s, DOUBLE, DOUBLE);
+				next = pop(s, 2);
+				targets[successors++] = (int) i.getValue();
+				break;
+			case Instruction.GOTO:
+				next = s;
+				targets[0] = (int) i.getValue();
+				break;
+			case Instruction.INVOKE:
+			{
+				int [] val = invokeOperands(i);
+				if(s.length < val[1])
+				{
+					error = "invoke needs " + val[1] + " argument(s) but the stack has " + s.length;
+					break;
+				}
+				GuestFunction callee = function(val[0], val[1], val[2], Arrays.copyOfRange(s, s.length - val[1], s.length));
+				if(callee.stacks == null && nesting < MAX_NESTING) //never analyzed, nor being analyzed
+				{
+					nesting++;
+					analyze(callee);
+					nesting--;
+				}
+				f.calls[pc - f.low] = callee;
+				callers.computeIfAbsent(callee, c -> new LinkedHashSet<GuestFunction>()).add(f);
+				if(!f.callees.contains(callee))
+					f.callees.add(callee);
+				if(isTailJump(f, pc))
+				{
+					next = EMPTY;
+					nextMemory = entryMemory(f);
+					targets[0] = f.entry;
+				}
+				else if(callee.result != null)
+					next = concat(pop(s, val[1]), callee.result);
+				else
+					successors = 0; //the callee has not been seen returning yet
+				break;
+			}
+			case Instruction.SPAWN:
+			{
+				int [] val = invokeOperands(i);
+				if(s.length < val[1])
+				{
+					error = "spawn needs " + val[1] + " argument(s) but the stack has " + s.length;
+					break;
+				}
+				function(val[0], val[1], val[2], Arrays.copyOfRange(s, s.length - val[1], s.length)); //its result is dropped
+				next = push(pop(s, val[1]), INT);
+				break;
+			}
+			case Instruction.JOIN:
+				error = expect(s, INT);
+				next = pop(s, 1);
+				break;
+			case Instruction.RETURN:
+			case Instruction.IRETURN:
+			case Instruction.FRETURN:
+				if(result == null)
+					result = s;
+				else if(!Arrays.equals(result, s))
+					error = "returns " + describe(s) + " but another return leaves " + describe(result);
+				successors = 0;
+				break;
+			case Instruction.PRINT:
+				error = checkAddress(f, (int) i.getValue());
+				next = s;
+				break;
+			default:
+				error = "unknown opcode " + i.getOpcode();
+			}
+			for(int k = 0; k < successors && error == null; k++)
+			{
+				int target = targets[k];
+				if(target >= length)
+				{
+					f.endsProgram = true;
+					continue;
+				}
+				byte [] old = f.stacks[target - f.low];
+				if(old == null)
+				{
+					f.stacks[target - f.low] = next;
+					f.memory[target - f.low] = nextMemory.clone(); //merge() widens it in place
+				}
+				else if(!Arrays.equals(old, next))
+				{
+					error = "reaches " + target + " with " + describe(next) + " on the stack but other paths have " + describe(old);
+					break;
+				}
+				else if(!merge(f.memory(target), nextMemory))
+					continue;
+				if(pending == work.length)
+					work = Arrays.copyOf(work, pending * 2);
+				work[pending++] = target;
+			}
+			if(error != null)
+				f.error = "function " + f.entry + ", instruction " + pc + " (" + i.print() + "): " + error;
+		}
+		boolean changed = !Arrays.equals(result, f.result);
+		f.result = result;
+		return changed;
+	}
+
+	/**
+	 * span - the addresses a function can reach from its entry through jumps and fall-throughs,
+	 * whatever the types, a superset of the instructions analyze() reaches
+	 * @param entry - the address of the first instruction
+	 * @return - the lowest address and the one after the highest
+	 */
+	private int [] span(int entry)
+	{
+		int [] span = spans.get(entry);
+		if(span != null)
+			return span;
+		span = new int [] {entry, entry};
+		if(entry >= length)
+		{
+			spans.put(entry, span);
+			return span;
+		}
+		if(seen == null)
+			seen = new boolean[length];
+		int [] work = new int[16], visited = new int[16];
+		int pending = 0, count = 0;
+		work[pending++] = entry;
+		seen[entry] = true;
+		while(pending > 0)
+		{
+			int pc = work[--pending];
+			if(count == visited.length)
+				visited = Arrays.copyOf(visited, count * 2);
+			visited[count++] = pc;
+			span[0] = Math.min(span[0], pc);
+			span[1] = Math.max(span[1], pc + 1);
+			int op = code[pc].getOpcode();
+			for(int k = 0; k < 2; k++)
+			{
+				int target;
+				if(k == 0)
+					target = op == Instruction.GOTO || isReturn(op) ? -1 : pc + 1;
+				else
+					target = op == Instruction.GOTO || (op >= Instruction.ICMPEQ && op <= Instruction.FCMPGE) ? (int) code[pc].getValue() : -1;
+				if(target < 0 || target >= length || seen[target])
+					continue;
+				seen[target] = true;
+				if(pending == work.length)
+					work = Arrays.copyOf(work, pending * 2);
+				work[pending++] = target;
+			}
+		}
+		for(int k = 0; k < count; k++)
+			seen[visited[k]] = false;
+		spans.put(entry, span);
+		return span;
+	}
+
+	/**
+	 * entryMemory - the masks of the memory cells when a function starts
+	 * @param f - the function
+	 * @return - the parameter types followed by UNSET for every local variable
+	 */
+	private static byte [] entryMemory(GuestFunction f)
+	{
+		byte [] m = new byte[f.params + f.locals];
+		System.arraycopy(f.paramTypes, 0, m, 0, f.params);
+		Arrays.fill(m, f.params, m.length, UNSET);
+		return m;
+	}
+
+	/**
+	 * merge - adds the masks of one memory to another
+	 * @return - true if into changed
+	 */
+	private static boolean merge(byte [] into, byte [] from)
+	{
+		boolean changed = false;
+		for(int k = 0; k < into.length; k++)
+		{
+			byte mask = (byte) (into[k] | from[k]);
+			changed |= mask != into[k];
+			into[k] = mask;
+		}
+		return changed;
+	}
+
+	private static String checkAddress(GuestFunction f, int address)
+	{
+		if(address < 0 || address >= f.params + f.locals)
+			return "address " + address + " is outside the " + (f.params + f.locals) + " memory cell(s) of the frame";
+		return null;
+	}
+
+	private static String checkLoad(byte mask, byte type)
+	{
+		if((mask & (INT | DOUBLE)) == 0)
+			return "reads a memory cell that was never written";
+		if((mask & (INT | DOUBLE)) != type)
+			return "reads a memory cell that " + ((mask & type) == 0 ? "holds " : "may hold ") +
+					name((byte) (mask & ~type & (INT | DOUBLE)));
+		return null;
+	}
+
+	/**
+	 * expect - checks the types on top of a stack
+	 * @param s - the stack
+	 * @param types - the expected types, the last one on top
+	 * @return - an error message, null if the types are there
+	 */
+	private static String expect(byte [] s, byte ... types)
+	{
+		if(s.length < types.length)
+			return "needs " + types.length + " operand(s) but the stack has " + s.length;
+		byte [] top = Arrays.copyOfRange(s, s.length - types.length, s.length);
+		if(!Arrays.equals(top, types))
+			return "needs " + describe(types) + " but the stack has " + describe(top);
+		return null;
+	}
+
+	private static byte [] push(byte [] s, byte type)
+	{
+		byte [] t = Arrays.copyOf(s, s.length + 1);
+		t[s.length] = type;
+		return t;
+	}
+
+	private static byte [] pop(byte [] s, int n)
+	{
+		return Arrays.copyOf(s, Math.max(0, s.length - n));
+	}
+
+	private static byte [] concat(byte [] s, byte [] t)
+	{
+		byte [] u = Arrays.copyOf(s, s.length + t.length);
+		System.arraycopy(t, 0, u, s.length, t.length);
+		return u;
+	}
+
+	/**
+	 * isReturn - checks for the opcodes of return, ireturn and freturn
+	 * @param op - an opcode
+	 * @return - true if op returns from a function
+	 */
+	static boolean isReturn(int op)
+	{
+		return op == Instruction.RETURN || op == Instruction.IRETURN || op == Instruction.FRETURN;
+	}
+
+	/**
+	 * invokeOperands - the operands of an invoke of the input language
+	 * @param i - the invoke
+	 * @return - the label, number of parameters and number of local variables
+	 */
+	static int [] invokeOperands(Instruction i)
+	{
+		Integer [] val = (Integer[]) i.getValue();
+		return new int [] {val[0], val[1], val[2]};
+	}
+
+	/**
+	 * describe - renders types for the error messages, i.e. [int, double]
+	 * @param types - the types, as on a stack
+	 * @return - the description
+	 */
+	static String describe(byte [] types)
+	{
+		StringBuilder s = new StringBuilder("[");
+		for(int k = 0; k < types.length; k++)
+			s.append(k == 0 ? "" : ", ").append(name(types[k]));
+		return s.append(']').toString();
+	}
+
+	private static String name(byte type)
+	{
+		return type == INT ? "int" : type == DOUBLE ? "double" : "nothing";
+	}
+}
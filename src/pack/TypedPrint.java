@@ -0,0 +1,20 @@
+package pack;
+
+/**
+ * TypedPrint - a print whose memory cell the Verifier proved to hold an int, a double or
+ * nothing every time it executes. The loader replaces the print with it, after which
+ * Frame.run() prints the cell without reading its tag.
+ */
+public final class TypedPrint extends Rewritten
+{
+	/**
+	 * TypedPrint constructor
+	 * @param i - the print being replaced
+	 * @param type - TypeFlow.INT, TypeFlow.DOUBLE or TypeFlow.UNSET for a cell never written
+	 */
+	public TypedPrint(Instruction i, byte type)
+	{
+		super(type == TypeFlow.INT ? PRINT_INT : type == TypeFlow.DOUBLE ? PRINT_DOUBLE : PRINT_NULL, i,
+				(int) i.getValue(), 0, 0, 0.0);
+	}
+}
@@ -2,9 +2,10 @@ package pack;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Scanner;
-import java.util.Stack;
+import java.util.Set;
 
 
 /*************************************************************************************
@@ -36,7 +37,8 @@ import java.util.Stack;
        "goto" <unsigned int> |
        "invoke" <unsigned int> "," <unsigned int> "," <unsigned int> |
        "return" | "ireturn" | "freturn" |
-       "print" <unsigned int>
+       "print" <unsigned int> |
+       "spawn" <unsigned int> "," <unsigned int> "," <unsigned int> | "join"
 	        <cmp inst name> ->
        "icmpeq" | "icmpne" | "icmplt" | "icmple" | "icmpgt" | "icmpge" |
        "fcmpeq" | "fcmpne" | "fcmplt" | "fcmple" | "fcmpgt" | "fcmpge"
@@ -70,23 +72,214 @@ import java.util.Stack;
  *WARNING: Using argv[2] checks for EXACT match and HALTS program when first space delimited mismatch is found
  *****************************************************************************************************************
  *
+ ********************************************* RUNTIME OPTIONS *********************************************
+ *
+ *  The virtual machine accepts the following options as system properties, i.e. java -Dname=value pack.VM ...
+ *
+ *  vm.cache             - a directory where parsed programs are kept in binary form, keyed by the contents
+ *                          of their source, a program found there is not lexed and parsed again, see
+ *                          Bytecode.java, default none
+ *  vm.verify            - false skips the verifier that proves the types and stack depths of the program
+ *                          before it runs, see Verifier.java, default true
+ *  vm.inline            - false keeps every invoke as a call instead of copying small functions into their
+ *                          callers, see Inliner.java, default true
+ *  vm.inlineSize        - the most reachable instructions a function may have to be inlined, default 12
+ *  vm.inlineDepth       - the rounds of inlining, a round also inlines into the copies of the round before,
+ *                          default 2
+ *  vm.optimize          - comma separated optimization passes to run on the loaded program, "all" or "none",
+ *                          default all, see Optimizer.java for the pass names
+ *  vm.memo              - true caches the results of the invokes of pure functions in the interpreter,
+ *                          see Purity.java, default false
+ *  vm.memoSize          - the most results the memo cache keeps, the least recently used are evicted,
+ *                          default 4096
+ *  vm.legacyDispatch     - true runs the original instanceof chain instead of the opcode switch, default false
+ *  vm.maxCallDepth       - the maximum number of nested guest calls before execution halts, default 1000000
+ *  vm.stats              - true prints runtime metrics after execution, i.e. the frame arena high-water mark
+ *  vm.tailCalls          - false keeps invoke followed by a return as a regular call, default true
+ *  vm.fuse               - comma separated superinstruction patterns to fuse, "all" or "none", default all,
+ *                          see Superinstructions.java for the pattern names
+ *  vm.recordProfile      - file to write the executed opcode pairs to, disables fusion for the run
+ *  vm.fuseProfile        - a file written by vm.recordProfile, fuses the patterns that are frequent in it
+ *  vm.fuseThreshold      - the fraction of all executed pairs a pattern needs in vm.fuseProfile, default 0.01
+ *  vm.closures           - true compiles the whole program into closures before it runs instead of
+ *                          interpreting it, see ClosureCompiler.java, default false
+ *  vm.registers          - true translates the whole program into register form before it runs and executes
+ *                          that instead of the stack bytecode, see RegisterTranslator.java, default false
+ *  vm.dumpRegisters      - true writes the register form of the program to the file of argv[1] with
+ *                          ".registers" appended, next to the parsed output, default false
+ *  vm.jit                - false keeps every function in the interpreter, default true
+ *  vm.jitThreshold       - the executions of an invoke before the function it calls is compiled to
+ *                          JVM bytecode, default 1000, see Jit.java
+ *  vm.jitLog             - true prints what the compiler does and why functions stay interpreted
+ *  vm.stackSize          - megabytes of thread stack for the program, compiled functions, closures and the
+ *                          legacy dispatch call each other on it, default 512
+ *  vm.timeSlice          - the instructions a green thread runs before the next one gets its turn, see
+ *                          Scheduler.java, default 10000
+ *  vm.carriers           - the Java threads that run the green threads of a program, default 1
+ *  vm.parallel           - false runs every invoke in the frame chain of its caller, instead of running pairs
+ *                          of independent calls of pure functions at the same time, see Parallelizer.java,
+ *                          default true
+ *  vm.parallelism        - the workers that run the calls forked by the pairs, default the number of processors,
+ *                          1 turns vm.parallel off
+ *  vm.parallelThreshold  - the least instructions both calls of a pair are estimated to execute, default 1000
+ *
+ *****************************************************************************************************************
+ *
  *************************************************************************************************************
  *                      @author Vagner Machado - QC ID 23651127 - Fall 2019
  *************************************************************************************************************
  */
 public class VM extends LexVM
 {
-	//Project 2 variables
-	protected static HashMap<Integer, Integer> jumpMap = new HashMap<Integer, Integer>();
-	protected static Instruction [] instructionArray = new Instruction[1000];
-	protected static int arrayLocation = 0; //for printing the array
-	private static HashMap<Integer, String> compareTarget = new HashMap<Integer,String>(); //used to check for label existence
-	private static ArrayList<Integer> gotoTarget = new ArrayList<Integer>(); //used to check for label existence
-	private static ArrayList<Integer> invokeTarget = new ArrayList<Integer>(); //used to check for label existence
+	//Project 2 variables, made by parseInput() so that a VM executing a loaded Program has none
+	protected HashMap<Integer, Integer> jumpMap;
+	protected Instruction [] instructionArray; //grows as the program is parsed
+	protected int arrayLocation = 0; //for printing the array
+	private HashMap<Integer, String> compareTarget; //used to check for label existence
+	private ArrayList<Integer> gotoTarget; //used to check for label existence
+	private ArrayList<Integer> invokeTarget; //used to check for label existence
 
 	//Project 3 variables
-	protected static Stack <Frame> runtimeStack = new Stack<Frame>();
-	protected static  Stack<Object> operandStack = new Stack<Object>();
+	protected FrameArena runtimeStack = new FrameArena(this);
+	protected OperandStack operandStack = new OperandStack();
+
+	//runtime options, given as -D system properties, see RUNTIME OPTIONS above
+	protected static boolean verify = !"false".equals(System.getProperty("vm.verify")); //verify the program before it runs
+	protected static boolean inline = !"false".equals(System.getProperty("vm.inline")); //copy small functions into callers
+	protected static int inlineSize = Integer.getInteger("vm.inlineSize", 12); //largest function inlined
+	protected static int inlineDepth = Integer.getInteger("vm.inlineDepth", 2); //rounds of inlining
+	protected static Set<String> optimizationPasses = Optimizer.parsePasses(System.getProperty("vm.optimize", "all")); //middle end
+	protected static boolean memoize = Boolean.getBoolean("vm.memo"); //cache the results of pure functions
+	protected static int memoSize = Integer.getInteger("vm.memoSize", 4096); //entries of the memo cache
+	protected static String cacheDirectory = System.getProperty("vm.cache"); //where parsed programs are kept
+	protected static boolean legacyDispatch = Boolean.getBoolean("vm.legacyDispatch"); //instanceof chain instead of opcode switch
+	protected static int maxCallDepth = Integer.getInteger("vm.maxCallDepth", 1000000); //frames allowed on the runtime stack
+	protected static boolean printStatistics = Boolean.getBoolean("vm.stats"); //print runtime metrics after execution
+	protected static boolean tailCallElimination = !"false".equals(System.getProperty("vm.tailCalls")); //reuse frames for tail calls
+	protected static String profileFile = System.getProperty("vm.recordProfile"); //where to write executed opcode pairs
+	protected static Set<String> fusedPatterns = selectFusedPatterns(); //superinstructions to create
+	protected static boolean closures = Boolean.getBoolean("vm.closures"); //run the program as closures
+	protected static boolean registers = Boolean.getBoolean("vm.registers"); //run the program in register form
+	protected static boolean dumpRegisters = Boolean.getBoolean("vm.dumpRegisters"); //write the register form to a file
+	protected static boolean jit = !legacyDispatch && !closures && !registers && !"false".equals(System.getProperty("vm.jit")); //compile hot functions
+	protected static int jitThreshold = Integer.getInteger("vm.jitThreshold", 1000); //invokes before compiling
+	protected static boolean jitLog = Boolean.getBoolean("vm.jitLog"); //print compiler decisions
+	protected static int stackSize = Integer.getInteger("vm.stackSize", 512); //megabytes of thread stack
+	protected static long timeSlice = Math.max(1, Long.getLong("vm.timeSlice", 10000)); //instructions per turn of a green thread
+	protected static int carriers = Math.max(1, Integer.getInteger("vm.carriers", 1)); //Java threads running the green threads
+	protected static int parallelism = Math.max(1, Integer.getInteger("vm.parallelism", Runtime.getRuntime().availableProcessors())); //workers
+	protected static boolean parallel = parallelism > 1 && !"false".equals(System.getProperty("vm.parallel")); //run pairs of calls at once
+	protected static long parallelThreshold = Long.getLong("vm.parallelThreshold", 1000); //least work of a call forked
+
+	//the instructions as loaded and optimized, before the loader rewrites them for the interpreter, analyzed by TypeFlow
+	protected Instruction [] originalProgram;
+	private TypeFlow typeFlow; //the analysis of originalProgram, see analysis()
+	protected int mainCells = 0; //memory cells of the main frame, the Inliner places copies there
+	protected byte [] inputTypes = new byte[0]; //the types of the first cells of the main frame, see Program.load()
+
+	//the loaded program, made by the loader or given to the constructor, shared with other VMs
+	protected Program program;
+
+	//the program as Frame.run() executes it, Program.code() until this VM compiles an invoke
+	protected CompactCode compactCode;
+
+	//runtime state besides the stacks, for the statistics of vm.stats and the profile of vm.recordProfile
+	protected MemoCache memoCache; //the results of pure functions, null if no invoke is memoized
+	protected Jit compiler; //compiles the hot functions of the program, null when vm.jit is off
+	protected long tailCalls; //number of invokes that reused the frame of their caller
+	protected long registerInstructions; //register instructions executed, when vm.registers is on
+	protected long [] profile; //executed opcode pairs, null unless vm.recordProfile is set
+	protected Scheduler scheduler; //runs the green threads, null if the program spawns none
+	protected Subtask forked; //the call a ForkInvoke forked, until the JoinInvoke of the pair takes it
+	protected long forks; //calls run as subtasks, the subtasks of the subtasks included
+	protected boolean subtask; //runs a Subtask, whose Runtime Error the VM that joins it reports
+	protected int callerDepth; //the frames below the runtime stack, of the calls that forked the Subtask
+	protected String error; //the Runtime Error that stopped the Subtask, null if none did
+
+	/**
+	 * VM constructor - a virtual machine with no program loaded. A VM owns all the state of one
+	 * program: its lexer and Stream, its instruction array and labels, the loaded program and
+	 * its runtime stack and stack of operands, so any number of VMs can load and execute programs
+	 * at once on different threads. The runtime options are read once and shared by all of them.
+	 */
+	public VM()
+	{
+	}
+
+	/**
+	 * VM constructor - a virtual machine that executes a loaded program. The program is not
+	 * copied, only the runtime stack, the stack of operands and the memo cache are made, so
+	 * any number of VMs can execute one Program at once.
+	 * @param p - the loaded program
+	 */
+	public VM(Program p)
+	{
+		setProgram(p);
+	}
+
+	/**
+	 * setProgram - makes a loaded program the one this VM executes
+	 * @param p - the loaded program
+	 */
+	private void setProgram(Program p)
+	{
+		program = p;
+		compactCode = p.code();
+		runtimeStack.setTagged(!p.printsTyped);
+		memoCache = p.memoArguments < 0 ? null : new MemoCache(memoSize, p.memoArguments);
+	}
+
+	/**
+	 * child - a virtual machine for a green thread or a Subtask of this one: it executes the
+	 * same program from the newest packed code, counts into the same profile and has a
+	 * compiler of its own when this one has one
+	 * @return - the new virtual machine, with empty stacks
+	 */
+	VM child()
+	{
+		VM child = new VM(program);
+		child.profile = profile;
+		if(compiler != null)
+		{
+			child.compiler = new Jit(child);
+			child.compiler.enable(program.length);
+		}
+		return child;
+	}
+
+	/**
+	 * runtimeError - reports the Runtime Error that stops the code this VM runs. A Subtask keeps
+	 * it for the VM that joins it, so that an execution prints one, as it does when nothing is
+	 * forked, and not one for every subtask that fails at the same time.
+	 * @param message - the error
+	 */
+	void runtimeError(String message)
+	{
+		if(subtask)
+			error = message;
+		else
+			System.out.println(message);
+	}
+
+	/**
+	 * join - waits for the Subtask of a parallel pair, once the second call of the pair has
+	 * returned, and puts its result below the one of that call, in the place the ForkInvoke
+	 * of the pair pushed
+	 * @param task - the subtask
+	 * @return - false if a Runtime Error stopped the subtask
+	 */
+	boolean join(Subtask task)
+	{
+		Long result = task.join();
+		forks += task.getForks();
+		if(result == null)
+		{
+			runtimeError(task.getError());
+			return false;
+		}
+		operandStack.set(1, result);
+		return true;
+	}
 
 	/**
 	 * main - parses and executed lexically correct input in file argument args[0] and saves the parsed 
@@ -95,15 +288,39 @@ public class VM extends LexVM
 	 */
 	public static void main(String[] inputFile) 
 	{	
+		new VM().run(inputFile);
+	}
+
+	/**
+	 * run - parses the program in inputFile[0], saves the parsed output in inputFile[1] and
+	 * executes the program on a thread of its own, with vm.stackSize of thread stack
+	 * @param inputFile - the arguments of main
+	 */
+	public void run(String [] inputFile)
+	{
 		System.out.println("\n************ LEXICAL ANALYSIS ************\n");
-		//public Frame(int pc, Stack<Object> os, int mem , Frame c)
-		Frame main = new Frame();
-		runtimeStack.push(main);
+		if(profileFile != null)
+			profile = Superinstructions.newProfile();
 		if(parseInput(inputFile))
 		{
+			if(registers || dumpRegisters)
+				translateToRegisters(inputFile[1]);
 			System.out.println("\n************ VIRTUAL MACHINE EXECUTION ************\n");
-			main.run();
+			Thread program = new Thread(null, this::execute, "vm", stackSize * 1024L * 1024L);
+			program.start();
+			try
+			{
+				program.join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
 			System.out.println("\n** Virtual machine execution has ended **\n");
+			if(printStatistics)
+				printStatistics();
+			if(profileFile != null)
+				Superinstructions.writeProfile(profileFile, profile);
 		}
 		else
 		{
@@ -111,6 +328,104 @@ public class VM extends LexVM
 		}
 	}
 
+	/**
+	 * execute - runs the loaded program on the current thread, in the execution mode selected
+	 * by the runtime options
+	 */
+	public void execute()
+	{
+		execute(new Number[0]);
+	}
+
+	/**
+	 * execute - runs the loaded program on the current thread with the first memory cells of
+	 * the main frame set to its inputs
+	 * @param inputs - an Integer for every int input and a Double for every double input
+	 * @throws IllegalArgumentException - if the values do not match the inputs of the program
+	 */
+	public void execute(Number ... inputs)
+	{
+		long [] cells = program.cells(inputs);
+		Frame main = runtimeStack.push(0, program.mainCells, 0, null);
+		for(int k = 0; k < cells.length; k++)
+		{
+			runtimeStack.slots[main.base + k] = cells[k];
+			runtimeStack.tags[main.base + k] = program.inputs[k];
+		}
+		if(jit)
+		{
+			compiler = new Jit(this);
+			compiler.enable(program.length);
+		}
+		if(closures)
+		{
+			ClosureFunction code = program.closures();
+			if(code != null)
+			{
+				ClosureCompiler.execute(code, cells);
+				return;
+			}
+		}
+		if(registers && program.registers() != null)
+		{
+			registerInstructions = RegisterMachine.run(program.registers(), cells);
+			return;
+		}
+		interpret(main);
+	}
+
+	/**
+	 * interpret - runs the main frame in the interpreter, with the Scheduler if the program has
+	 * green threads
+	 * @param main - the main frame, on the runtime stack of this VM
+	 */
+	void interpret(Frame main)
+	{
+		if(!program.threads)
+			main.run();
+		else if(legacyDispatch) //the instanceof chain would run spawn as an invoke
+			System.out.println("Runtime Error: spawn and join need the opcode dispatch, see vm.legacyDispatch");
+		else
+		{
+			scheduler = new Scheduler(this);
+			scheduler.run(main);
+		}
+	}
+
+	/**
+	 * translateToRegisters - translates the loaded program into register form and writes it
+	 * next to the parsed output if vm.dumpRegisters is set
+	 * @param parsedOutput - the file of argv[1]
+	 */
+	private void translateToRegisters(String parsedOutput)
+	{
+		RegisterProgram registerProgram = program.registers();
+		if(registerProgram == null || !dumpRegisters)
+			return;
+		try
+		{
+			registerProgram.dump(parsedOutput + ".registers");
+			System.out.println("\n** Register form of " + program.length + " instructions, " + registerProgram.getLength() + 
+					" register instructions, written to " + parsedOutput + ".registers **");
+		}
+		catch(FileNotFoundException e)
+		{
+			System.out.println("\n** Cannot write the register form to " + parsedOutput + ".registers **");
+		}
+	}
+
+	/**
+	 * analysis - the type analysis of the program being loaded, shared by the verifier and the
+	 * rewrites of the loader, and handed to the Program
+	 * @return - the analysis of originalProgram, made on the first call
+	 */
+	TypeFlow analysis()
+	{
+		if(typeFlow == null)
+			typeFlow = new TypeFlow(originalProgram, arrayLocation, mainCells, inputTypes);
+		return typeFlow;
+	}
+
 	/**
 	 * parseInput - performs all actions needed to accomplish Project 2:
 	 * It reads from input file, validates input, instantiates Instructions
@@ -118,7 +433,7 @@ public class VM extends LexVM
 	 * @param args - argument array passed as param to program.
 	 * @return - false if parsing failed due to syntax error, true otherwise
 	 */
-	public static boolean parseInput(String [] args)
+	public boolean parseInput(String [] args)
 	{
 		boolean labelError = false; // output 7 expects multiple repeated labels to be printed, this boolean controls that
 		boolean invokeError = false; //used to detect undefined target for invoke
@@ -134,7 +449,29 @@ public class VM extends LexVM
 		// argv[0]: input file containing tokens defined above
 		// argv[1]: output file displaying a list of the tokens and categories
 		//initialize a Stream with files passed as arguments
-		Stream.setStream(args[0], args[1]);
+		stream = new Stream(args[0], args[1]);
+		jumpMap = new HashMap<Integer, Integer>();
+		instructionArray = new Instruction[1024];
+		arrayLocation = 0;
+		compareTarget = new HashMap<Integer,String>();
+		gotoTarget = new ArrayList<Integer>();
+		invokeTarget = new ArrayList<Integer>();
+
+		byte [] key = null; //of the source in the cache
+		if(cacheDirectory != null && stream.inStream != null)
+		{
+			key = Bytecode.key(stream.inStream);
+			Instruction [] cached = Bytecode.load(cacheDirectory, key, jumpMap);
+			if(cached != null)
+			{
+				ensureCapacity(cached.length);
+				System.arraycopy(cached, 0, instructionArray, 0, cached.length);
+				arrayLocation = cached.length;
+				System.out.println("** Loaded " + arrayLocation + " instructions from the bytecode cache, " + 
+						"lexical analysis and parsing are skipped **\n");
+				return loadProgram(args);
+			}
+		}
 
 		String val = getToken();
 		String colon = "";
@@ -142,7 +479,7 @@ public class VM extends LexVM
 		// no input or bad first token
 		if (val == null)
 		{
-			Stream.close();
+			stream.close();
 			return false; 
 
 		}
@@ -165,8 +502,8 @@ public class VM extends LexVM
 				int target = Integer.parseInt(val);
 				if (target < 0)
 				{
-					Stream.displayln("Syntax Error: Label cannot be negative, parser extracted \"" + target + "\"\n");
-					Stream.close();
+					stream.displayln("Syntax Error: Label cannot be negative, parser extracted \"" + target + "\"" + stream.at() + "\n");
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 
 					return false;
@@ -174,10 +511,10 @@ public class VM extends LexVM
 				else
 				{
 					colon = getToken();
-					if(colon == null || !LexVM.state.equals(State.Colon) )
+					if(colon == null || !state.equals(State.Colon) )
 					{
-						Stream.displayln("Syntax Error: Label expects \":\", parser extracted \"" + colon + "\"\n");
-						Stream.close();
+						stream.displayln("Syntax Error: Label expects \":\", parser extracted \"" + colon + "\"" + stream.at() + "\n");
+						stream.close();
 						displayErrorsOnConsole(args[1]);
 						return false;
 					}
@@ -185,7 +522,7 @@ public class VM extends LexVM
 					{
 						if(jumpMap.containsKey(target))
 						{
-							Stream.displayln("Syntax Error: The label \"" + val + "\" appears more than once");
+							stream.displayln("Syntax Error: The label \"" + val + "\" appears more than once" + stream.at());
 							labelError = true;
 						}
 						else
@@ -199,12 +536,12 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.SignedInt) || state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Iconst(Integer.parseInt(val));
+					append(new Iconst(Integer.parseInt(val)));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: iconst expects an integer, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: iconst expects an integer, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -215,12 +552,12 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Iload(Integer.parseInt(val));
+					append(new Iload(Integer.parseInt(val)));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: iload expects an unsigned integer, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: iload expects an unsigned integer, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -231,12 +568,12 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Istore(Integer.parseInt(val));
+					append(new Istore(Integer.parseInt(val)));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: istore expects an unsigned integer, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: istore expects an unsigned integer, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -247,12 +584,12 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.FloatE) || state.equals(State.Float))
 				{
-					instructionArray[arrayLocation++] = new Fconst(Double.parseDouble(val));
+					append(new Fconst(Double.parseDouble(val)));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fconst expects a float, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fconst expects a float, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -263,12 +600,12 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fload(Integer.parseInt(val));
+					append(new Fload(Integer.parseInt(val)));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fload expects an unsigned integer, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fload expects an unsigned integer, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -279,12 +616,12 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fstore(Integer.parseInt(val));
+					append(new Fstore(Integer.parseInt(val)));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fstore expects an unsigned integer, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fstore expects an unsigned integer, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -292,62 +629,62 @@ public class VM extends LexVM
 			}
 			case iadd:
 			{
-				instructionArray[arrayLocation++] = new Iadd();
+				append(new Iadd());
 				break;
 			}
 			case isub:
 			{
-				instructionArray[arrayLocation++] = new Isub();
+				append(new Isub());
 				break;
 			}
 			case imul:
 			{
-				instructionArray[arrayLocation++] = new Imul();
+				append(new Imul());
 				break;
 			}
 			case idiv:
 			{
-				instructionArray[arrayLocation++] = new Idiv();
+				append(new Idiv());
 				break;
 			}
 			case fadd:
 			{
-				instructionArray[arrayLocation++] = new Fadd();
+				append(new Fadd());
 				break;
 			}
 			case fsub:
 			{
-				instructionArray[arrayLocation++] = new Fsub();
+				append(new Fsub());
 				break;
 			}
 			case fmul:
 			{
-				instructionArray[arrayLocation++] = new Fmul();
+				append(new Fmul());
 				break;
 			}
 			case fdiv:
 			{
-				instructionArray[arrayLocation++] = new Fdiv();
+				append(new Fdiv());
 				break;
 			}
 			case intToFloat:
 			{
-				instructionArray[arrayLocation++] = new IntToFloat();
+				append(new IntToFloat());
 				break;
 			}
 			case ireturn:
 			{
-				instructionArray[arrayLocation++] = new Ireturn();
+				append(new Ireturn());
 				break;
 			}
 			case Return:
 			{
-				instructionArray[arrayLocation++] = new Return();
+				append(new Return());
 				break;
 			}
 			case freturn:
 			{
-				instructionArray[arrayLocation++] = new Freturn();
+				append(new Freturn());
 				break;
 			}
 			case Goto:
@@ -355,13 +692,13 @@ public class VM extends LexVM
 				val = getToken();
 				if( state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Goto(Integer.parseInt(val));
+					append(new Goto(Integer.parseInt(val)));
 					gotoTarget.add(Integer.parseInt(val));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: Goto expects an unsigned integer, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: Goto expects an unsigned integer, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -372,19 +709,21 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Print(Integer.parseInt(val));
+					append(new Print(Integer.parseInt(val)));
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: Print expects an unsigned integer, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: Print expects an unsigned integer, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
 				break;
 			}
 			case invoke:
+			case spawn:
 			{
+				String name = state.equals(State.spawn) ? "Spawn" : "Invoke";
 				int [] params = new int[3];
 				int index = 0;
 				val = getToken();
@@ -397,8 +736,8 @@ public class VM extends LexVM
 					}
 					else
 					{
-						Stream.displayln("Syntax Error: Invoke expects unsigned integer parameters, parser extracted \"" + val + "\"");
-						Stream.close();
+						stream.displayln("Syntax Error: " + name + " expects unsigned integer parameters, parser extracted \"" + val + "\"" + stream.at());
+						stream.close();
 						displayErrorsOnConsole(args[1]);
 						return false;
 					}
@@ -407,8 +746,8 @@ public class VM extends LexVM
 						val = getToken();
 						if(!state.equals(State.Comma))
 						{
-							Stream.displayln("Syntax Error: Invoke expects \",\", parser extracted \"" + val + "\"");
-							Stream.close();
+							stream.displayln("Syntax Error: " + name + " expects \",\", parser extracted \"" + val + "\"" + stream.at());
+							stream.close();
 							displayErrorsOnConsole(args[1]);
 							return false;
 						}
@@ -416,22 +755,27 @@ public class VM extends LexVM
 					}
 
 				}
-				instructionArray[arrayLocation++] = new Invoke(params[0], params[1], params[2]);
+				append(name.equals("Spawn") ? new Spawn(params[0], params[1], params[2]) : new Invoke(params[0], params[1], params[2]));
 				invokeTarget.add(params[0]);
 				break;
 			}
+			case join:
+			{
+				append(new Join());
+				break;
+			}
 			case icmpeq:
 			{
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Icmpeq(Integer.parseInt(val));
+					append(new Icmpeq(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "icmpeq");		
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: icmpeq expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: icmpeq expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -443,13 +787,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Icmpne(Integer.parseInt(val));
+					append(new Icmpne(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "icmpne");	
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: icmpne expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: icmpne expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}				
@@ -461,13 +805,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{						
-					instructionArray[arrayLocation++] = new Icmplt(Integer.parseInt(val));
+					append(new Icmplt(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "icmplt");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: icmplt expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: icmplt expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -479,13 +823,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Icmple(Integer.parseInt(val));
+					append(new Icmple(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "icmple");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: icmple expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: icmple expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -497,13 +841,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Icmpgt(Integer.parseInt(val));
+					append(new Icmpgt(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "icmpgt");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: icmpgt expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: icmpgt expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -515,13 +859,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Icmpge(Integer.parseInt(val));
+					append(new Icmpge(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "icmpge");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: icmpge expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: icmpge expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -532,13 +876,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fcmpeq(Integer.parseInt(val));
+					append(new Fcmpeq(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val),"fcmpeq");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fcmpeq expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fcmpeq expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -551,13 +895,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fcmpne(Integer.parseInt(val));
+					append(new Fcmpne(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "fcmpne");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fcmpne expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fcmpne expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}				
@@ -569,13 +913,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fcmplt(Integer.parseInt(val));
+					append(new Fcmplt(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "fcmplt");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fcmplt expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fcmplt expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -587,13 +931,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fcmple(Integer.parseInt(val));
+					append(new Fcmple(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "fcmpeq");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fcmple expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fcmple expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -605,13 +949,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fcmpgt(Integer.parseInt(val));
+					append(new Fcmpgt(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "fcmpgt");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fcmpgt expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fcmpgt expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -623,13 +967,13 @@ public class VM extends LexVM
 				val = getToken();
 				if(state.equals(State.UnsignedInt))
 				{
-					instructionArray[arrayLocation++] = new Fcmpge(Integer.parseInt(val));
+					append(new Fcmpge(Integer.parseInt(val)));
 					compareTarget.put(Integer.parseInt(val), "fcmpge");
 				}
 				else
 				{
-					Stream.displayln("Syntax Error: fcmpge expects an unsigned integer jump target, parser extracted \"" + val + "\"");
-					Stream.close();
+					stream.displayln("Syntax Error: fcmpge expects an unsigned integer jump target, parser extracted \"" + val + "\"" + stream.at());
+					stream.close();
 					displayErrorsOnConsole(args[1]);
 					return false;
 				}
@@ -637,8 +981,8 @@ public class VM extends LexVM
 			}
 
 			default:
-				Stream.displayln("Syntax Error:  Unexpected state \"" + state.toString() +"\" reached while parsing \"" +  val + "\"");
-				Stream.close();
+				stream.displayln("Syntax Error:  Unexpected state \"" + state.toString() +"\" reached while parsing \"" +  val + "\"" + stream.at());
+				stream.close();
 				displayErrorsOnConsole(args[1]);
 				return false;
 			}
@@ -646,7 +990,7 @@ public class VM extends LexVM
 		}
 
 		//returns false if there are lexical errors
-		if(Stream.IsStreamAvailable())
+		if(stream.IsStreamAvailable())
 			System.out.println("** The input does not have lexical errors **\n");
 		else
 		{
@@ -666,7 +1010,7 @@ public class VM extends LexVM
 		//checks for the existence of target or label errors
 		if (labelError || invokeError || compareError || gotoError)
 		{
-			Stream.close();
+			stream.close();
 			displayErrorsOnConsole(args[1]);
 			return false;
 		}
@@ -678,10 +1022,66 @@ public class VM extends LexVM
 
 		System.out.println("** Retargeting jump labels using the Map **\n");
 		refractJumpTargets();
+		if(key != null && Bytecode.store(cacheDirectory, key, instructionArray, arrayLocation, jumpMap))
+			System.out.println("** Stored the parsed program in the bytecode cache **\n");
+		return loadProgram(args);
+	}
+
+	/**
+	 * loadProgram - verifies the parsed program, writes it to the output file and rewrites it
+	 * for the interpreter: inlining, optimization, typed prints, tail calls, memoization,
+	 * parallel pairs of invokes and superinstructions
+	 * @param args - argument array passed as param to program.
+	 * @return - false if the program failed verification, true otherwise
+	 */
+	private boolean loadProgram(String [] args)
+	{
+		originalProgram = Arrays.copyOf(instructionArray, arrayLocation);
+		typeFlow = null;
+		mainCells = inputTypes.length;
+		if(verify)
+		{
+			System.out.println("** Verifying types and stack depths **\n");
+			if(!Verifier.verify(analysis(), stream))
+			{
+				stream.close();
+				displayErrorsOnConsole(args[1], "verification");
+				return false;
+			}
+		}
 
 		System.out.println("** Printing the instruction array to file **\n");
 		printInstructionArray();
-		Stream.close();
+
+		for(int round = 0; inline && round < inlineDepth; round++)
+		{
+			arrayLocation = Inliner.inline(this, new TypeFlow(instructionArray, arrayLocation, mainCells, inputTypes), inlineSize);
+			originalProgram = Arrays.copyOf(instructionArray, arrayLocation);
+			typeFlow = null;
+		}
+		if(!optimizationPasses.isEmpty())
+		{
+			arrayLocation = Optimizer.optimize(instructionArray, arrayLocation, jumpMap, optimizationPasses);
+			originalProgram = Arrays.copyOf(instructionArray, arrayLocation);
+			typeFlow = null;
+		}
+		boolean printsTyped = false;
+		if(verify && !legacyDispatch) //the instanceof chain only knows the original print
+			printsTyped = Verifier.typePrints(instructionArray, arrayLocation, analysis());
+		Set<Integer> targets = Optimizer.jumpTargets(instructionArray, arrayLocation); //copies jump where no label is
+		if(tailCallElimination)
+			System.out.println("** Rewrote " + markTailCalls() + " tail call(s) **\n");
+		int memoArguments = -1;
+		if(memoize && !legacyDispatch) //the instanceof chain only knows the original invoke
+			memoArguments = Purity.memoize(instructionArray, arrayLocation, analysis());
+		if(parallel && !legacyDispatch) //the instanceof chain only knows the original invoke
+			Parallelizer.parallelize(instructionArray, arrayLocation, targets, analysis(), parallelThreshold);
+		if(!fusedPatterns.isEmpty())
+			System.out.println("** Fused " + Superinstructions.fuse(instructionArray, arrayLocation, targets, 
+					fusedPatterns) + " superinstruction(s) **\n");
+		setProgram(new Program(CompactCode.pack(instructionArray, arrayLocation), originalProgram, mainCells, 
+				inputTypes, printsTyped, memoArguments, typeFlow));
+		stream.close();
 
 		if(args.length == 3)
 		{
@@ -697,31 +1097,133 @@ public class VM extends LexVM
 	}
 
 	/**
-	 * refractJumpTargets - changes the label for Goto, Compare and Invoke objects
-	 * based on the map created during parsing of input file.
+	 * append - adds an instruction at the end of the instruction array, which doubles when it is full
+	 * @param i - the instruction
+	 */
+	void append(Instruction i)
+	{
+		ensureCapacity(arrayLocation + 1);
+		instructionArray[arrayLocation++] = i;
+	}
+
+	/**
+	 * ensureCapacity - makes the instruction array large enough for a number of instructions
+	 * @param n - the number of instructions
+	 */
+	void ensureCapacity(int n)
+	{
+		if(n > instructionArray.length)
+			instructionArray = Arrays.copyOf(instructionArray, Math.max(n, 2 * instructionArray.length));
+	}
+
+	/**
+	 * refractJumpTargets - replaces Goto, Compare, Invoke and Spawn objects with ones whose label
+	 * is the address given by the map created during parsing of input file.
 	 */
-	public static void refractJumpTargets()
+	public void refractJumpTargets()
 	{
 		for (int i = 0; i < arrayLocation; i++)
 		{
 			if (instructionArray[i] instanceof Goto)
-				((Goto) instructionArray[i]).refract();
+				instructionArray[i] = ((Goto) instructionArray[i]).refract(jumpMap);
 			else if (instructionArray[i] instanceof Compare)
-				((Compare) instructionArray[i]).refract();
+				instructionArray[i] = ((Compare) instructionArray[i]).refract(jumpMap);
 			else if (instructionArray[i] instanceof Invoke)
-				((Invoke) instructionArray[i]).refract();
+				instructionArray[i] = ((Invoke) instructionArray[i]).refract(jumpMap);
+			else if (instructionArray[i] instanceof Spawn)
+				instructionArray[i] = ((Spawn) instructionArray[i]).refract(jumpMap);
+		}
+	}
+
+	/**
+	 * printStatistics - prints the runtime metrics of the last execution to the console
+	 */
+	public void printStatistics()
+	{
+		System.out.println("************ RUNTIME STATISTICS ************\n");
+		System.out.println("Frame arena high-water mark: " + runtimeStack.getHighWaterMark() + " memory cells");
+		System.out.println("Deepest runtime stack: " + runtimeStack.getDeepestStack() + " frames");
+		System.out.println("Tail calls executed in the caller frame: " + tailCalls);
+		System.out.println("Instructions quickened: " + compactCode.getQuickened());
+		if(compiler != null)
+		{
+			System.out.println("Functions compiled to JVM bytecode: " + compiler.getFunctionsCompiled() + ", called from " + 
+					compiler.getSitesCompiled() + " invoke(s)");
+			System.out.println("Hot functions left to the interpreter: " + compiler.getRejected());
+		}
+		if(scheduler != null)
+			System.out.println("Green threads: " + scheduler.getThreads() + ", run in " + scheduler.getSlices() + " time slice(s)");
+		if(forks > 0)
+			System.out.println("Calls run as subtasks: " + forks + ", on " + parallelism + " worker(s)");
+		if(memoCache != null)
+			System.out.println("Memo cache: " + memoCache.getHits() + " hit(s), " + memoCache.getMisses() + " miss(es), " + 
+					memoCache.getEvictions() + " eviction(s)");
+		if(registers && program.registers() != null)
+			System.out.println("Register instructions executed: " + registerInstructions + ", translated from " + 
+					program.length + " stack instructions into " + program.registers().getLength());
+		System.out.println();
+	}
+
+	/**
+	 * markTailCalls - replaces every invoke that is immediately followed by return, ireturn
+	 * or freturn with a TailInvoke, which Frame.run() executes by reusing the frame of the
+	 * caller. Must be called after refractJumpTargets() since TailInvoke keeps the retargeted
+	 * function address.
+	 * @return - the number of invoke instructions rewritten
+	 */
+	public int markTailCalls()
+	{
+		int count = 0;
+		for (int i = 0; i + 1 < arrayLocation; i++)
+		{
+			Instruction next = instructionArray[i + 1];
+			if (instructionArray[i].getOpcode() == Instruction.INVOKE && 
+					(next instanceof Return || next instanceof Ireturn || next instanceof Freturn))
+			{
+				instructionArray[i] = new TailInvoke((Invoke) instructionArray[i]);
+				count++;
+			}
 		}
+		return count;
+	}
+
+	/**
+	 * selectFusedPatterns - decides which superinstruction patterns the loader fuses based on
+	 * the vm.fuse, vm.fuseProfile and vm.recordProfile options
+	 * @return - the names of the patterns to fuse
+	 */
+	private static Set<String> selectFusedPatterns()
+	{
+		if(legacyDispatch) //the instanceof chain only knows the original instructions
+			return Superinstructions.parsePatterns("none");
+		if(profileFile != null) //the profile must see the instructions one at a time
+			return Superinstructions.parsePatterns("none");
+		String profile = System.getProperty("vm.fuseProfile");
+		if(profile != null)
+			return Superinstructions.fromProfile(profile, Double.parseDouble(System.getProperty("vm.fuseThreshold", "0.01")));
+		return Superinstructions.parsePatterns(System.getProperty("vm.fuse", "all"));
+	}
+
+	/**
+	 * displayErrorsOnConsole - displays the error information printed to output file
+	 * onto the console.
+	 * @param file - the program output file to serve as input 
+	 */
+	private void displayErrorsOnConsole(String file) 
+	{
+		displayErrorsOnConsole(file, "syntax");
 	}
 
 	/**
 	 * displayErrorsOnConsole - displays the error information printed to output file
 	 * onto the console.
 	 * @param file - the program output file to serve as input 
+	 * @param kind - the kind of the errors, i.e. syntax
 	 */
-	private static void displayErrorsOnConsole(String file) 
+	private void displayErrorsOnConsole(String file, String kind) 
 	{
-		System.out.println("\n**The program has the following syntax errors **\n");
-		Stream.close();
+		System.out.println("\n**The program has the following " + kind + " errors **\n");
+		stream.close();
 		Scanner scan = null;
 		try 
 		{
@@ -740,11 +1242,11 @@ public class VM extends LexVM
 	/**
 	 * printInstructionArray - prints all the program instructions to output file.
 	 */
-	public static void printInstructionArray()
+	public void printInstructionArray()
 	{ 
 		int place = 0;
 		for (int i = 0; i < arrayLocation; i++)
-			Stream.displayln(place++ + ": " + instructionArray[i].print());
+			stream.displayln(place++ + ": " + instructionArray[i].print());
 
 	}
 
@@ -780,14 +1282,14 @@ public class VM extends LexVM
 	 * @param name -  either goto or invoke passed as parameter
 	 * @return - true if an invalid target is found, false otherwise
 	 */
-	public static boolean checkTarget(ArrayList<Integer> list, HashMap<Integer, Integer> map, String name)
+	public boolean checkTarget(ArrayList<Integer> list, HashMap<Integer, Integer> map, String name)
 	{
 		boolean temp = false;
 		for(Integer x : list)
 			if(!map.containsKey(x))
 			{
 				temp = true;
-				Stream.displayln("Syntax Error: The jump target \"" + x + "\" is not defined for function " + name );
+				stream.displayln("Syntax Error: The jump target \"" + x + "\" is not defined for function " + name );
 			}
 		return temp;
 	}
@@ -798,14 +1300,14 @@ public class VM extends LexVM
 	 * @param map - a map of valid jump targets
 	 * @return - true if an invalid target is found, false otherwise
 	 */
-	public static boolean checkTarget(HashMap<Integer, String> list, HashMap<Integer, Integer> map)
+	public boolean checkTarget(HashMap<Integer, String> list, HashMap<Integer, Integer> map)
 	{
 		boolean temp = false;
 		for(HashMap.Entry<Integer, String> x : list.entrySet())
 			if(!map.containsKey(x.getKey()))
 			{
 				temp = true;
-				Stream.displayln("Syntax Error: The jump target \"" + x.getKey() + "\" is not defined for function " + x.getValue());
+				stream.displayln("Syntax Error: The jump target \"" + x.getKey() + "\" is not defined for function " + x.getValue());
 			}
 		return temp;
 	}
@@ -0,0 +1,69 @@
+package pack;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Verifier - checks a program when it is loaded, in the spirit of the class file verifier of
+ * the JVM. The dataflow of TypeFlow over the instructions and their resolved jump targets
+ * proves, for every function reachable from address 0, the depth of the stack of operands
+ * and the int or double type of every operand and memory cell at every instruction, that
+ * every invoke finds its arguments on the stack, that every address is inside the frame and
+ * that paths that meet agree on the stack. Frame.run() pops operands without looking at
+ * their tags or at the size of the stack, so a program that fails is not executed.
+ *
+ * A verified program also has the type of every printed memory cell known at every print,
+ * and typePrints() uses that to take the tags of the memory cells out of the interpreter.
+ */
+public final class Verifier
+{
+	private Verifier()
+	{
+	}
+
+	/**
+	 * verify - reports every error found by the analysis of a program to the output file
+	 * @param flow - the analysis of the program
+	 * @param out - the output file of the program
+	 * @return - true if the program is verified, false if an error was reported
+	 */
+	public static boolean verify(TypeFlow flow, Stream out)
+	{
+		LinkedHashSet<String> errors = new LinkedHashSet<String>(); //specializations of a function repeat its errors
+		for(GuestFunction g : flow.getFunctions())
+			if(g.error != null)
+				errors.add(g.error);
+		for(String error : errors)
+			out.displayln("Verification Error: " + error);
+		return errors.isEmpty();
+	}
+
+	/**
+	 * typePrints - replaces every print of a verified program whose memory cell has the same
+	 * type in all the functions that reach it with a TypedPrint. A TypedPrint never looks at the
+	 * tag of its cell, so the masks must hold every type any path can leave there, see
+	 * regression/unset-print.txt.
+	 * @param code - the instruction array
+	 * @param n - the number of instructions
+	 * @param flow - the analysis of the program
+	 * @return - true if every reachable print was replaced, so no instruction reads the tags
+	 */
+	public static boolean typePrints(Instruction [] code, int n, TypeFlow flow)
+	{
+		boolean all = true;
+		for(int pc = 0; pc < n; pc++)
+		{
+			if(code[pc].getOpcode() != Instruction.PRINT)
+				continue;
+			int cell = (int) code[pc].getValue();
+			byte mask = 0;
+			for(GuestFunction g : flow.getFunctions())
+				if(g.isReachable(pc))
+					mask |= g.memory(pc)[cell];
+			if(mask == TypeFlow.INT || mask == TypeFlow.DOUBLE || mask == TypeFlow.UNSET)
+				code[pc] = new TypedPrint(code[pc], mask);
+			else if(mask != 0)
+				all = false;
+		}
+		return all;
+	}
+}